@@ -0,0 +1,556 @@
+package com.vojtkovszky.rainbowhathub;
+
+import android.util.Log;
+
+import com.vojtkovszky.rainbowhathub.events.EventBus;
+import com.vojtkovszky.rainbowhathub.filters.DeadbandFilter;
+import com.vojtkovszky.rainbowhathub.filters.ExponentialFilter;
+import com.vojtkovszky.rainbowhathub.filters.FilterChain;
+import com.vojtkovszky.rainbowhathub.filters.KalmanFilter;
+import com.vojtkovszky.rainbowhathub.filters.MedianFilter;
+import com.vojtkovszky.rainbowhathub.handlers.DisplayHandler;
+import com.vojtkovszky.rainbowhathub.handlers.DisplayRenderer;
+import com.vojtkovszky.rainbowhathub.handlers.LedAnimationsHandler;
+import com.vojtkovszky.rainbowhathub.handlers.LedStripRenderer;
+import com.vojtkovszky.rainbowhathub.handlers.RainbowBumpHandler;
+import com.vojtkovszky.rainbowhathub.handlers.SamplingModeHandler;
+import com.vojtkovszky.rainbowhathub.handlers.ServoHandler;
+import com.vojtkovszky.rainbowhathub.handlers.SpeakerTonesHandler;
+import com.vojtkovszky.rainbowhathub.handlers.WorkingModeHandler;
+import com.vojtkovszky.rainbowhathub.hat.ComponentsManager;
+import com.vojtkovszky.rainbowhathub.input.GestureEngine;
+import com.vojtkovszky.rainbowhathub.sensors.FilterStage;
+import com.vojtkovszky.rainbowhathub.sensors.SampleRingBuffer;
+import com.vojtkovszky.rainbowhathub.sensors.SensorRecorder;
+import com.vojtkovszky.rainbowhathub.sensors.SensorSampler;
+import com.vojtkovszky.rainbowhathub.telemetry.TelemetryServer;
+import com.vojtkovszky.rainbowhathub.trace.TraceRecorder;
+import com.vojtkovszky.rainbowhathub.trace.TraceReplayer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The hub itself, wiring the HAT's inputs to its outputs, independent of what hosts it.
+ *
+ * The logic goes like this:
+ * - When the hub starts, everything is off
+ * - Pressing any capacitive button will light the led above it and play feedback sound
+ * - Tapping capacitive button A will toggle between different working modes,
+ *   defined in {@link WorkingModeHandler.WorkingMode}, showing result on display
+ * - Long pressing capacitive button A will turn working mode off
+ * - Pressing capacitive button B will light up led strip with random colours.
+ * - Tapping capacitive button C will cycle through led strip animations,
+ *   long pressing it turns the animations off
+ * - Sensors are only sampled as much as the working mode and the led strip animation need,
+ *   see {@link SamplingModeHandler}
+ * - Servo shows the value on display as a gauge
+ * - Everything published is also streamed to network clients, which can change the working
+ *   mode, led strip animation and servo angle, see {@link TelemetryServer}
+ *
+ * Inputs are only published to the {@link EventBus} here, each output subscribes to what
+ * it needs on its own, so a slow output never holds up the inputs or the other outputs.
+ * All inputs are recorded to a {@link TraceRecorder} trace as well, which can be replayed
+ * through the hub later on to reproduce what happened.
+ */
+public class HubRuntime {
+
+    private static final String TAG = HubRuntime.class.getSimpleName();
+
+    private static final SensorSampler.Channel[] CHANNELS = SensorSampler.CHANNELS;
+    private static final GestureEngine.Gesture[] GESTURES = GestureEngine.Gesture.values();
+    private static final WorkingModeHandler.WorkingMode[] MODES = WorkingModeHandler.WorkingMode.values();
+
+    public static final String INPUT_TRACE_NAME = "input.trace";
+
+    private static final long LAZY_COMPONENTS_IDLE_TIMEOUT_MS = 30000;
+    private static final long METRICS_DUMP_INTERVAL_MS = 60000;
+    // keep recording slowly while nothing is shown
+    private static final float SAMPLING_RATE_WHEN_OFF_HZ = 0.2f;
+    private static final long TELEMETRY_METRICS_INTERVAL_MS = 5000;
+    private static final long TRACE_FLUSH_INTERVAL_MS = 10000;
+    // value ranges shown over the whole servo range
+    private static final float GAUGE_MIN_TEMPERATURE = 15;
+    private static final float GAUGE_MAX_TEMPERATURE = 30;
+    private static final float GAUGE_MIN_PRESSURE = 950;
+    private static final float GAUGE_MAX_PRESSURE = 1050;
+    private static final double GAUGE_MIN_ANGLE = 0;
+    private static final double GAUGE_MAX_ANGLE = 180;
+
+    private final ComponentsManager componentsManager;
+    private final GestureEngine gestureEngine;
+    private final EventBus eventBus;
+    private final FilterStage filterStage;
+    private SensorRecorder sensorRecorder;
+    private TraceRecorder traceRecorder;
+    // live inputs are not recorded while a trace is replayed
+    private volatile boolean replaying = false;
+    // only accessed from the I2C executor
+    private final long[] lastTracedSampleNs = new long[CHANNELS.length];
+
+    private final WorkingModeHandler workingModeHandler;
+    private final DisplayRenderer displayRenderer;
+    private final DisplayHandler displayHandler;
+    private final LedStripRenderer ledStripRenderer;
+    private final RainbowBumpHandler rainbowBumpHandler;
+    private final LedAnimationsHandler ledAnimationsHandler;
+    private final SpeakerTonesHandler speakerTonesHandler;
+    private final SamplingModeHandler samplingModeHandler;
+    private final ServoHandler servoHandler;
+    private final TelemetryServer telemetryServer;
+
+    /**
+     * Open all the components and start the outputs, inputs are started separately.
+     *
+     * @param filesDir directory to keep sensor recordings and input trace in
+     * @param telemetryPort port to serve telemetry on, 0 for any free one
+     */
+    public HubRuntime(File filesDir, int telemetryPort) {
+        componentsManager = new ComponentsManager();
+        componentsManager.setLazy(LAZY_COMPONENTS_IDLE_TIMEOUT_MS,
+                ComponentsManager.Component.SPEAKER, ComponentsManager.Component.SERVO);
+        // debounced by the gesture engine instead
+        componentsManager.setButtonDebounceDelay(0);
+        componentsManager.initAll();
+        componentsManager.setMetricsDumpInterval(METRICS_DUMP_INTERVAL_MS);
+
+        workingModeHandler = new WorkingModeHandler(WorkingModeHandler.WorkingMode.MODE_OFF);
+        displayRenderer = new DisplayRenderer(componentsManager);
+        displayHandler = new DisplayHandler(componentsManager, displayRenderer);
+        ledStripRenderer = new LedStripRenderer(componentsManager);
+        rainbowBumpHandler = new RainbowBumpHandler(ledStripRenderer);
+        ledAnimationsHandler = new LedAnimationsHandler(ledStripRenderer);
+        speakerTonesHandler = new SpeakerTonesHandler(componentsManager);
+        servoHandler = new ServoHandler(componentsManager);
+
+        try {
+            sensorRecorder = new SensorRecorder(new File(filesDir, "timeseries"));
+        }
+        catch (IOException e) {
+            Log.e(TAG, "Error opening sensor recordings, not recording", e);
+        }
+        try {
+            traceRecorder = new TraceRecorder(new File(new File(filesDir, "traces"), INPUT_TRACE_NAME));
+            traceRecorder.setFlushInterval(componentsManager.getTimerWheel(), TRACE_FLUSH_INTERVAL_MS);
+        }
+        catch (IOException e) {
+            Log.e(TAG, "Error opening input trace, not tracing", e);
+        }
+
+        // outliers dropped first, then smoothed, and only changes worth a digit on display kept
+        filterStage = new FilterStage(
+                new FilterChain(new MedianFilter(5), new ExponentialFilter(0.3f), new DeadbandFilter(0.1f)),
+                new FilterChain(new MedianFilter(5), new KalmanFilter(0.01f, 0.25f), new DeadbandFilter(0.5f)));
+        samplingModeHandler = new SamplingModeHandler(componentsManager.getSensorSampler(),
+                sensorRecorder != null ? SAMPLING_RATE_WHEN_OFF_HZ : 0);
+        samplingModeHandler.setMode(workingModeHandler.getCurrentMode());
+
+        eventBus = new EventBus();
+        // display only ever needs to show the latest state
+        eventBus.subscribe("display", new DisplaySubscriber(), EventBus.Policy.COALESCE_LATEST,
+                EventBus.TYPE_SENSOR_SAMPLE, EventBus.TYPE_MODE_CHANGED);
+        eventBus.subscribe("strip", new StripSubscriber(), EventBus.Policy.COALESCE_LATEST,
+                EventBus.TYPE_SENSOR_SAMPLE);
+        eventBus.subscribe("gauge", new GaugeSubscriber(), EventBus.Policy.COALESCE_LATEST,
+                EventBus.TYPE_SENSOR_SAMPLE, EventBus.TYPE_MODE_CHANGED);
+        eventBus.subscribe("sampling", new SamplingSubscriber(), EventBus.Policy.COALESCE_LATEST,
+                EventBus.TYPE_MODE_CHANGED);
+        eventBus.subscribe("controls", new ControlsSubscriber(), EventBus.Policy.DROP_OLDEST,
+                EventBus.TYPE_GESTURE);
+        eventBus.subscribe("speaker", new SpeakerSubscriber(), EventBus.Policy.DROP_OLDEST,
+                EventBus.TYPE_GESTURE);
+
+        telemetryServer = new TelemetryServer(componentsManager, telemetryCommands);
+        try {
+            telemetryServer.start(telemetryPort, TELEMETRY_METRICS_INTERVAL_MS);
+            eventBus.subscribe("telemetry", telemetryServer, EventBus.Policy.DROP_OLDEST,
+                    EventBus.TYPE_SENSOR_SAMPLE, EventBus.TYPE_GESTURE, EventBus.TYPE_MODE_CHANGED);
+        }
+        catch (IOException e) {
+            Log.e(TAG, "Error starting telemetry server", e);
+        }
+
+        gestureEngine = new GestureEngine(componentsManager.getTimerWheel());
+        gestureEngine.setListener(gesturePublisher);
+        workingModeHandler.setOnModeChangedListener(modePublisher);
+    }
+
+    /**
+     * Start delivering sensor samples and button presses.
+     */
+    public void startInputs() {
+        componentsManager.registerSensors(samplesPublisher);
+        componentsManager.setButtonListeners(buttonTracer);
+    }
+
+    /**
+     * Stop delivering inputs, releasing any pressed buttons.
+     */
+    public void stopInputs() {
+        componentsManager.unregisterSensors();
+        componentsManager.setButtonListeners(null);
+        gestureEngine.reset();
+        if (traceRecorder != null)
+            traceRecorder.flush();
+    }
+
+    /**
+     * Stop everything and close all the components. Runtime can't be used afterwards.
+     */
+    public void close() {
+        stopInputs();
+        eventBus.shutdown();
+        telemetryServer.stop();
+        speakerTonesHandler.stop();
+        servoHandler.stop();
+        displayHandler.release();
+        displayRenderer.release();
+        ledStripRenderer.release();
+        componentsManager.closeAll();
+        if (sensorRecorder != null)
+            sensorRecorder.close();
+        if (traceRecorder != null)
+            traceRecorder.close();
+    }
+
+    public ComponentsManager getComponentsManager() {
+        return componentsManager;
+    }
+
+    public EventBus getEventBus() {
+        return eventBus;
+    }
+
+    public WorkingModeHandler getWorkingModeHandler() {
+        return workingModeHandler;
+    }
+
+    public TelemetryServer getTelemetryServer() {
+        return telemetryServer;
+    }
+
+    /**
+     * Trace inputs are being recorded to, null if not recording.
+     */
+    public File getInputTrace() {
+        return traceRecorder != null ? traceRecorder.getFile() : null;
+    }
+
+    //---------------------------
+    // [BEGIN] Replay
+    //---------------------------
+    /**
+     * Feed a recorded input trace through the hub on the calling thread, in place of the live
+     * inputs which are stopped meanwhile and have to be started again afterwards.
+     *
+     * In real time, raw button edges go through the gesture engine again. Replayed at any other
+     * speed the timing of edges no longer holds, so the gestures recognized when recording are
+     * published instead, keeping the outcome the same regardless of speed.
+     *
+     * @param speed how many times faster than recorded to replay, 1 for real time
+     *              and 0 for as fast as possible
+     * @return number of inputs replayed
+     */
+    public long replay(TraceReplayer replayer, float speed) throws IOException, InterruptedException {
+        stopInputs();
+        replaying = true;
+        try {
+            long count = replayer.replay(speed == 1 ? realTimeReplay : acceleratedReplay, speed);
+            // gestures pending at the end of the trace time out as they did when recorded
+            if (speed == 1)
+                Thread.sleep(gestureEngine.getLongestTimeoutMs());
+            return count;
+        }
+        finally {
+            gestureEngine.reset();
+            replaying = false;
+        }
+    }
+
+    private final TraceReplayer.Listener realTimeReplay = new TraceReplayer.Listener() {
+        @Override
+        public void onRecord(int type, int source, int code, float value, long timestampNs) {
+            if (type == TraceRecorder.TYPE_BUTTON_EDGE)
+                gestureEngine.onButtonEvent(source, code != 0);
+            else
+                replayCommon(type, source, code, value);
+        }
+    };
+
+    private final TraceReplayer.Listener acceleratedReplay = new TraceReplayer.Listener() {
+        @Override
+        public void onRecord(int type, int source, int code, float value, long timestampNs) {
+            if (type == TraceRecorder.TYPE_GESTURE)
+                eventBus.publish(EventBus.TYPE_GESTURE, source, code, 0);
+            else
+                replayCommon(type, source, code, value);
+        }
+    };
+
+    private void replayCommon(int type, int source, int code, float value) {
+        switch (type) {
+            case TraceRecorder.TYPE_SENSOR_SAMPLE:
+                if (filterStage.update(CHANNELS[source], value, code != 0))
+                    eventBus.publish(EventBus.TYPE_SENSOR_SAMPLE, source, 0, filterStage.getValue(CHANNELS[source]));
+                break;
+
+            case TraceRecorder.TYPE_MODE_SET:
+                workingModeHandler.setMode(MODES[code]);
+                break;
+        }
+    }
+
+    private void trace(int type, int source, int code, float value) {
+        trace(System.nanoTime(), type, source, code, value);
+    }
+
+    private void trace(long timestampNs, int type, int source, int code, float value) {
+        if (traceRecorder != null && !replaying)
+            traceRecorder.record(timestampNs, type, source, code, value);
+    }
+
+    /**
+     * Trace samples added since the last batch, the last one marking the end of the batch.
+     */
+    private void traceSamples(SensorSampler sampler, SensorSampler.Channel channel, int count) {
+        int index = channel.ordinal();
+        SampleRingBuffer history = sampler.getHistory(channel);
+        for (int age = Math.min(count, history.size()) - 1; age >= 0; age--) {
+            long timestampNs = history.getTimestampNs(age);
+            if (timestampNs <= lastTracedSampleNs[index])
+                continue;
+            trace(timestampNs, TraceRecorder.TYPE_SENSOR_SAMPLE, index, age == 0 ? 1 : 0, history.getValue(age));
+            lastTracedSampleNs[index] = timestampNs;
+        }
+    }
+    //---------------------------
+    // [END] Replay
+    //---------------------------
+
+
+    //---------------------------
+    // [BEGIN] Publishers
+    //---------------------------
+    private final SensorSampler.Listener samplesPublisher = new SensorSampler.Listener() {
+        @Override
+        public void onSamples(SensorSampler sampler, int count) {
+            if (sensorRecorder != null)
+                sensorRecorder.onSamples(sampler, count);
+            for (SensorSampler.Channel channel : CHANNELS) {
+                if (!sampler.isChannelEnabled(channel))
+                    continue;
+
+                traceSamples(sampler, channel, count);
+                if (filterStage.update(sampler, channel, count)) {
+                    eventBus.publish(EventBus.TYPE_SENSOR_SAMPLE, channel.ordinal(), 0,
+                            filterStage.getValue(channel));
+                }
+            }
+        }
+    };
+
+    private final ComponentsManager.ButtonListener buttonTracer = new ComponentsManager.ButtonListener() {
+        @Override
+        public void onButtonEvent(int buttonId, boolean pressed) {
+            trace(TraceRecorder.TYPE_BUTTON_EDGE, buttonId, pressed ? 1 : 0, 0);
+            gestureEngine.onButtonEvent(buttonId, pressed);
+        }
+    };
+
+    private final GestureEngine.Listener gesturePublisher = new GestureEngine.Listener() {
+        @Override
+        public void onGesture(GestureEngine.Gesture gesture, int buttonId) {
+            trace(TraceRecorder.TYPE_GESTURE, buttonId, gesture.ordinal(), 0);
+            eventBus.publish(EventBus.TYPE_GESTURE, buttonId, gesture.ordinal(), 0);
+        }
+    };
+
+    private final WorkingModeHandler.OnModeChangedListener modePublisher = new WorkingModeHandler.OnModeChangedListener() {
+        @Override
+        public void onWorkingModeChanged(WorkingModeHandler.WorkingMode mode) {
+            eventBus.publish(EventBus.TYPE_MODE_CHANGED, 0, mode.ordinal(), 0);
+        }
+    };
+    //---------------------------
+    // [END] Publishers
+    //---------------------------
+
+
+    //---------------------------
+    // [BEGIN] Telemetry commands
+    //---------------------------
+    private final TelemetryServer.CommandHandler telemetryCommands = new TelemetryServer.CommandHandler() {
+        @Override
+        public boolean onCommand(String name, String argument) {
+            if (argument == null)
+                return false;
+
+            switch (name) {
+                case "mode":
+                    for (WorkingModeHandler.WorkingMode mode : MODES) {
+                        if (mode.name().equalsIgnoreCase(argument)) {
+                            trace(TraceRecorder.TYPE_MODE_SET, 0, mode.ordinal(), 0);
+                            workingModeHandler.setMode(mode);
+                            return true;
+                        }
+                    }
+                    return false;
+
+                case "strip":
+                    if (argument.equals("next"))
+                        ledAnimationsHandler.showNext();
+                    else if (argument.equals("off"))
+                        ledAnimationsHandler.clear();
+                    else
+                        ledAnimationsHandler.show(Integer.parseInt(argument));
+                    updateAnimationSampling();
+                    return true;
+
+                case "servo":
+                    servoHandler.setTarget(Double.parseDouble(argument));
+                    return true;
+
+                default:
+                    return false;
+            }
+        }
+    };
+    //---------------------------
+    // [END] Telemetry commands
+    //---------------------------
+
+
+    //---------------------------
+    // [BEGIN] Subscribers
+    //---------------------------
+    private class DisplaySubscriber implements EventBus.Subscriber {
+        private WorkingModeHandler.WorkingMode mode = WorkingModeHandler.WorkingMode.MODE_OFF;
+
+        @Override
+        public void onEvent(int type, int source, int code, float value, long timestampNs) {
+            if (type == EventBus.TYPE_MODE_CHANGED) {
+                mode = MODES[code];
+                if (mode == WorkingModeHandler.WorkingMode.MODE_OFF)
+                    displayHandler.clear();
+                else
+                    displayHandler.reset();
+                return;
+            }
+
+            if ((mode == WorkingModeHandler.WorkingMode.MODE_TEMPERATURE
+                    && source == SensorSampler.Channel.TEMPERATURE.ordinal())
+                    || (mode == WorkingModeHandler.WorkingMode.MODE_PRESSURE
+                    && source == SensorSampler.Channel.PRESSURE.ordinal())) {
+                displayHandler.showValue(value);
+            }
+        }
+    }
+
+    private class StripSubscriber implements EventBus.Subscriber {
+        @Override
+        public void onEvent(int type, int source, int code, float value, long timestampNs) {
+            if (source == SensorSampler.Channel.TEMPERATURE.ordinal())
+                ledAnimationsHandler.setSensorValue(value);
+        }
+    }
+
+    private class GaugeSubscriber implements EventBus.Subscriber {
+        private WorkingModeHandler.WorkingMode mode = WorkingModeHandler.WorkingMode.MODE_OFF;
+
+        @Override
+        public void onEvent(int type, int source, int code, float value, long timestampNs) {
+            if (type == EventBus.TYPE_MODE_CHANGED) {
+                mode = MODES[code];
+                return;
+            }
+
+            if (mode == WorkingModeHandler.WorkingMode.MODE_TEMPERATURE
+                    && source == SensorSampler.Channel.TEMPERATURE.ordinal()) {
+                servoHandler.showValue(value, GAUGE_MIN_TEMPERATURE, GAUGE_MAX_TEMPERATURE,
+                        GAUGE_MIN_ANGLE, GAUGE_MAX_ANGLE);
+            }
+            else if (mode == WorkingModeHandler.WorkingMode.MODE_PRESSURE
+                    && source == SensorSampler.Channel.PRESSURE.ordinal()) {
+                servoHandler.showValue(value, GAUGE_MIN_PRESSURE, GAUGE_MAX_PRESSURE,
+                        GAUGE_MIN_ANGLE, GAUGE_MAX_ANGLE);
+            }
+        }
+    }
+
+    private class SamplingSubscriber implements EventBus.Subscriber {
+        @Override
+        public void onEvent(int type, int source, int code, float value, long timestampNs) {
+            samplingModeHandler.setMode(MODES[code]);
+            // display starts over, make sure it gets the next value even if unchanged
+            filterStage.reset();
+        }
+    }
+
+    private class ControlsSubscriber implements EventBus.Subscriber {
+        @Override
+        public void onEvent(int type, int buttonId, int code, float value, long timestampNs) {
+            switch (GESTURES[code]) {
+                case PRESS:
+                case RELEASE:
+                    onButtonPressedChanged(buttonId, GESTURES[code] == GestureEngine.Gesture.PRESS);
+                    break;
+
+                case TAP:
+                    if (buttonId == ComponentsManager.BUTTON_ID_A)
+                        workingModeHandler.toggleMode();
+                    else if (buttonId == ComponentsManager.BUTTON_ID_C) {
+                        ledAnimationsHandler.showNext();
+                        updateAnimationSampling();
+                    }
+                    break;
+
+                case LONG_PRESS:
+                    if (buttonId == ComponentsManager.BUTTON_ID_A)
+                        workingModeHandler.setMode(WorkingModeHandler.WorkingMode.MODE_OFF);
+                    else if (buttonId == ComponentsManager.BUTTON_ID_C) {
+                        ledAnimationsHandler.clear();
+                        updateAnimationSampling();
+                    }
+                    break;
+            }
+        }
+
+        private void onButtonPressedChanged(int buttonId, boolean pressed) {
+            switch (buttonId) {
+                case ComponentsManager.BUTTON_ID_A:
+                    componentsManager.setLedValue(ComponentsManager.Component.BUTTON_LED_RED, pressed);
+                    break;
+
+                case ComponentsManager.BUTTON_ID_B:
+                    componentsManager.setLedValue(ComponentsManager.Component.BUTTON_LED_GREEN, pressed);
+                    if (pressed) rainbowBumpHandler.startBumping();
+                    else rainbowBumpHandler.clearRainbow();
+                    break;
+
+                case ComponentsManager.BUTTON_ID_C:
+                    componentsManager.setLedValue(ComponentsManager.Component.BUTTON_LED_BLUE, pressed);
+                    break;
+            }
+        }
+    }
+
+    private class SpeakerSubscriber implements EventBus.Subscriber {
+        @Override
+        public void onEvent(int type, int buttonId, int code, float value, long timestampNs) {
+            if (GESTURES[code] == GestureEngine.Gesture.PRESS)
+                speakerTonesHandler.playTone(440);
+            else if (GESTURES[code] == GestureEngine.Gesture.RELEASE)
+                speakerTonesHandler.playTone(110);
+        }
+    }
+
+    /**
+     * Keep temperature sampled while the strip shows it, whatever the working mode.
+     */
+    private void updateAnimationSampling() {
+        samplingModeHandler.setTemperatureNeeded(ledAnimationsHandler.isShowingSensorValue());
+    }
+    //---------------------------
+    // [END] Subscribers
+    //---------------------------
+}
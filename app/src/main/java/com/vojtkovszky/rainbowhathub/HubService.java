@@ -0,0 +1,53 @@
+package com.vojtkovszky.rainbowhathub;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.IBinder;
+
+import com.vojtkovszky.rainbowhathub.telemetry.TelemetryServer;
+
+/**
+ * Owns the {@link HubRuntime} for as long as the process lives, so the HAT's drivers are
+ * opened once and stay open across activity restarts. Started rather than only bound, so it
+ * keeps running while no activity is bound to it. Inputs are delivered for the whole lifetime
+ * of the service.
+ */
+public class HubService extends Service {
+
+    private final LocalBinder binder = new LocalBinder();
+    private HubRuntime hubRuntime;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // on the main thread, which button drivers deliver their events to
+        hubRuntime = new HubRuntime(getFilesDir(), TelemetryServer.DEFAULT_PORT);
+        hubRuntime.startInputs();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        hubRuntime.close();
+    }
+
+    /**
+     * Binder handed to clients in the same process.
+     */
+    public class LocalBinder extends Binder {
+        public HubRuntime getHubRuntime() {
+            return hubRuntime;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.vojtkovszky.rainbowhathub.animations;
+
+import com.vojtkovszky.rainbowhathub.handlers.LedStripRenderer;
+
+/**
+ * Looping led strip animation, drawing every frame from scratch based on the time since it started.
+ */
+public abstract class Animation implements LedStripRenderer.FrameProducer {
+
+    private final long frameBudgetUs;
+    private long startTimeMs = -1;
+
+    /**
+     * @param frameBudgetUs time producing a frame is allowed to take, before renderer
+     *                      starts reducing the frame rate
+     */
+    protected Animation(long frameBudgetUs) {
+        this.frameBudgetUs = frameBudgetUs;
+    }
+
+    public long getFrameBudgetUs() {
+        return frameBudgetUs;
+    }
+
+    /**
+     * Start over from the first frame.
+     */
+    public void reset() {
+        startTimeMs = -1;
+    }
+
+    @Override
+    public final boolean produceFrame(int[] frame, long frameTimeMs) {
+        if (startTimeMs < 0)
+            startTimeMs = frameTimeMs;
+
+        draw(frame, frameTimeMs - startTimeMs);
+        return true;
+    }
+
+    /**
+     * Draw the whole frame, called on the timer thread while rendering.
+     */
+    protected abstract void draw(int[] frame, long elapsedMs);
+}
@@ -0,0 +1,30 @@
+package com.vojtkovszky.rainbowhathub.animations;
+
+/**
+ * Whole strip in a single color, slowly fading in and out.
+ */
+public class BreathingAnimation extends Animation {
+
+    private static final long FRAME_BUDGET_US = 300;
+
+    private final int hue;
+    private final long periodMs;
+
+    /**
+     * @param hue color in 0-255 range
+     * @param periodMs time of a single breath
+     */
+    public BreathingAnimation(int hue, long periodMs) {
+        super(FRAME_BUDGET_US);
+        this.hue = hue;
+        this.periodMs = periodMs;
+    }
+
+    @Override
+    protected void draw(int[] frame, long elapsedMs) {
+        int phase = (int) (elapsedMs % periodMs * ColorTables.STEPS / periodMs);
+        int color = ColorTables.hsv(hue, ColorTables.wave(phase));
+        for (int i = 0; i < frame.length; i++)
+            frame[i] = color;
+    }
+}
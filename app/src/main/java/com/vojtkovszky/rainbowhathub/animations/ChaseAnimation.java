@@ -0,0 +1,41 @@
+package com.vojtkovszky.rainbowhathub.animations;
+
+/**
+ * Single led running back and forth along the strip, leaving a fading tail.
+ */
+public class ChaseAnimation extends Animation {
+
+    private static final long FRAME_BUDGET_US = 500;
+    private static final int TAIL_LENGTH = 3;
+
+    private final int hue;
+    private final long stepMs;
+
+    /**
+     * @param hue color in 0-255 range
+     * @param stepMs time the running led takes to move to the next one
+     */
+    public ChaseAnimation(int hue, long stepMs) {
+        super(FRAME_BUDGET_US);
+        this.hue = hue;
+        this.stepMs = stepMs;
+    }
+
+    @Override
+    protected void draw(int[] frame, long elapsedMs) {
+        int length = frame.length;
+        int bounce = Math.max(1, 2 * (length - 1));
+        int step = (int) (elapsedMs / stepMs % bounce);
+        boolean forward = step < length - 1 || length == 1;
+
+        for (int i = 0; i < length; i++) {
+            // distance behind the running led, in the direction it's moving
+            int position = forward ? step : bounce - step;
+            int distance = forward ? position - i : i - position;
+            if (distance < 0 || distance > TAIL_LENGTH)
+                frame[i] = 0;
+            else
+                frame[i] = ColorTables.hsv(hue, 255 >> (2 * distance));
+        }
+    }
+}
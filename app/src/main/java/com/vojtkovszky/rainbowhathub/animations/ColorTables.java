@@ -0,0 +1,69 @@
+package com.vojtkovszky.rainbowhathub.animations;
+
+/**
+ * Precomputed lookup tables for building strip colors without floating point math per led.
+ *
+ * Hue and intensity are both in 0-255 range. Colors are gamma corrected, so intensity changes
+ * look even to the eye, and returned as opaque ARGB ints as taken by the led strip.
+ */
+public final class ColorTables {
+
+    public static final int STEPS = 256;
+    private static final double GAMMA = 2.2;
+
+    // fully saturated colors around the color wheel, not gamma corrected
+    private static final int[] HUES = new int[STEPS];
+    private static final int[] GAMMA_TABLE = new int[STEPS];
+    // one period of a sine wave, offset to 0-255
+    private static final int[] WAVE = new int[STEPS];
+
+    static {
+        for (int i = 0; i < STEPS; i++) {
+            HUES[i] = hueToRgb(i);
+            GAMMA_TABLE[i] = (int) Math.round(255 * Math.pow(i / 255.0, GAMMA));
+            WAVE[i] = (int) Math.round(127.5 + 127.5 * Math.sin(2 * Math.PI * i / STEPS));
+        }
+    }
+
+    private ColorTables() {}
+
+    /**
+     * Fully saturated color of given hue and intensity.
+     */
+    public static int hsv(int hue, int intensity) {
+        return scale(HUES[hue & 0xFF], intensity);
+    }
+
+    /**
+     * Scale given color to intensity and gamma correct it.
+     */
+    public static int scale(int rgb, int intensity) {
+        int r = GAMMA_TABLE[((rgb >> 16) & 0xFF) * intensity / 255];
+        int g = GAMMA_TABLE[((rgb >> 8) & 0xFF) * intensity / 255];
+        int b = GAMMA_TABLE[(rgb & 0xFF) * intensity / 255];
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Sine wave value in 0-255 range at given phase, a full period being {@link #STEPS}.
+     */
+    public static int wave(int phase) {
+        return WAVE[phase & 0xFF];
+    }
+
+    private static int hueToRgb(int hue) {
+        // six sectors of the color wheel, each ramping a single channel up or down
+        int sector = hue * 6 / STEPS;
+        int ramp = (hue * 6 % STEPS) * 255 / (STEPS - 1);
+        int r, g, b;
+        switch (sector) {
+            case 0: r = 255; g = ramp; b = 0; break;
+            case 1: r = 255 - ramp; g = 255; b = 0; break;
+            case 2: r = 0; g = 255; b = ramp; break;
+            case 3: r = 0; g = 255 - ramp; b = 255; break;
+            case 4: r = ramp; g = 0; b = 255; break;
+            default: r = 255; g = 0; b = 255 - ramp; break;
+        }
+        return (r << 16) | (g << 8) | b;
+    }
+}
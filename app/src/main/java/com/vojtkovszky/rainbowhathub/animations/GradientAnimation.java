@@ -0,0 +1,54 @@
+package com.vojtkovszky.rainbowhathub.animations;
+
+/**
+ * Sensor value shown as a bar of leds with a color gradient, cold blue at the minimum
+ * of the range through to hot red at the maximum. Changes of value are eased in.
+ */
+public class GradientAnimation extends Animation {
+
+    private static final long FRAME_BUDGET_US = 500;
+    private static final int HUE_MIN = 170;
+    private static final float EASING = 0.2f;
+
+    private final float minValue;
+    private final float maxValue;
+
+    private volatile float value;
+    // only accessed from the timer thread, while rendering
+    private float shownValue = Float.NaN;
+
+    public GradientAnimation(float minValue, float maxValue) {
+        super(FRAME_BUDGET_US);
+        if (maxValue <= minValue)
+            throw new IllegalArgumentException("Range must not be empty");
+
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+        this.value = minValue;
+    }
+
+    /**
+     * Set the value shown, clamped to the range. Can be called from any thread.
+     */
+    public void setValue(float value) {
+        this.value = value;
+    }
+
+    @Override
+    protected void draw(int[] frame, long elapsedMs) {
+        float target = Math.max(minValue, Math.min(maxValue, value));
+        if (Float.isNaN(shownValue))
+            shownValue = target;
+        else
+            shownValue += (target - shownValue) * EASING;
+
+        float level = (shownValue - minValue) / (maxValue - minValue);
+        // fractional part of the level lights the last led partially
+        float litLeds = level * frame.length;
+        for (int i = 0; i < frame.length; i++) {
+            int intensity = (int) (255 * Math.max(0, Math.min(1, litLeds - i)));
+            int hue = HUE_MIN - HUE_MIN * i / Math.max(1, frame.length - 1);
+            frame[i] = intensity == 0 ? 0 : ColorTables.hsv(hue, intensity);
+        }
+    }
+}
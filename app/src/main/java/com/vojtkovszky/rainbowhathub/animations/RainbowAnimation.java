@@ -0,0 +1,26 @@
+package com.vojtkovszky.rainbowhathub.animations;
+
+/**
+ * Full color wheel spread across the strip, rotating along it.
+ */
+public class RainbowAnimation extends Animation {
+
+    private static final long FRAME_BUDGET_US = 500;
+
+    private final long cycleMs;
+
+    /**
+     * @param cycleMs time for a color to travel the whole color wheel
+     */
+    public RainbowAnimation(long cycleMs) {
+        super(FRAME_BUDGET_US);
+        this.cycleMs = cycleMs;
+    }
+
+    @Override
+    protected void draw(int[] frame, long elapsedMs) {
+        int hueOffset = (int) (elapsedMs % cycleMs * ColorTables.STEPS / cycleMs);
+        for (int i = 0; i < frame.length; i++)
+            frame[i] = ColorTables.hsv(hueOffset + i * ColorTables.STEPS / frame.length, 255);
+    }
+}
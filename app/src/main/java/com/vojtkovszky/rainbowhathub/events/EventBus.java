@@ -0,0 +1,335 @@
+package com.vojtkovszky.rainbowhathub.events;
+
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Publish/subscribe bus between the hub's inputs and outputs.
+ *
+ * Events are small primitive records: a type, the source within the type (button id, sensor
+ * channel), an integer code and a float value. Every subscription has its own preallocated
+ * lock-free queue and its own delivery thread, so a slow subscriber only ever delays itself.
+ * What happens once a subscriber falls behind is up to its {@link Policy}.
+ */
+public class EventBus {
+
+    private static final String TAG = EventBus.class.getSimpleName();
+
+    public static final int TYPE_SENSOR_SAMPLE = 0;
+    public static final int TYPE_GESTURE = 1;
+    public static final int TYPE_MODE_CHANGED = 2;
+    public static final int TYPE_COUNT = 3;
+
+    /** Sources of a type need to be lower than this */
+    public static final int MAX_SOURCES = 8;
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    private static final long IDLE_PARK_NS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long BLOCKED_PARK_NS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    public enum Policy {
+        /** Full queue drops its oldest event to make room, publisher never waits */
+        DROP_OLDEST,
+        /** Only the latest event of each type and source is kept, publisher never waits */
+        COALESCE_LATEST,
+        /** Publisher waits for room in the queue, only for subscribers known to keep up */
+        BLOCK
+    }
+
+    private final Object subscribeLock = new Object();
+    // copied on subscribe, which is rare
+    private volatile Subscription[] subscriptions = new Subscription[0];
+    private volatile boolean running = true;
+
+    public Subscription subscribe(String name, Subscriber subscriber, Policy policy, int... types) {
+        return subscribe(name, subscriber, policy, DEFAULT_QUEUE_CAPACITY, types);
+    }
+
+    /**
+     * Subscribe to events of given types, delivered on a new thread.
+     *
+     * @param capacity queue capacity, rounded up to a power of two. Not used when coalescing.
+     */
+    public Subscription subscribe(String name, Subscriber subscriber, Policy policy, int capacity, int[] types) {
+        int typeMask = 0;
+        for (int type : types)
+            typeMask |= 1 << type;
+
+        Subscription subscription = new Subscription(name, subscriber, policy, capacity, typeMask);
+        synchronized (subscribeLock) {
+            Subscription[] grown = new Subscription[subscriptions.length + 1];
+            System.arraycopy(subscriptions, 0, grown, 0, subscriptions.length);
+            grown[subscriptions.length] = subscription;
+            subscriptions = grown;
+        }
+        subscription.thread.start();
+        return subscription;
+    }
+
+    /**
+     * Publish an event to all subscribers of its type. Doesn't allocate, and only waits for
+     * subscribers with the {@link Policy#BLOCK} policy.
+     */
+    public void publish(int type, int source, int code, float value) {
+        if (source < 0 || source >= MAX_SOURCES)
+            throw new IllegalArgumentException("Source out of range: " + source);
+
+        long timestampNs = System.nanoTime();
+        long payload = pack(source, code, value);
+        Subscription[] subscriptions = this.subscriptions;
+        for (Subscription subscription : subscriptions) {
+            if ((subscription.typeMask & (1 << type)) != 0)
+                subscription.offer(type, payload, timestampNs);
+        }
+    }
+
+    /**
+     * Stop all delivery threads. Events still queued are dropped.
+     */
+    public void shutdown() {
+        running = false;
+        for (Subscription subscription : subscriptions)
+            subscription.wakeUp();
+    }
+
+    // source in the top byte, code in the next 3 and value in the lower half
+    private static long pack(int source, int code, float value) {
+        return ((long) source << 56) | ((long) (code & 0xFFFFFF) << 32)
+                | (Float.floatToRawIntBits(value) & 0xFFFFFFFFL);
+    }
+
+    public class Subscription {
+        private final String name;
+        private final Subscriber subscriber;
+        private final Policy policy;
+        private final int typeMask;
+        private final Thread thread;
+        private volatile boolean waiting = false;
+
+        // bounded multi producer queue, each slot having a sequence telling whether it's
+        // ready to be written or read at a given position
+        private final int mask;
+        private final AtomicLongArray sequences;
+        private final int[] types;
+        private final long[] payloads;
+        private final long[] timestamps;
+        private final AtomicLong enqueuePosition = new AtomicLong();
+        private final AtomicLong dequeuePosition = new AtomicLong();
+
+        // latest event of each type and source, when coalescing
+        private final AtomicIntegerArray pending;
+        private final AtomicLongArray latestPayloads;
+        private final AtomicLongArray latestTimestamps;
+        private final AtomicInteger pendingCount = new AtomicInteger();
+
+        private final AtomicLong droppedCount = new AtomicLong();
+        private volatile long deliveredCount = 0;
+
+        Subscription(String name, Subscriber subscriber, Policy policy, int capacity, int typeMask) {
+            this.name = name;
+            this.subscriber = subscriber;
+            this.policy = policy;
+            this.typeMask = typeMask;
+
+            int slots = policy == Policy.COALESCE_LATEST ? 1 : Integer.highestOneBit(Math.max(1, capacity));
+            if (slots < capacity && policy != Policy.COALESCE_LATEST)
+                slots <<= 1;
+            this.mask = slots - 1;
+            this.sequences = new AtomicLongArray(slots);
+            for (int i = 0; i < slots; i++)
+                sequences.set(i, i);
+            this.types = new int[slots];
+            this.payloads = new long[slots];
+            this.timestamps = new long[slots];
+
+            int keys = policy == Policy.COALESCE_LATEST ? TYPE_COUNT * MAX_SOURCES : 0;
+            this.pending = new AtomicIntegerArray(keys);
+            this.latestPayloads = new AtomicLongArray(keys);
+            this.latestTimestamps = new AtomicLongArray(keys);
+
+            this.thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    deliverLoop();
+                }
+            }, "bus-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Policy getPolicy() {
+            return policy;
+        }
+
+        /**
+         * Number of events dropped or coalesced because subscriber fell behind.
+         */
+        public long getDroppedCount() {
+            return droppedCount.get();
+        }
+
+        public long getDeliveredCount() {
+            return deliveredCount;
+        }
+
+        void offer(int type, long payload, long timestampNs) {
+            switch (policy) {
+                case COALESCE_LATEST:
+                    int key = type * MAX_SOURCES + (int) (payload >>> 56);
+                    latestTimestamps.set(key, timestampNs);
+                    latestPayloads.set(key, payload);
+                    if (pending.getAndSet(key, 1) == 0)
+                        pendingCount.incrementAndGet();
+                    else
+                        droppedCount.incrementAndGet();
+                    break;
+
+                case DROP_OLDEST:
+                    while (!tryEnqueue(type, payload, timestampNs)) {
+                        if (tryDequeue(false))
+                            droppedCount.incrementAndGet();
+                    }
+                    break;
+
+                case BLOCK:
+                    while (!tryEnqueue(type, payload, timestampNs)) {
+                        if (!running)
+                            return;
+                        LockSupport.parkNanos(this, BLOCKED_PARK_NS);
+                    }
+                    break;
+            }
+
+            if (waiting)
+                LockSupport.unpark(thread);
+        }
+
+        void wakeUp() {
+            LockSupport.unpark(thread);
+        }
+
+        private boolean tryEnqueue(int type, long payload, long timestampNs) {
+            long position = enqueuePosition.get();
+            while (true) {
+                int index = (int) (position & mask);
+                long difference = sequences.get(index) - position;
+                if (difference == 0) {
+                    if (enqueuePosition.compareAndSet(position, position + 1)) {
+                        types[index] = type;
+                        payloads[index] = payload;
+                        timestamps[index] = timestampNs;
+                        sequences.set(index, position + 1);
+                        return true;
+                    }
+                    position = enqueuePosition.get();
+                }
+                else if (difference < 0) {
+                    return false;
+                }
+                else {
+                    position = enqueuePosition.get();
+                }
+            }
+        }
+
+        /**
+         * Take the oldest event, delivering it to subscriber or just dropping it.
+         */
+        private boolean tryDequeue(boolean deliver) {
+            long position = dequeuePosition.get();
+            while (true) {
+                int index = (int) (position & mask);
+                long difference = sequences.get(index) - (position + 1);
+                if (difference == 0) {
+                    if (dequeuePosition.compareAndSet(position, position + 1)) {
+                        int type = types[index];
+                        long payload = payloads[index];
+                        long timestampNs = timestamps[index];
+                        // slot can be reused once a full lap later
+                        sequences.set(index, position + mask + 1);
+                        if (deliver)
+                            deliver(type, payload, timestampNs);
+                        return true;
+                    }
+                    position = dequeuePosition.get();
+                }
+                else if (difference < 0) {
+                    return false;
+                }
+                else {
+                    position = dequeuePosition.get();
+                }
+            }
+        }
+
+        private boolean drainLatest() {
+            if (pendingCount.get() == 0)
+                return false;
+
+            for (int key = 0; key < pending.length(); key++) {
+                if (pending.getAndSet(key, 0) == 1) {
+                    pendingCount.decrementAndGet();
+                    deliver(key / MAX_SOURCES, latestPayloads.get(key), latestTimestamps.get(key));
+                }
+            }
+            return true;
+        }
+
+        private boolean hasPending() {
+            if (policy == Policy.COALESCE_LATEST)
+                return pendingCount.get() > 0;
+
+            long position = dequeuePosition.get();
+            return sequences.get((int) (position & mask)) == position + 1;
+        }
+
+        private void deliver(int type, long payload, long timestampNs) {
+            int source = (int) (payload >>> 56);
+            int code = (int) (payload >>> 32) & 0xFFFFFF;
+            float value = Float.intBitsToFloat((int) payload);
+            try {
+                subscriber.onEvent(type, source, code, value, timestampNs);
+            }
+            catch (RuntimeException e) {
+                Log.e(TAG, "Error delivering event to " + name, e);
+            }
+            deliveredCount++;
+        }
+
+        private void deliverLoop() {
+            while (running) {
+                boolean delivered = policy == Policy.COALESCE_LATEST ? drainLatest() : tryDequeue(true);
+                if (delivered)
+                    continue;
+
+                waiting = true;
+                if (running && !hasPending())
+                    LockSupport.parkNanos(this, IDLE_PARK_NS);
+                waiting = false;
+            }
+        }
+    }
+
+    public interface Subscriber {
+        /**
+         * Called on the subscription's own thread, one event at a time.
+         *
+         * @param type one of TYPE constants
+         * @param source button id or sensor channel, depending on type
+         * @param code integer part of the event, lower 24 bits only
+         * @param value float part of the event
+         * @param timestampNs {@link System#nanoTime()} when event was published
+         */
+        void onEvent(int type, int source, int code, float value, long timestampNs);
+    }
+}
@@ -0,0 +1,32 @@
+package com.vojtkovszky.rainbowhathub.filters;
+
+/**
+ * Holds its output until the value moves away from it by at least the threshold, so a value
+ * hovering around a rounding boundary doesn't flip back and forth.
+ */
+public class DeadbandFilter implements ValueFilter {
+
+    private final float threshold;
+    private boolean empty = true;
+    private float output;
+
+    public DeadbandFilter(float threshold) {
+        if (threshold < 0)
+            throw new IllegalArgumentException("Threshold can't be negative");
+        this.threshold = threshold;
+    }
+
+    @Override
+    public float filter(float value) {
+        if (empty || Math.abs(value - output) >= threshold) {
+            output = value;
+            empty = false;
+        }
+        return output;
+    }
+
+    @Override
+    public void reset() {
+        empty = true;
+    }
+}
@@ -0,0 +1,37 @@
+package com.vojtkovszky.rainbowhathub.filters;
+
+/**
+ * Exponential moving average, smoothing out noise at the cost of lagging behind.
+ */
+public class ExponentialFilter implements ValueFilter {
+
+    private final float alpha;
+    private boolean empty = true;
+    private float average;
+
+    /**
+     * @param alpha weight of each new value, from 0 exclusive to 1 for no smoothing at all
+     */
+    public ExponentialFilter(float alpha) {
+        if (alpha <= 0 || alpha > 1)
+            throw new IllegalArgumentException("Alpha must be in (0, 1]");
+        this.alpha = alpha;
+    }
+
+    @Override
+    public float filter(float value) {
+        if (empty) {
+            average = value;
+            empty = false;
+        }
+        else {
+            average += alpha * (value - average);
+        }
+        return average;
+    }
+
+    @Override
+    public void reset() {
+        empty = true;
+    }
+}
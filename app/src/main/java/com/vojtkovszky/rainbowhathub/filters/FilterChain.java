@@ -0,0 +1,26 @@
+package com.vojtkovszky.rainbowhathub.filters;
+
+/**
+ * Filters applied one after another, each filtering the output of the previous one.
+ */
+public class FilterChain implements ValueFilter {
+
+    private final ValueFilter[] filters;
+
+    public FilterChain(ValueFilter... filters) {
+        this.filters = filters.clone();
+    }
+
+    @Override
+    public float filter(float value) {
+        for (ValueFilter filter : filters)
+            value = filter.filter(value);
+        return value;
+    }
+
+    @Override
+    public void reset() {
+        for (ValueFilter filter : filters)
+            filter.reset();
+    }
+}
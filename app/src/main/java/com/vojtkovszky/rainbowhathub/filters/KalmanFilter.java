@@ -0,0 +1,49 @@
+package com.vojtkovszky.rainbowhathub.filters;
+
+/**
+ * One dimensional Kalman filter of a slowly drifting value, such as pressure.
+ *
+ * Unlike an average it weighs each value by how certain the estimate is, so it settles
+ * quickly after a reset and smooths more the longer the value stays steady.
+ */
+public class KalmanFilter implements ValueFilter {
+
+    private final float processNoise;
+    private final float measurementNoise;
+
+    private boolean empty = true;
+    private float estimate;
+    private float errorCovariance;
+
+    /**
+     * @param processNoise variance of how much the real value drifts between two values
+     * @param measurementNoise variance of the sensor's noise
+     */
+    public KalmanFilter(float processNoise, float measurementNoise) {
+        if (processNoise <= 0 || measurementNoise <= 0)
+            throw new IllegalArgumentException("Noise variances must be positive");
+        this.processNoise = processNoise;
+        this.measurementNoise = measurementNoise;
+    }
+
+    @Override
+    public float filter(float value) {
+        if (empty) {
+            estimate = value;
+            errorCovariance = measurementNoise;
+            empty = false;
+            return estimate;
+        }
+
+        errorCovariance += processNoise;
+        float gain = errorCovariance / (errorCovariance + measurementNoise);
+        estimate += gain * (value - estimate);
+        errorCovariance *= 1 - gain;
+        return estimate;
+    }
+
+    @Override
+    public void reset() {
+        empty = true;
+    }
+}
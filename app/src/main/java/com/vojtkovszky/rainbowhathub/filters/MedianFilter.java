@@ -0,0 +1,82 @@
+package com.vojtkovszky.rainbowhathub.filters;
+
+/**
+ * Median of the last values, removing single outliers entirely rather than smoothing them in.
+ *
+ * Values are held in a ring, and in a sorted copy kept up to date by moving just the values
+ * between the removed and the inserted one. NaN values are skipped, as they have no place in
+ * the sorted order.
+ */
+public class MedianFilter implements ValueFilter {
+
+    private final float[] ring;
+    private final float[] sorted;
+    private int next = 0;
+    private int size = 0;
+
+    /**
+     * @param windowSize number of values to take median of, preferably odd
+     */
+    public MedianFilter(int windowSize) {
+        if (windowSize <= 0)
+            throw new IllegalArgumentException("Window size must be positive");
+        this.ring = new float[windowSize];
+        this.sorted = new float[windowSize];
+    }
+
+    @Override
+    public float filter(float value) {
+        if (Float.isNaN(value))
+            return getMedian();
+
+        int index;
+        if (size == ring.length) {
+            // replace the oldest value, shifting values in between towards its place
+            index = indexOf(ring[next]);
+            while (index > 0 && sorted[index - 1] > value) {
+                sorted[index] = sorted[index - 1];
+                index--;
+            }
+            while (index < size - 1 && sorted[index + 1] < value) {
+                sorted[index] = sorted[index + 1];
+                index++;
+            }
+        }
+        else {
+            index = size++;
+            while (index > 0 && sorted[index - 1] > value) {
+                sorted[index] = sorted[index - 1];
+                index--;
+            }
+        }
+        sorted[index] = value;
+        ring[next] = value;
+        next = (next + 1) % ring.length;
+        return getMedian();
+    }
+
+    @Override
+    public void reset() {
+        next = 0;
+        size = 0;
+    }
+
+    /**
+     * @return median of the values held, NaN if there are none
+     */
+    private float getMedian() {
+        if (size == 0)
+            return Float.NaN;
+        if ((size & 1) == 1)
+            return sorted[size / 2];
+        return (sorted[size / 2 - 1] + sorted[size / 2]) / 2;
+    }
+
+    private int indexOf(float value) {
+        for (int i = 0; i < size; i++) {
+            if (sorted[i] == value)
+                return i;
+        }
+        throw new IllegalStateException("Value not held: " + value);
+    }
+}
@@ -0,0 +1,18 @@
+package com.vojtkovszky.rainbowhathub.filters;
+
+/**
+ * Streaming filter of a single series of values. Implementations don't allocate once created,
+ * and aren't thread safe.
+ */
+public interface ValueFilter {
+
+    /**
+     * @return filtered value after taking given one into account
+     */
+    float filter(float value);
+
+    /**
+     * Forget all values filtered so far.
+     */
+    void reset();
+}
@@ -0,0 +1,209 @@
+package com.vojtkovszky.rainbowhathub.handlers;
+
+import com.vojtkovszky.rainbowhathub.hat.ComponentsManager;
+import com.vojtkovszky.rainbowhathub.timing.TimerWheel;
+
+import java.util.Arrays;
+
+/**
+ * Rate limited output of numeric values to the alphanumeric display.
+ *
+ * Values arriving faster than {@link #MIN_DISPLAY_REFRESH_TIME_MS} are coalesced to the latest
+ * one, which is flushed on the hub's {@link TimerWheel} once the refresh interval passes. Values
+ * are formatted into a reused buffer and shown through the {@link DisplayRenderer}, with as many
+ * decimals as fit the display. Values needing all the digits for their integer part scroll
+ * with two decimals instead, rather than losing their decimals.
+ */
+public class DisplayHandler {
+
+    public static final int DISPLAY_LENGTH = DisplayRenderer.DIGITS;
+    private static final long MIN_DISPLAY_REFRESH_TIME_MS = 2000;
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000};
+    // sign, integer digits of the largest long, decimal point and two decimals
+    private static final int MAX_LONG_VALUE_LENGTH = 1 + 19 + 3;
+
+    private final DisplayRenderer renderer;
+    private final TimerWheel timerWheel;
+    private final TimerWheel.Task flushTask = new TimerWheel.Task() {
+        @Override
+        protected void run() {
+            flush();
+        }
+    };
+
+    private final Object lock = new Object();
+    private float pendingValue;
+    private boolean hasPendingValue = false;
+    private boolean flushScheduled = false;
+    private long lastFlushTimeMs = Long.MIN_VALUE / 2;
+
+    // only accessed from flushes on the timer thread
+    private final char[] chars = new char[DISPLAY_LENGTH];
+    private final boolean[] dots = new boolean[DISPLAY_LENGTH];
+    private final char[] longValue = new char[MAX_LONG_VALUE_LENGTH];
+    private final StringBuilder text = new StringBuilder(MAX_LONG_VALUE_LENGTH);
+
+    public DisplayHandler(ComponentsManager componentsManager, DisplayRenderer renderer) {
+        this.renderer = renderer;
+        this.timerWheel = componentsManager.getTimerWheel();
+    }
+
+    /**
+     * Show a value on display. Shown right away if display was not refreshed recently,
+     * otherwise the latest value received is shown once the refresh interval passes.
+     */
+    public void showValue(float value) {
+        synchronized (lock) {
+            pendingValue = value;
+            hasPendingValue = true;
+
+            if (!flushScheduled) {
+                long delayMs = lastFlushTimeMs + MIN_DISPLAY_REFRESH_TIME_MS - currentTimeMs();
+                flushScheduled = timerWheel.schedule(flushTask, Math.max(0, delayMs));
+            }
+        }
+    }
+
+    /**
+     * Drop any pending value and let the next value show without waiting for refresh interval.
+     */
+    public void reset() {
+        synchronized (lock) {
+            hasPendingValue = false;
+            lastFlushTimeMs = Long.MIN_VALUE / 2;
+            if (flushScheduled) {
+                timerWheel.cancel(flushTask);
+                flushScheduled = false;
+            }
+        }
+    }
+
+    /**
+     * Reset and blank the display.
+     */
+    public void clear() {
+        reset();
+        renderer.clear();
+    }
+
+    /**
+     * Drop pending flush. Handler cannot be used afterwards.
+     */
+    public void release() {
+        reset();
+    }
+
+    private void flush() {
+        float value;
+        synchronized (lock) {
+            flushScheduled = false;
+            if (!hasPendingValue)
+                return;
+
+            value = pendingValue;
+            hasPendingValue = false;
+            lastFlushTimeMs = currentTimeMs();
+        }
+
+        text.setLength(0);
+        formatValue(value, chars, dots);
+        boolean hasDecimals = false;
+        for (boolean dot : dots)
+            hasDecimals |= dot;
+
+        // dashes of values not worth scrolling shown as they are
+        if (hasDecimals || Float.isNaN(value) || Float.isInfinite(value)) {
+            for (int i = 0; i < DISPLAY_LENGTH; i++) {
+                text.append(chars[i]);
+                if (dots[i])
+                    text.append('.');
+            }
+        }
+        else {
+            text.append(longValue, 0, formatLongValue(value, longValue));
+        }
+        renderer.show(text);
+    }
+
+    private static long currentTimeMs() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * Format value to fit {@link #DISPLAY_LENGTH} digits, using as many decimals as there is
+     * room for. Decimal point is attached to the last digit of the integer part.
+     * Values not fitting the display are shown as dashes.
+     */
+    static void formatValue(float value, char[] chars, boolean[] dots) {
+        Arrays.fill(dots, false);
+
+        boolean negative = value < 0;
+        double absValue = Math.abs((double) value);
+        int start = negative ? 1 : 0;
+        int available = DISPLAY_LENGTH - start;
+
+        int integerDigits = 1;
+        while (integerDigits <= available && absValue >= POWERS_OF_TEN[integerDigits])
+            integerDigits++;
+
+        if (Float.isNaN(value) || integerDigits > available) {
+            Arrays.fill(chars, '-');
+            return;
+        }
+
+        int decimals = available - integerDigits;
+        long scaled = Math.round(absValue * POWERS_OF_TEN[decimals]);
+        // no minus zero, values rounding to zero show as zero
+        if (negative && scaled == 0) {
+            formatValue(0, chars, dots);
+            return;
+        }
+        // rounding up may carry into another integer digit, e.g. 9.999 -> 10.00
+        if (scaled >= POWERS_OF_TEN[available]) {
+            if (decimals == 0) {
+                Arrays.fill(chars, '-');
+                return;
+            }
+            decimals--;
+            integerDigits++;
+            scaled = Math.round(absValue * POWERS_OF_TEN[decimals]);
+        }
+
+        if (negative)
+            chars[0] = '-';
+        for (int i = DISPLAY_LENGTH - 1; i >= start; i--) {
+            chars[i] = (char) ('0' + scaled % 10);
+            scaled /= 10;
+        }
+        if (decimals > 0)
+            dots[start + integerDigits - 1] = true;
+    }
+
+    /**
+     * Format value with two decimals, however many integer digits it takes.
+     *
+     * @return number of characters written
+     */
+    static int formatLongValue(float value, char[] text) {
+        long scaled = Math.round(Math.abs((double) value) * 100);
+        int length = 0;
+        if (value < 0 && scaled != 0)
+            text[length++] = '-';
+
+        // values too large for a long are clamped, all the same on display
+        long integerPart = scaled / 100;
+        int integerDigits = 1;
+        for (long power = 10; power <= integerPart && integerDigits < 19; power *= 10)
+            integerDigits++;
+        for (int i = length + integerDigits - 1; i >= length; i--) {
+            text[i] = (char) ('0' + integerPart % 10);
+            integerPart /= 10;
+        }
+        length += integerDigits;
+
+        text[length++] = '.';
+        text[length++] = (char) ('0' + scaled / 10 % 10);
+        text[length++] = (char) ('0' + scaled % 10);
+        return length;
+    }
+}
@@ -0,0 +1,281 @@
+package com.vojtkovszky.rainbowhathub.handlers;
+
+import com.vojtkovszky.rainbowhathub.hat.BusExecutor;
+import com.vojtkovszky.rainbowhathub.hat.ComponentsManager;
+import com.vojtkovszky.rainbowhathub.hat.HealthSupervisor;
+import com.vojtkovszky.rainbowhathub.hat.SegmentFont;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatDisplay;
+import com.vojtkovszky.rainbowhathub.timing.TimerWheel;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Segment level renderer of the alphanumeric display.
+ *
+ * Text is encoded once into segment words from the precomputed {@link SegmentFont} glyphs,
+ * with each dot merged into the digit before it. Text fitting the display is shown as it is,
+ * longer text scrolls through it as a marquee. Scrolling and blinking are driven by frames on
+ * the hub's {@link TimerWheel}, scheduled only for when the shown digits change, and each frame
+ * writes just the digits which differ from what the display shows, on the I2C executor. Digits
+ * which failed to be written are retried shortly after, even if the frame doesn't change.
+ */
+public class DisplayRenderer {
+
+    public static final int DIGITS = HatDisplay.DIGITS;
+    public static final int MAX_TEXT_LENGTH = 64;
+    public static final long DEFAULT_SCROLL_INTERVAL_MS = 300;
+
+    // blank digits between the end of scrolling text and its start coming round again
+    private static final int SCROLL_GAP = 2;
+    private static final long WRITE_RETRY_DELAY_MS = 100;
+
+    private final ComponentsManager componentsManager;
+    private final BusExecutor i2cExecutor;
+    private final TimerWheel timerWheel;
+    private final WriteSegmentsCommand writeSegmentsCommand = new WriteSegmentsCommand();
+    private final SettingsCommand settingsCommand = new SettingsCommand();
+    private final TimerWheel.Task frameTask = new TimerWheel.Task() {
+        @Override
+        protected void run() {
+            renderFrame();
+        }
+    };
+    private final TimerWheel.Task retryWriteTask = new TimerWheel.Task() {
+        @Override
+        protected void run() {
+            i2cExecutor.submit(writeSegmentsCommand);
+        }
+    };
+
+    private final Object lock = new Object();
+    private final int[] glyphs = new int[MAX_TEXT_LENGTH];
+    private final int[] frame = new int[DIGITS];
+    private final int[] submittedFrame = new int[DIGITS];
+    private int length = 0;
+    private long scrollIntervalMs = DEFAULT_SCROLL_INTERVAL_MS;
+    private long scrollStartTimeMs;
+    private long blinkIntervalMs = 0;
+    private long blinkStartTimeMs;
+    private boolean framing = false;
+    private boolean released = false;
+
+    public DisplayRenderer(ComponentsManager componentsManager) {
+        this.componentsManager = componentsManager;
+        this.i2cExecutor = componentsManager.getExecutor(BusExecutor.Bus.I2C);
+        this.timerWheel = componentsManager.getTimerWheel();
+        componentsManager.getHealthSupervisor().setRestorer(ComponentsManager.Component.DISPLAY, writeSegmentsCommand);
+    }
+
+    /**
+     * Show given text, scrolling it if it doesn't fit the display. Text replacing scrolling text
+     * carries on scrolling from where it was. Text longer than {@link #MAX_TEXT_LENGTH} is cut.
+     */
+    public void show(CharSequence text) {
+        synchronized (lock) {
+            boolean wasScrolling = length > DIGITS;
+            length = 0;
+            for (int i = 0; i < text.length() && length < MAX_TEXT_LENGTH; i++) {
+                char c = text.charAt(i);
+                if (c == '.' && length > 0 && (glyphs[length - 1] & SegmentFont.DOT) == 0)
+                    glyphs[length - 1] |= SegmentFont.DOT;
+                else
+                    glyphs[length++] = SegmentFont.glyph(c);
+            }
+
+            if (length > DIGITS && !wasScrolling)
+                scrollStartTimeMs = currentTimeMs();
+            renderFrame();
+        }
+    }
+
+    /**
+     * Blank the display, keeping the blinking and display settings.
+     */
+    public void clear() {
+        show("");
+    }
+
+    /**
+     * Set time each digit of scrolling text is shown for before moving on by one.
+     */
+    public void setScrollInterval(long intervalMs) {
+        if (intervalMs <= 0)
+            throw new IllegalArgumentException("Interval must be positive");
+
+        synchronized (lock) {
+            scrollIntervalMs = intervalMs;
+            scrollStartTimeMs = currentTimeMs();
+            renderFrame();
+        }
+    }
+
+    /**
+     * Blink shown text by blanking it every other given interval, in step with scrolling frames.
+     * Interval of 0 stops blinking.
+     */
+    public void setBlinkInterval(long intervalMs) {
+        if (intervalMs < 0)
+            throw new IllegalArgumentException("Interval must not be negative");
+
+        synchronized (lock) {
+            blinkIntervalMs = intervalMs;
+            blinkStartTimeMs = currentTimeMs();
+            renderFrame();
+        }
+    }
+
+    /**
+     * Set brightness of the whole display, from 0 to 1.
+     */
+    public void setBrightness(float brightness) {
+        settingsCommand.brightness = brightness;
+        i2cExecutor.submit(settingsCommand);
+    }
+
+    /**
+     * Set hardware blink rate of the whole display, one of {@link HatDisplay}'s BLINK constants.
+     */
+    public void setBlinkRate(int blinkRate) {
+        if (blinkRate < HatDisplay.BLINK_OFF || blinkRate > HatDisplay.BLINK_HALF_HZ)
+            throw new IllegalArgumentException("Blink rate out of range: " + blinkRate);
+
+        settingsCommand.blinkRate = blinkRate;
+        i2cExecutor.submit(settingsCommand);
+    }
+
+    /**
+     * Stop scrolling and blinking, leaving the current frame on display.
+     * Renderer cannot be used afterwards, text shown after is ignored.
+     */
+    public void release() {
+        synchronized (lock) {
+            released = true;
+            timerWheel.cancel(frameTask);
+            timerWheel.cancel(retryWriteTask);
+            framing = false;
+        }
+    }
+
+    private void renderFrame() {
+        synchronized (lock) {
+            if (released)
+                return;
+
+            long nowMs = currentTimeMs();
+            boolean scrolling = length > DIGITS;
+            long scrollElapsedMs = nowMs - scrollStartTimeMs;
+            long blinkElapsedMs = nowMs - blinkStartTimeMs;
+            boolean blanked = blinkIntervalMs > 0 && (blinkElapsedMs / blinkIntervalMs) % 2 == 1;
+
+            int cycle = length + SCROLL_GAP;
+            int offset = scrolling ? (int) ((scrollElapsedMs / scrollIntervalMs) % cycle) : 0;
+            for (int i = 0; i < DIGITS; i++) {
+                int position = scrolling ? (offset + i) % cycle : i;
+                frame[i] = blanked || position >= length ? SegmentFont.BLANK : glyphs[position];
+            }
+            if (!Arrays.equals(frame, submittedFrame)) {
+                writeSegmentsCommand.setFrame(frame);
+                i2cExecutor.submit(writeSegmentsCommand);
+                System.arraycopy(frame, 0, submittedFrame, 0, DIGITS);
+            }
+
+            // next frame is due once scrolling or blinking changes what is shown
+            long delayMs = Long.MAX_VALUE;
+            if (scrolling)
+                delayMs = scrollIntervalMs - scrollElapsedMs % scrollIntervalMs;
+            if (blinkIntervalMs > 0)
+                delayMs = Math.min(delayMs, blinkIntervalMs - blinkElapsedMs % blinkIntervalMs);
+
+            if (delayMs != Long.MAX_VALUE) {
+                framing = timerWheel.schedule(frameTask, delayMs);
+            }
+            else if (framing) {
+                timerWheel.cancel(frameTask);
+                framing = false;
+            }
+        }
+    }
+
+    private static long currentTimeMs() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * Writes digits of the latest frame differing from the ones on display.
+     */
+    private class WriteSegmentsCommand extends BusExecutor.Command implements HealthSupervisor.Restorer {
+        private final int[] pendingFrame = new int[DIGITS];
+        // only accessed from the I2C executor
+        private final int[] frame = new int[DIGITS];
+        private final int[] writtenFrame = new int[DIGITS];
+        private HatDisplay writtenDisplay;
+
+        synchronized void setFrame(int[] frame) {
+            System.arraycopy(frame, 0, pendingFrame, 0, DIGITS);
+        }
+
+        @Override
+        protected void execute() throws IOException {
+            synchronized (this) {
+                System.arraycopy(pendingFrame, 0, frame, 0, DIGITS);
+            }
+
+            HatDisplay display = componentsManager.getDisplay();
+            if (display == null)
+                return;
+
+            if (display != writtenDisplay) {
+                // opened again since, and blanked by its initialization
+                Arrays.fill(writtenFrame, SegmentFont.BLANK);
+                writtenDisplay = display;
+            }
+
+            try {
+                for (int i = 0; i < DIGITS; i++) {
+                    if (frame[i] != writtenFrame[i]) {
+                        display.writeSegments(i, frame[i]);
+                        writtenFrame[i] = frame[i];
+                    }
+                }
+            }
+            catch (IOException e) {
+                // written digits are skipped next time, so the rest gets written even if unchanged
+                synchronized (lock) {
+                    if (!released)
+                        timerWheel.schedule(retryWriteTask, WRITE_RETRY_DELAY_MS);
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Apply display settings to a reopened display and write the latest frame to it.
+         */
+        @Override
+        public void restore() throws IOException {
+            settingsCommand.execute();
+            execute();
+        }
+    }
+
+    private class SettingsCommand extends BusExecutor.Command {
+        // NaN and negative keep the driver's defaults
+        private volatile float brightness = Float.NaN;
+        private volatile int blinkRate = -1;
+
+        @Override
+        protected void execute() throws IOException {
+            HatDisplay display = componentsManager.getDisplay();
+            if (display == null)
+                return;
+
+            float brightness = this.brightness;
+            if (!Float.isNaN(brightness))
+                display.setBrightness(brightness);
+            int blinkRate = this.blinkRate;
+            if (blinkRate >= 0)
+                display.setBlinkRate(blinkRate);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.vojtkovszky.rainbowhathub.handlers;
+
+import com.vojtkovszky.rainbowhathub.animations.Animation;
+import com.vojtkovszky.rainbowhathub.animations.BreathingAnimation;
+import com.vojtkovszky.rainbowhathub.animations.ChaseAnimation;
+import com.vojtkovszky.rainbowhathub.animations.GradientAnimation;
+import com.vojtkovszky.rainbowhathub.animations.RainbowAnimation;
+import com.vojtkovszky.rainbowhathub.hat.DriverFactory;
+
+/**
+ * Cycles through the led strip animations, rendered by {@link LedStripRenderer}.
+ * The gradient animation shows the latest sensor value set on this handler.
+ */
+public class LedAnimationsHandler {
+
+    private static final int HUE_BLUE = 170;
+    private static final int HUE_GREEN = 85;
+    // temperature range shown by the gradient
+    private static final float GRADIENT_MIN_VALUE = 15;
+    private static final float GRADIENT_MAX_VALUE = 30;
+
+    private final LedStripRenderer renderer;
+    private final GradientAnimation gradientAnimation =
+            new GradientAnimation(GRADIENT_MIN_VALUE, GRADIENT_MAX_VALUE);
+    private final Animation[] animations = {
+            new RainbowAnimation(3000),
+            new BreathingAnimation(HUE_BLUE, 4000),
+            new ChaseAnimation(HUE_GREEN, 120),
+            gradientAnimation
+    };
+
+    private int currentIndex = -1;
+
+    public LedAnimationsHandler(LedStripRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    /**
+     * Start the next animation, starting over with the first one after the last.
+     */
+    public synchronized void showNext() {
+        show((currentIndex + 1) % animations.length);
+    }
+
+    /**
+     * Start animation of given index, below {@link #getAnimationCount()}.
+     */
+    public synchronized void show(int index) {
+        if (index < 0 || index >= animations.length)
+            throw new IllegalArgumentException("No animation " + index);
+
+        currentIndex = index;
+        Animation animation = animations[currentIndex];
+        animation.reset();
+
+        renderer.setBrightness(DriverFactory.getBoard().getLedStripBrightness());
+        renderer.start(animation, animation.getFrameBudgetUs());
+    }
+
+    public int getAnimationCount() {
+        return animations.length;
+    }
+
+    public synchronized void clear() {
+        currentIndex = -1;
+        renderer.clear();
+    }
+
+    /**
+     * @return true if the current animation shows the sensor value
+     */
+    public synchronized boolean isShowingSensorValue() {
+        return currentIndex >= 0 && animations[currentIndex] == gradientAnimation;
+    }
+
+    /**
+     * Value to be shown by the gradient animation, e.g. the latest temperature.
+     */
+    public void setSensorValue(float value) {
+        gradientAnimation.setValue(value);
+    }
+}
@@ -0,0 +1,307 @@
+package com.vojtkovszky.rainbowhathub.handlers;
+
+import android.util.Log;
+
+import com.vojtkovszky.rainbowhathub.hat.BusExecutor;
+import com.vojtkovszky.rainbowhathub.hat.ComponentsManager;
+import com.vojtkovszky.rainbowhathub.hat.DriverFactory;
+import com.vojtkovszky.rainbowhathub.hat.HealthSupervisor;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatLedStrip;
+import com.vojtkovszky.rainbowhathub.timing.TimerWheel;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Frame based render engine for the led strip.
+ *
+ * Frames are rendered at a fixed rate on the hub's {@link TimerWheel} by the active {@link FrameProducer}.
+ * Two preallocated frame buffers are used: the front frame holds what is currently shown on the
+ * strip, the back frame is the one being produced. Strip is only written when the back frame or
+ * the brightness differ from what was last written, after which the buffers are swapped.
+ * Writes are done on the SPI executor, a write still waiting there is replaced by the newer frame.
+ * A failed write is retried a frame later, as rendering may have stopped on that very frame, but
+ * only a few times in a row. Recovering a strip failing for longer is left to the {@link HealthSupervisor}.
+ *
+ * Producer can be given a frame budget. When producing frames keeps taking longer than that,
+ * only every second, fourth, ... frame is rendered, until producer is back well within budget.
+ *
+ * Renderer assumes the strip is blank with brightness 0 when created, which is the state
+ * {@link com.vojtkovszky.rainbowhathub.hat.ComponentsManager} leaves it in after init.
+ */
+public class LedStripRenderer {
+
+    private static final String TAG = LedStripRenderer.class.getSimpleName();
+
+    public static final int DEFAULT_FRAMES_PER_SECOND = 30;
+    private static final int MAX_FRAME_DIVIDER = 8;
+    private static final int OVER_BUDGET_FRAMES_TO_DEGRADE = 3;
+    private static final int UNDER_BUDGET_FRAMES_TO_RECOVER = 60;
+    private static final int MAX_WRITE_RETRIES = 3;
+
+    private final ComponentsManager componentsManager;
+    private final BusExecutor spiExecutor;
+    private final WriteFrameCommand writeFrameCommand;
+    private final int framesPerSecond;
+    private final long frameIntervalMs;
+    private final TimerWheel timerWheel;
+    private final TimerWheel.Task renderTask = new TimerWheel.Task() {
+        @Override
+        protected void run() {
+            renderFrame();
+        }
+    };
+    private final TimerWheel.Task retryWriteTask = new TimerWheel.Task() {
+        @Override
+        protected void run() {
+            spiExecutor.submit(writeFrameCommand);
+        }
+    };
+
+    private final Object lock = new Object();
+    private int[] frontFrame;
+    private int[] backFrame;
+    private int writtenBrightness = 0;
+    private int brightness = 0;
+
+    private FrameProducer producer;
+    private boolean rendering = false;
+    private long nextFrameTimeNs;
+
+    private long frameBudgetNs = 0;
+    // render every n-th frame only, while producer is over budget
+    private int frameDivider = 1;
+    private int skippedFrames = 0;
+    private int overBudgetFrames = 0;
+    private int underBudgetFrames = 0;
+
+    public LedStripRenderer(ComponentsManager componentsManager) {
+        this(componentsManager, DEFAULT_FRAMES_PER_SECOND);
+    }
+
+    public LedStripRenderer(ComponentsManager componentsManager, int framesPerSecond) {
+        this.componentsManager = componentsManager;
+        this.spiExecutor = componentsManager.getExecutor(BusExecutor.Bus.SPI);
+        this.timerWheel = componentsManager.getTimerWheel();
+        this.framesPerSecond = framesPerSecond;
+        this.frameIntervalMs = 1000 / framesPerSecond;
+
+        int length = DriverFactory.getBoard().getLedStripLength();
+        this.frontFrame = new int[length];
+        this.backFrame = new int[length];
+        this.writeFrameCommand = new WriteFrameCommand(length);
+        componentsManager.getHealthSupervisor().setRestorer(ComponentsManager.Component.LED_STRIP, writeFrameCommand);
+    }
+
+    /**
+     * Start rendering frames from given producer, replacing the current one.
+     * Producer starts drawing on top of whatever is currently shown.
+     */
+    public void start(FrameProducer producer) {
+        start(producer, 0);
+    }
+
+    /**
+     * Start rendering frames from given producer, reducing the frame rate if producing a frame
+     * takes longer than given budget. Budget of 0 means no limit.
+     */
+    public void start(FrameProducer producer, long frameBudgetUs) {
+        synchronized (lock) {
+            this.producer = producer;
+            this.frameBudgetNs = frameBudgetUs * 1000;
+            frameDivider = 1;
+            skippedFrames = 0;
+            overBudgetFrames = 0;
+            underBudgetFrames = 0;
+            if (!rendering) {
+                rendering = true;
+                nextFrameTimeNs = System.nanoTime();
+                timerWheel.schedule(renderTask, 0);
+            }
+        }
+    }
+
+    /**
+     * Stop rendering, leaving the last rendered frame on the strip.
+     */
+    public void stop() {
+        synchronized (lock) {
+            producer = null;
+            stopRenderLoop();
+        }
+    }
+
+    /**
+     * Stop rendering and turn off all the leds.
+     */
+    public void clear() {
+        synchronized (lock) {
+            stop();
+            brightness = 0;
+            Arrays.fill(backFrame, 0);
+            writeBackFrameIfDirty();
+        }
+    }
+
+    public void setBrightness(int brightness) {
+        synchronized (lock) {
+            this.brightness = brightness;
+        }
+    }
+
+    public int getBrightness() {
+        synchronized (lock) {
+            return brightness;
+        }
+    }
+
+    /**
+     * Frame rate currently rendered at, lower than the configured one while producer is over budget.
+     */
+    public int getFramesPerSecond() {
+        synchronized (lock) {
+            return framesPerSecond / frameDivider;
+        }
+    }
+
+    /**
+     * Stop rendering. Renderer cannot be used afterwards.
+     */
+    public void release() {
+        stop();
+    }
+
+    private void renderFrame() {
+        synchronized (lock) {
+            if (producer == null)
+                return;
+
+            if (++skippedFrames < frameDivider) {
+                scheduleNextFrame();
+                return;
+            }
+            skippedFrames = 0;
+
+            // producers draw on top of the current frame
+            System.arraycopy(frontFrame, 0, backFrame, 0, backFrame.length);
+            long startNs = System.nanoTime();
+            boolean keepRendering = producer.produceFrame(backFrame, startNs / 1000000);
+            if (frameBudgetNs > 0)
+                checkFrameBudget(System.nanoTime() - startNs);
+            writeBackFrameIfDirty();
+
+            if (!keepRendering)
+                stop();
+            else
+                scheduleNextFrame();
+        }
+    }
+
+    private void scheduleNextFrame() {
+        long nowNs = System.nanoTime();
+        // fixed rate, skipping frames rather than catching up after a stall
+        nextFrameTimeNs += frameIntervalMs * 1000000;
+        if (nextFrameTimeNs < nowNs)
+            nextFrameTimeNs = nowNs;
+        timerWheel.schedule(renderTask, (nextFrameTimeNs - nowNs) / 1000000);
+    }
+
+    private void checkFrameBudget(long frameNs) {
+        if (frameNs > frameBudgetNs) {
+            underBudgetFrames = 0;
+            if (++overBudgetFrames >= OVER_BUDGET_FRAMES_TO_DEGRADE && frameDivider < MAX_FRAME_DIVIDER) {
+                overBudgetFrames = 0;
+                frameDivider *= 2;
+                Log.w(TAG, "Frame over budget, reducing to " + framesPerSecond / frameDivider + " fps");
+            }
+        }
+        else if (frameNs < frameBudgetNs / 2) {
+            overBudgetFrames = 0;
+            if (++underBudgetFrames >= UNDER_BUDGET_FRAMES_TO_RECOVER && frameDivider > 1) {
+                underBudgetFrames = 0;
+                frameDivider /= 2;
+            }
+        }
+    }
+
+    private void writeBackFrameIfDirty() {
+        if (brightness == writtenBrightness && Arrays.equals(frontFrame, backFrame))
+            return;
+
+        writeFrameCommand.setFrame(backFrame, brightness);
+        spiExecutor.submit(writeFrameCommand);
+        writtenBrightness = brightness;
+
+        int[] written = backFrame;
+        backFrame = frontFrame;
+        frontFrame = written;
+    }
+
+    private void stopRenderLoop() {
+        if (rendering) {
+            timerWheel.cancel(renderTask);
+            rendering = false;
+        }
+    }
+
+    private class WriteFrameCommand extends BusExecutor.Command implements HealthSupervisor.Restorer {
+        private final int[] pendingFrame;
+        private final int[] frame;
+        private int pendingBrightness;
+        // only accessed from the SPI executor
+        private int failedWrites = 0;
+
+        WriteFrameCommand(int length) {
+            pendingFrame = new int[length];
+            frame = new int[length];
+        }
+
+        synchronized void setFrame(int[] frame, int brightness) {
+            System.arraycopy(frame, 0, pendingFrame, 0, pendingFrame.length);
+            pendingBrightness = brightness;
+        }
+
+        @Override
+        protected void execute() throws IOException {
+            int brightness;
+            synchronized (this) {
+                System.arraycopy(pendingFrame, 0, frame, 0, frame.length);
+                brightness = pendingBrightness;
+            }
+
+            HatLedStrip ledStrip = componentsManager.getLedstrip();
+            if (ledStrip == null)
+                return;
+
+            try {
+                ledStrip.setBrightness(brightness);
+                ledStrip.write(frame);
+                failedWrites = 0;
+            }
+            catch (IOException e) {
+                if (++failedWrites <= MAX_WRITE_RETRIES)
+                    timerWheel.schedule(retryWriteTask, frameIntervalMs);
+                throw e;
+            }
+        }
+
+        /**
+         * Write the latest frame again, whether or not it made it to the strip.
+         */
+        @Override
+        public void restore() throws IOException {
+            execute();
+        }
+    }
+
+    public interface FrameProducer {
+        /**
+         * Draw the next frame into given buffer, already holding the currently shown frame.
+         *
+         * @param frame buffer of colors to draw into, one per led of the board's strip
+         * @param frameTimeMs monotonic time of the frame in milliseconds
+         * @return false once producer has nothing more to draw and rendering can stop
+         */
+        boolean produceFrame(int[] frame, long frameTimeMs);
+    }
+}
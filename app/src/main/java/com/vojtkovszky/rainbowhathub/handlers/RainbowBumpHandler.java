@@ -1,30 +1,28 @@
 package com.vojtkovszky.rainbowhathub.handlers;
 
 import android.graphics.Color;
-import android.os.Handler;
 
-import com.google.android.things.contrib.driver.apa102.Apa102;
 import com.vojtkovszky.rainbowhathub.hat.DriverFactory;
 
-import java.io.IOException;
-
 /**
  * Created by mvojtkovszky on 2017-07-04.
+ *
+ * Lights up one more led on the strip every {@link #LED_BUMP_DURATION_MS},
+ * as a frame producer for {@link LedStripRenderer}.
  */
 
-public class RainbowBumpHandler {
+public class RainbowBumpHandler implements LedStripRenderer.FrameProducer {
 
     private static final int LED_BUMP_DURATION_MS = 1500;
 
-    private Apa102 ledStrip;
-    private Handler handler = new Handler();
-    private int[] colors = new int[7];
+    private LedStripRenderer renderer;
 
     private volatile boolean bumpingInProgress = false;
-    private volatile int currentLedIndex = 0;
+    private int currentLedIndex = 0;
+    private long lastBumpTimeMs = 0;
 
-    public RainbowBumpHandler(Apa102 ledStrip) {
-        this.ledStrip = ledStrip;
+    public RainbowBumpHandler(LedStripRenderer renderer) {
+        this.renderer = renderer;
     }
 
     public void startBumping() {
@@ -32,44 +30,33 @@ public class RainbowBumpHandler {
             return;
 
         bumpingInProgress = true;
-        scheduleBump();
+        resetBump();
+
+        renderer.setBrightness(DriverFactory.getBoard().getLedStripBrightness());
+        renderer.start(this);
     }
 
     public void clearRainbow() {
-        try {
-            bumpingInProgress = false;
-            currentLedIndex = 0;
-
-            ledStrip.setBrightness(0);
-            colors = new int[7];
-            ledStrip.write(colors);
-        }
-        catch (IOException ignore) { }
+        bumpingInProgress = false;
+        renderer.clear();
     }
 
-    private void scheduleBump() {
-        handler.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                if (bumpingInProgress && currentLedIndex < 7)
-                    bumpAnotherLed();
-            }
-        }, LED_BUMP_DURATION_MS);
+    void resetBump() {
+        currentLedIndex = 0;
+        lastBumpTimeMs = 0;
     }
 
-    private void bumpAnotherLed() {
-        try {
-            if (ledStrip.getBrightness() == 0)
-                ledStrip.setBrightness(DriverFactory.DEFAULT_LEDSTRIP_BRIGHTNESS);
-
-            colors[currentLedIndex] = Color.RED;
-            ledStrip.write(colors);
+    @Override
+    public boolean produceFrame(int[] frame, long frameTimeMs) {
+        if (lastBumpTimeMs == 0)
+            lastBumpTimeMs = frameTimeMs;
 
+        while (currentLedIndex < frame.length && frameTimeMs - lastBumpTimeMs >= LED_BUMP_DURATION_MS) {
+            frame[currentLedIndex] = Color.RED;
             currentLedIndex++;
-
-            scheduleBump();
-
+            lastBumpTimeMs += LED_BUMP_DURATION_MS;
         }
-        catch (IOException ignore) { }
+
+        return currentLedIndex < frame.length;
     }
 }
@@ -0,0 +1,85 @@
+package com.vojtkovszky.rainbowhathub.handlers;
+
+import com.vojtkovszky.rainbowhathub.sensors.SensorSampler;
+
+/**
+ * Adapts sensor sampling to the current {@link WorkingModeHandler.WorkingMode}.
+ *
+ * Only the channel shown on display is sampled, starting slow and speeding up while its value
+ * changes quickly. With working mode off both channels are sampled at a low fixed rate in forced
+ * mode, or not at all, leaving the sensor asleep. Temperature can be asked to be sampled in any
+ * mode, for outputs showing it regardless of what's on display.
+ */
+public class SamplingModeHandler {
+
+    private static final float ACTIVE_MIN_RATE_HZ = 2;
+    private static final float ACTIVE_MAX_RATE_HZ = 16;
+    private static final int ACTIVE_BATCH_SIZE = 2;
+    private static final float TEMPERATURE_CHANGE_PER_SECOND = 0.2f;
+    private static final float PRESSURE_CHANGE_PER_SECOND = 0.5f;
+
+    private final SensorSampler sensorSampler;
+    private final float offRateHz;
+
+    private WorkingModeHandler.WorkingMode mode = WorkingModeHandler.WorkingMode.MODE_OFF;
+    private boolean temperatureNeeded = false;
+
+    /**
+     * @param offRateHz rate to keep sampling at while working mode is off, 0 to stop sampling
+     */
+    public SamplingModeHandler(SensorSampler sensorSampler, float offRateHz) {
+        this.sensorSampler = sensorSampler;
+        this.offRateHz = offRateHz;
+        sensorSampler.setChangeThreshold(SensorSampler.Channel.TEMPERATURE, TEMPERATURE_CHANGE_PER_SECOND);
+        sensorSampler.setChangeThreshold(SensorSampler.Channel.PRESSURE, PRESSURE_CHANGE_PER_SECOND);
+    }
+
+    public synchronized void setMode(WorkingModeHandler.WorkingMode mode) {
+        this.mode = mode;
+        applyMode();
+    }
+
+    /**
+     * Keep sampling temperature at the active rate even if the working mode doesn't need it,
+     * e.g. while the led strip shows it.
+     */
+    public synchronized void setTemperatureNeeded(boolean temperatureNeeded) {
+        if (temperatureNeeded == this.temperatureNeeded)
+            return;
+
+        this.temperatureNeeded = temperatureNeeded;
+        applyMode();
+    }
+
+    private void applyMode() {
+        switch (mode) {
+            case MODE_OFF:
+                if (temperatureNeeded) {
+                    sensorSampler.setBatchSize(ACTIVE_BATCH_SIZE);
+                    sensorSampler.setSamplingRate(ACTIVE_MIN_RATE_HZ, ACTIVE_MAX_RATE_HZ);
+                    sensorSampler.setEnabledChannels(true, offRateHz > 0);
+                }
+                else if (offRateHz > 0) {
+                    sensorSampler.setBatchSize(1);
+                    sensorSampler.setSamplingRate(offRateHz);
+                    sensorSampler.setEnabledChannels(true, true);
+                }
+                else {
+                    sensorSampler.setEnabledChannels(false, false);
+                }
+                break;
+
+            case MODE_TEMPERATURE:
+                sensorSampler.setBatchSize(ACTIVE_BATCH_SIZE);
+                sensorSampler.setSamplingRate(ACTIVE_MIN_RATE_HZ, ACTIVE_MAX_RATE_HZ);
+                sensorSampler.setEnabledChannels(true, false);
+                break;
+
+            case MODE_PRESSURE:
+                sensorSampler.setBatchSize(ACTIVE_BATCH_SIZE);
+                sensorSampler.setSamplingRate(ACTIVE_MIN_RATE_HZ, ACTIVE_MAX_RATE_HZ);
+                sensorSampler.setEnabledChannels(temperatureNeeded, true);
+                break;
+        }
+    }
+}
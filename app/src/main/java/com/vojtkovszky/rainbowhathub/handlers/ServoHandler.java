@@ -0,0 +1,275 @@
+package com.vojtkovszky.rainbowhathub.handlers;
+
+import com.vojtkovszky.rainbowhathub.hat.BusExecutor;
+import com.vojtkovszky.rainbowhathub.hat.ComponentsManager;
+import com.vojtkovszky.rainbowhathub.hat.HealthSupervisor;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatServo;
+import com.vojtkovszky.rainbowhathub.timing.TimerWheel;
+
+import java.io.IOException;
+
+/**
+ * Servo motion planner, moving the servo to target angles along smooth, rate limited trajectories.
+ *
+ * Whenever a target is set, the whole trajectory from the current position and velocity is
+ * computed up front into a preallocated array of steps, one per control period. Steps are then
+ * played back on the hub's {@link TimerWheel} and written on the PWM executor. A new target
+ * replans from wherever the servo is, carrying on its velocity rather than stopping first.
+ * Angles are written only when the pulse width they map to changes by at least a step.
+ */
+public class ServoHandler {
+
+    public enum Profile {
+        /** Constant acceleration up to maximum velocity and constant deceleration */
+        TRAPEZOIDAL,
+        /** Minimum jerk quintic curve, gentler at both ends but slower for given limits */
+        S_CURVE
+    }
+
+    public static final long CONTROL_PERIOD_MS = 20;
+    public static final double DEFAULT_MAX_VELOCITY = 180;
+    public static final double DEFAULT_MAX_ACCELERATION = 360;
+
+    // trajectories longer than this are continued once played back
+    private static final int MAX_STEPS = 500;
+    private static final double CONTROL_PERIOD_S = CONTROL_PERIOD_MS / 1000.0;
+    // pulse range the driver maps the servo's angle range to by default
+    private static final double MIN_PULSE_DURATION_MS = 1;
+    private static final double MAX_PULSE_DURATION_MS = 2;
+    private static final double PULSE_DURATION_STEP_MS = 0.001;
+
+    private final ComponentsManager componentsManager;
+    private final BusExecutor pwmExecutor;
+    private final TimerWheel timerWheel;
+    private final AngleCommand angleCommand = new AngleCommand();
+    private final TimerWheel.Task stepTask = new TimerWheel.Task() {
+        @Override
+        protected void run() {
+            onStep();
+        }
+    };
+
+    // guarded by this
+    private Profile profile = Profile.TRAPEZOIDAL;
+    private double maxVelocity = DEFAULT_MAX_VELOCITY;
+    private double maxAcceleration = DEFAULT_MAX_ACCELERATION;
+    private final double[] steps = new double[MAX_STEPS];
+    private int stepCount = 0;
+    private int nextStep = 0;
+    private long nextStepTimeNs;
+    private double position = Double.NaN;
+    private double velocity = 0;
+    private double target;
+
+    public ServoHandler(ComponentsManager componentsManager) {
+        this.componentsManager = componentsManager;
+        this.pwmExecutor = componentsManager.getExecutor(BusExecutor.Bus.PWM);
+        this.timerWheel = componentsManager.getTimerWheel();
+        componentsManager.getHealthSupervisor().setRestorer(ComponentsManager.Component.SERVO, angleCommand);
+    }
+
+    /**
+     * @param maxVelocity in degrees per second
+     * @param maxAcceleration in degrees per second squared
+     */
+    public synchronized void setProfile(Profile profile, double maxVelocity, double maxAcceleration) {
+        if (maxVelocity <= 0 || maxAcceleration <= 0)
+            throw new IllegalArgumentException("Limits must be positive");
+
+        this.profile = profile;
+        this.maxVelocity = maxVelocity;
+        this.maxAcceleration = maxAcceleration;
+        if (isMoving())
+            plan();
+    }
+
+    /**
+     * Move to given angle, limited to the servo's range once written. The very first target is
+     * jumped to directly, as there's no telling where the servo starts from.
+     */
+    public synchronized void setTarget(double angle) {
+        if (Double.isNaN(angle) || Double.isInfinite(angle))
+            throw new IllegalArgumentException("Angle must be finite, got " + angle);
+
+        target = angle;
+        if (Double.isNaN(position)) {
+            position = angle;
+            write(angle);
+            return;
+        }
+        if (angle == position && velocity == 0)
+            return;
+
+        boolean moving = isMoving();
+        plan();
+        if (!moving) {
+            nextStepTimeNs = System.nanoTime() + CONTROL_PERIOD_MS * 1000000;
+            timerWheel.schedule(stepTask, CONTROL_PERIOD_MS);
+        }
+    }
+
+    /**
+     * Show value as a gauge, minimum value being at minimum angle and maximum at maximum one.
+     * A value that isn't a number leaves the gauge where it is.
+     */
+    public void showValue(float value, float minValue, float maxValue, double minAngle, double maxAngle) {
+        if (maxValue == minValue)
+            throw new IllegalArgumentException("Value range must not be empty");
+        if (Float.isNaN(value))
+            return;
+
+        float fraction = Math.max(0, Math.min(1, (value - minValue) / (maxValue - minValue)));
+        setTarget(minAngle + fraction * (maxAngle - minAngle));
+    }
+
+    public synchronized boolean isMoving() {
+        return nextStep < stepCount;
+    }
+
+    /**
+     * Stop moving wherever the servo is.
+     */
+    public synchronized void stop() {
+        timerWheel.cancel(stepTask);
+        stepCount = 0;
+        nextStep = 0;
+        velocity = 0;
+        if (!Double.isNaN(position))
+            target = position;
+    }
+
+    private void onStep() {
+        double angle;
+        synchronized (this) {
+            if (!isMoving())
+                return;
+
+            double previous = position;
+            position = steps[nextStep++];
+            velocity = (position - previous) / CONTROL_PERIOD_S;
+            if (!isMoving()) {
+                if (position != target)
+                    plan();
+                else
+                    velocity = 0;
+            }
+
+            if (isMoving()) {
+                // fixed rate, not drifting by however late this step was
+                nextStepTimeNs += CONTROL_PERIOD_MS * 1000000;
+                long delayMs = (nextStepTimeNs - System.nanoTime()) / 1000000;
+                timerWheel.schedule(stepTask, Math.max(0, delayMs));
+            }
+            angle = position;
+        }
+        write(angle);
+    }
+
+    private void write(double angle) {
+        angleCommand.angle = angle;
+        pwmExecutor.submit(angleCommand);
+    }
+
+    /**
+     * Compute steps from current position and velocity to target.
+     */
+    private void plan() {
+        nextStep = 0;
+        if (profile == Profile.S_CURVE)
+            stepCount = planSCurve(position, velocity, target);
+        else
+            stepCount = planTrapezoidal(position, velocity, target);
+    }
+
+    private int planTrapezoidal(double position, double velocity, double target) {
+        double velocityStep = maxAcceleration * CONTROL_PERIOD_S;
+        int count = 0;
+        while (count < MAX_STEPS && (position != target || velocity != 0)) {
+            double distance = target - position;
+            // fastest velocity still allowing to stop at the target
+            double desiredVelocity = Math.signum(distance)
+                    * Math.min(maxVelocity, Math.sqrt(2 * maxAcceleration * Math.abs(distance)));
+            velocity += Math.max(-velocityStep, Math.min(velocityStep, desiredVelocity - velocity));
+
+            double nextPosition = position + velocity * CONTROL_PERIOD_S;
+            // reached or passed the target slowly enough to just stop there
+            if ((target - nextPosition) * distance <= 0 && Math.abs(velocity) <= 2 * velocityStep) {
+                nextPosition = target;
+                velocity = 0;
+            }
+            position = nextPosition;
+            steps[count++] = position;
+        }
+        return count;
+    }
+
+    private int planSCurve(double position, double velocity, double target) {
+        double distance = Math.abs(target - position);
+        // peak velocity and acceleration of a minimum jerk move are 1.875 and 5.77 times
+        // the ones of a move at constant velocity of the same duration
+        double durationS = Math.max(1.875 * distance / maxVelocity, Math.sqrt(5.774 * distance / maxAcceleration));
+        int count = (int) Math.min(MAX_STEPS, Math.max(1, Math.ceil(durationS / CONTROL_PERIOD_S)));
+        durationS = count * CONTROL_PERIOD_S;
+
+        // quintic from current position and velocity to target at rest, with no acceleration at either end
+        double remaining = target - position - velocity * durationS;
+        double c3 = 10 * remaining + 4 * velocity * durationS;
+        double c4 = -15 * remaining - 7 * velocity * durationS;
+        double c5 = 6 * remaining + 3 * velocity * durationS;
+        for (int i = 1; i < count; i++) {
+            double u = (double) i / count;
+            steps[i - 1] = position + velocity * u * durationS + u * u * u * (c3 + u * (c4 + u * c5));
+        }
+        steps[count - 1] = target;
+        return count;
+    }
+
+    /**
+     * Writes the latest angle, if its pulse duration differs from the written one.
+     */
+    private class AngleCommand extends BusExecutor.Command implements HealthSupervisor.Restorer {
+        private volatile double angle = Double.NaN;
+        // only accessed from the PWM executor
+        private HatServo enabledServo;
+        private long writtenPulseSteps = -1;
+
+        @Override
+        protected void execute() throws IOException {
+            // nothing to write before the first target
+            if (Double.isNaN(angle))
+                return;
+
+            HatServo servo = componentsManager.getServo();
+            if (servo == null)
+                return;
+
+            if (servo != enabledServo) {
+                // opened again since, lazily or after an error
+                servo.setEnabled(true);
+                enabledServo = servo;
+                writtenPulseSteps = -1;
+            }
+
+            double minAngle = servo.getMinimumAngle();
+            double angleRange = servo.getMaximumAngle() - minAngle;
+            double fraction = Math.max(0, Math.min(1, (angle - minAngle) / angleRange));
+            long pulseSteps = Math.round(fraction * (MAX_PULSE_DURATION_MS - MIN_PULSE_DURATION_MS)
+                    / PULSE_DURATION_STEP_MS);
+            if (pulseSteps == writtenPulseSteps)
+                return;
+
+            double quantizedFraction = pulseSteps * PULSE_DURATION_STEP_MS
+                    / (MAX_PULSE_DURATION_MS - MIN_PULSE_DURATION_MS);
+            servo.setAngle(Math.min(servo.getMaximumAngle(), minAngle + quantizedFraction * angleRange));
+            writtenPulseSteps = pulseSteps;
+        }
+
+        /**
+         * Write the latest angle to a reopened servo, which is enabled again as a new instance.
+         */
+        @Override
+        public void restore() throws IOException {
+            execute();
+        }
+    }
+}
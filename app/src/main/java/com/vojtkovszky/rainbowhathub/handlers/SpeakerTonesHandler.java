@@ -1,43 +1,170 @@
 package com.vojtkovszky.rainbowhathub.handlers;
 
-import android.os.Handler;
-
-import com.google.android.things.contrib.driver.pwmspeaker.Speaker;
+import com.vojtkovszky.rainbowhathub.hat.BusExecutor;
+import com.vojtkovszky.rainbowhathub.hat.ComponentsManager;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSpeaker;
+import com.vojtkovszky.rainbowhathub.timing.TimerWheel;
 
 import java.io.IOException;
 
 /**
  * Created by mvojtkovszky on 2017-07-04.
+ *
+ * Tone sequencer for the piezo speaker.
+ *
+ * Plays sequences of notes from a preallocated note queue, timed on the hub's {@link TimerWheel}
+ * and written on the PWM executor. Only one sequence plays at a time: a new sequence of the same
+ * or higher priority preempts the playing one, one of lower priority is rejected until the playing
+ * one is done. Nothing blocks the caller and playing a sequence doesn't allocate.
  */
-
 public class SpeakerTonesHandler {
 
     private static final int DEFAULT_TONE_DURATION_MS = 50;
-    private Speaker speaker;
+    public static final int MAX_SEQUENCE_LENGTH = 32;
+
+    /** Short feedback tones, preempting each other */
+    public static final int PRIORITY_FEEDBACK = 0;
+    /** Melodies not to be cut short by feedback */
+    public static final int PRIORITY_NOTIFICATION = 1;
+    public static final int PRIORITY_ALARM = 2;
+
+    private final ComponentsManager componentsManager;
+    private final BusExecutor pwmExecutor;
+    private final TimerWheel timerWheel;
+
+    private final ToneCommand toneCommand = new ToneCommand();
+    private final TimerWheel.Task nextNoteTask = new TimerWheel.Task() {
+        @Override
+        protected void run() {
+            onNoteTimeout();
+        }
+    };
+
+    // guarded by this
+    private final double[] frequencies = new double[MAX_SEQUENCE_LENGTH];
+    private final long[] durationsMs = new long[MAX_SEQUENCE_LENGTH];
+    private int noteCount = 0;
+    private int nextNote = 0;
+    private int playingPriority = -1;
+    private long noteEndNs;
+
+    public SpeakerTonesHandler(ComponentsManager componentsManager) {
+        this.componentsManager = componentsManager;
+        this.pwmExecutor = componentsManager.getExecutor(BusExecutor.Bus.PWM);
+        this.timerWheel = componentsManager.getTimerWheel();
+    }
+
+    /**
+     * Play a short feedback tone.
+     */
+    public boolean playTone(double frequency) {
+        return playTone(frequency, DEFAULT_TONE_DURATION_MS, PRIORITY_FEEDBACK);
+    }
+
+    public synchronized boolean playTone(double frequency, long durationMs, int priority) {
+        if (!canPlay(priority))
+            return false;
 
-    public SpeakerTonesHandler(Speaker speaker) {
-        this.speaker = speaker;
+        frequencies[0] = frequency;
+        durationsMs[0] = durationMs;
+        start(1, priority);
+        return true;
     }
 
-    public void playTone(double frequency) {
+    /**
+     * Play a sequence of notes, given as frequency and duration of each one.
+     * Frequency of 0 is a rest.
+     *
+     * @return false if a sequence of higher priority is playing
+     */
+    public synchronized boolean playSequence(double[] frequencies, long[] durationsMs, int priority) {
+        if (frequencies.length != durationsMs.length)
+            throw new IllegalArgumentException("Need a duration for every frequency");
+        if (frequencies.length > MAX_SEQUENCE_LENGTH)
+            throw new IllegalArgumentException("Sequence longer than " + MAX_SEQUENCE_LENGTH + " notes");
 
-        try {
-            speaker.play(frequency);
-            final Handler handler = new Handler();
-            handler.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    stopPlaying();
-                }
-            }, DEFAULT_TONE_DURATION_MS);
+        if (!canPlay(priority))
+            return false;
+
+        System.arraycopy(frequencies, 0, this.frequencies, 0, frequencies.length);
+        System.arraycopy(durationsMs, 0, this.durationsMs, 0, durationsMs.length);
+        start(frequencies.length, priority);
+        return true;
+    }
+
+    public synchronized boolean isPlaying() {
+        return playingPriority >= 0;
+    }
+
+    /**
+     * Stop whatever is playing, regardless of its priority.
+     */
+    public synchronized void stop() {
+        timerWheel.cancel(nextNoteTask);
+        noteCount = 0;
+        nextNote = 0;
+        playingPriority = -1;
+        setFrequency(0);
+    }
+
+    private boolean canPlay(int priority) {
+        return priority >= playingPriority;
+    }
+
+    private void start(int noteCount, int priority) {
+        this.noteCount = noteCount;
+        this.nextNote = 0;
+        this.playingPriority = priority;
+        playNextNote();
+    }
+
+    private synchronized void onNoteTimeout() {
+        // timeout of a preempted note, fired just as the new one started
+        if (System.nanoTime() < noteEndNs)
+            return;
+        playNextNote();
+    }
+
+    private void playNextNote() {
+        if (nextNote == noteCount) {
+            stop();
+            return;
         }
-        catch (IOException ignore) { }
+
+        setFrequency(frequencies[nextNote]);
+        noteEndNs = System.nanoTime() + durationsMs[nextNote] * 1000000;
+        timerWheel.schedule(nextNoteTask, durationsMs[nextNote]);
+        nextNote++;
+    }
+
+    private void setFrequency(double frequency) {
+        toneCommand.frequency = frequency;
+        pwmExecutor.submit(toneCommand);
     }
 
-    private void stopPlaying() {
-        try {
-            speaker.stop();
+    /**
+     * Writes the latest frequency, so a single queued command always ends in the latest state.
+     */
+    private class ToneCommand extends BusExecutor.Command {
+        private volatile double frequency;
+        // only accessed from the PWM executor
+        private double playingFrequency = 0;
+
+        @Override
+        protected void execute() throws IOException {
+            double frequency = this.frequency;
+            if (frequency == playingFrequency)
+                return;
+
+            HatSpeaker speaker = componentsManager.getSpeaker();
+            if (speaker == null)
+                return;
+
+            if (frequency > 0)
+                speaker.play(frequency);
+            else
+                speaker.stop();
+            playingFrequency = frequency;
         }
-        catch (IOException ignore) { }
     }
 }
@@ -18,7 +18,9 @@ public class WorkingModeHandler {
         MODE_PRESSURE
     }
 
-    private WorkingMode mCurrentMode;
+    private static final WorkingMode[] MODES = WorkingMode.values();
+
+    private volatile WorkingMode mCurrentMode;
     private OnModeChangedListener mListener;
 
     public WorkingModeHandler(WorkingMode mode) {
@@ -29,7 +31,11 @@ public class WorkingModeHandler {
         mListener = listener;
     }
 
-    public void setMode(WorkingMode mode) {
+    /**
+     * Called from both the inputs and telemetry commands, listener is notified under the same
+     * lock so notifications come in the order the mode changed.
+     */
+    public synchronized void setMode(WorkingMode mode) {
         Log.d(TAG, "Working mode changed to " + mode);
 
         mCurrentMode = mode;
@@ -38,12 +44,12 @@ public class WorkingModeHandler {
             mListener.onWorkingModeChanged(mode);
     }
 
-    public void toggleMode() {
+    public synchronized void toggleMode() {
         int currentMode = mCurrentMode.ordinal() + 1;
-        if (currentMode == WorkingMode.values().length)
+        if (currentMode == MODES.length)
             currentMode = 0;
 
-        setMode(WorkingMode.values()[currentMode]);
+        setMode(MODES[currentMode]);
     }
 
     public WorkingMode getCurrentMode() {
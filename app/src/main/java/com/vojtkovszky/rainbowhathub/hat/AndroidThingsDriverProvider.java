@@ -0,0 +1,373 @@
+package com.vojtkovszky.rainbowhathub.hat;
+
+import com.google.android.things.contrib.driver.bmx280.Bmx280;
+import com.google.android.things.contrib.driver.button.Button;
+import com.google.android.things.contrib.driver.pwmservo.Servo;
+import com.google.android.things.contrib.driver.pwmspeaker.Speaker;
+import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.I2cDevice;
+import com.google.android.things.pio.PeripheralManagerService;
+import com.google.android.things.pio.SpiDevice;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatButton;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatDisplay;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatLed;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatLedStrip;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSensor;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatServo;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSpeaker;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Provides the Android Things contrib drivers, talking to the real hardware.
+ */
+public class AndroidThingsDriverProvider implements DriverProvider {
+
+    public static final Button.LogicState BUTTON_LOGIC_STATE = Button.LogicState.PRESSED_WHEN_LOW;
+
+    @Override
+    public HatDisplay openDisplay(String i2cBus) throws IOException {
+        PeripheralManagerService pioService = new PeripheralManagerService();
+        I2cDevice device = pioService.openI2cDevice(i2cBus, Display.ADDRESS);
+        try {
+            return new Display(device);
+        }
+        catch (IOException e) {
+            device.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public HatLedStrip openLedStrip(String spiBus, int spiFrequencyHz, int length) throws IOException {
+        PeripheralManagerService pioService = new PeripheralManagerService();
+        SpiDevice device = pioService.openSpiDevice(spiBus);
+        try {
+            device.setMode(SpiDevice.MODE2);
+            device.setFrequency(spiFrequencyHz);
+            device.setBitsPerWord(8);
+            device.setBitJustification(false);
+        }
+        catch (IOException e) {
+            device.close();
+            throw e;
+        }
+        return new LedStrip(device, length);
+    }
+
+    @Override
+    public HatSensor openSensor(String i2cBus) throws IOException {
+        return new Sensor(new Bmx280(i2cBus));
+    }
+
+    @Override
+    public HatLed openLed(String pin) throws IOException {
+        PeripheralManagerService pioService = new PeripheralManagerService();
+        Gpio ledGpio = pioService.openGpio(pin);
+        ledGpio.setDirection(Gpio.DIRECTION_OUT_INITIALLY_LOW);
+        return new Led(ledGpio);
+    }
+
+    @Override
+    public HatButton openButton(String pin) throws IOException {
+        return new PushButton(new Button(pin, BUTTON_LOGIC_STATE));
+    }
+
+    @Override
+    public HatSpeaker openSpeaker(String pwm) throws IOException {
+        return new Piezo(new Speaker(pwm));
+    }
+
+    @Override
+    public HatServo openServo(String pwm) throws IOException {
+        return new ServoMotor(new Servo(pwm));
+    }
+
+    /**
+     * HT16K33 written over I2C directly, as the contrib driver has no blink rate and encodes
+     * every digit from characters. Each digit is a 16 bit word in display RAM.
+     */
+    private static class Display implements HatDisplay {
+        private static final int ADDRESS = 0x70;
+        private static final int COMMAND_OSCILLATOR_ON = 0x21;
+        private static final int COMMAND_DISPLAY_SETUP = 0x80;
+        private static final int COMMAND_DIMMING = 0xE0;
+        private static final int MAX_DIMMING = 15;
+
+        private final I2cDevice device;
+        private final byte[] command = new byte[1];
+        private final byte[] blankDigits = new byte[2 * DIGITS];
+        private boolean enabled = false;
+        private int blinkRate = BLINK_OFF;
+
+        Display(I2cDevice device) throws IOException {
+            this.device = device;
+            writeCommand(COMMAND_OSCILLATOR_ON);
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) throws IOException {
+            writeCommand(COMMAND_DISPLAY_SETUP | (blinkRate << 1) | (enabled ? 1 : 0));
+            this.enabled = enabled;
+        }
+
+        @Override
+        public void setBrightness(float brightness) throws IOException {
+            int dimming = Math.round(Math.max(0, Math.min(1, brightness)) * MAX_DIMMING);
+            writeCommand(COMMAND_DIMMING | dimming);
+        }
+
+        @Override
+        public void setBlinkRate(int blinkRate) throws IOException {
+            if (blinkRate < BLINK_OFF || blinkRate > BLINK_HALF_HZ)
+                throw new IllegalArgumentException("Blink rate out of range: " + blinkRate);
+            this.blinkRate = blinkRate;
+            setEnabled(enabled);
+        }
+
+        @Override
+        public void clear() throws IOException {
+            device.writeRegBuffer(0, blankDigits, blankDigits.length);
+        }
+
+        @Override
+        public void display(String text) throws IOException {
+            for (int i = 0; i < DIGITS; i++)
+                display(i < text.length() ? text.charAt(i) : ' ', i, false);
+        }
+
+        @Override
+        public void display(char c, int index, boolean dot) throws IOException {
+            writeSegments(index, SegmentFont.glyph(c) | (dot ? SegmentFont.DOT : 0));
+        }
+
+        @Override
+        public void writeSegments(int index, int segments) throws IOException {
+            device.writeRegWord(2 * index, (short) segments);
+        }
+
+        @Override
+        public void close() throws IOException {
+            device.close();
+        }
+
+        private void writeCommand(int value) throws IOException {
+            command[0] = (byte) value;
+            device.write(command, 1);
+        }
+    }
+
+    /**
+     * APA102 chain written over SPI directly, as the contrib driver is fixed to a 1 MHz clock.
+     * Frames are encoded into a buffer sized for the chain once, in the strip's BGR order.
+     */
+    private static class LedStrip implements HatLedStrip {
+        private final SpiDevice device;
+        private byte[] buffer;
+        private int brightness = MAX_BRIGHTNESS;
+
+        LedStrip(SpiDevice device, int length) {
+            this.device = device;
+            this.buffer = new byte[frameSize(length)];
+        }
+
+        /**
+         * Start frame, 32 bits per led and end frame clocking at least half a bit per led through.
+         */
+        private static int frameSize(int length) {
+            return 4 + 4 * length + Math.max(4, (length + 15) / 16);
+        }
+
+        @Override
+        public void setBrightness(int brightness) {
+            if (brightness < 0 || brightness > MAX_BRIGHTNESS)
+                throw new IllegalArgumentException("Brightness out of range: " + brightness);
+            this.brightness = brightness;
+        }
+
+        @Override
+        public int getBrightness() {
+            return brightness;
+        }
+
+        @Override
+        public void write(int[] colors) throws IOException {
+            int size = frameSize(colors.length);
+            if (buffer.length < size)
+                buffer = new byte[size];
+
+            byte header = (byte) (0xE0 | brightness);
+            int position = 4;
+            for (int color : colors) {
+                buffer[position++] = header;
+                buffer[position++] = (byte) color;
+                buffer[position++] = (byte) (color >> 8);
+                buffer[position++] = (byte) (color >> 16);
+            }
+            Arrays.fill(buffer, position, size, (byte) 0xFF);
+            device.write(buffer, size);
+        }
+
+        @Override
+        public void close() throws IOException {
+            device.close();
+        }
+    }
+
+    private static class Sensor implements HatSensor {
+        private final Bmx280 sensor;
+
+        Sensor(Bmx280 sensor) {
+            this.sensor = sensor;
+        }
+
+        @Override
+        public void setMode(int mode) throws IOException {
+            sensor.setMode(mode);
+        }
+
+        @Override
+        public void setTemperatureOversampling(int oversampling) throws IOException {
+            sensor.setTemperatureOversampling(oversampling);
+        }
+
+        @Override
+        public void setPressureOversampling(int oversampling) throws IOException {
+            sensor.setPressureOversampling(oversampling);
+        }
+
+        @Override
+        public float readTemperature() throws IOException {
+            return sensor.readTemperature();
+        }
+
+        @Override
+        public float readPressure() throws IOException {
+            return sensor.readPressure();
+        }
+
+        @Override
+        public void readTemperatureAndPressure(float[] values) throws IOException {
+            float[] read = sensor.readTemperatureAndPressure();
+            values[0] = read[0];
+            values[1] = read[1];
+        }
+
+        @Override
+        public void close() throws IOException {
+            sensor.close();
+        }
+    }
+
+    private static class Led implements HatLed {
+        private final Gpio gpio;
+
+        Led(Gpio gpio) {
+            this.gpio = gpio;
+        }
+
+        @Override
+        public void setValue(boolean value) throws IOException {
+            gpio.setValue(value);
+        }
+
+        @Override
+        public void close() throws IOException {
+            gpio.close();
+        }
+    }
+
+    private static class PushButton implements HatButton, Button.OnButtonEventListener {
+        private final Button button;
+        private volatile OnButtonEventListener listener;
+
+        PushButton(Button button) {
+            this.button = button;
+        }
+
+        @Override
+        public void setOnButtonEventListener(OnButtonEventListener listener) {
+            this.listener = listener;
+            button.setOnButtonEventListener(listener != null ? this : null);
+        }
+
+        @Override
+        public void setDebounceDelay(long delayMs) {
+            button.setDebounceDelay(delayMs);
+        }
+
+        @Override
+        public void onButtonEvent(Button button, boolean pressed) {
+            OnButtonEventListener listener = this.listener;
+            if (listener != null)
+                listener.onButtonEvent(this, pressed);
+        }
+
+        @Override
+        public void close() throws IOException {
+            button.close();
+        }
+    }
+
+    private static class Piezo implements HatSpeaker {
+        private final Speaker speaker;
+
+        Piezo(Speaker speaker) {
+            this.speaker = speaker;
+        }
+
+        @Override
+        public void play(double frequency) throws IOException {
+            speaker.play(frequency);
+        }
+
+        @Override
+        public void stop() throws IOException {
+            speaker.stop();
+        }
+
+        @Override
+        public void close() throws IOException {
+            speaker.close();
+        }
+    }
+
+    private static class ServoMotor implements HatServo {
+        private final Servo servo;
+
+        ServoMotor(Servo servo) {
+            this.servo = servo;
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) throws IOException {
+            servo.setEnabled(enabled);
+        }
+
+        @Override
+        public void setAngle(double angle) throws IOException {
+            servo.setAngle(angle);
+        }
+
+        @Override
+        public double getAngle() {
+            return servo.getAngle();
+        }
+
+        @Override
+        public double getMinimumAngle() {
+            return servo.getMinimumAngle();
+        }
+
+        @Override
+        public double getMaximumAngle() {
+            return servo.getMaximumAngle();
+        }
+
+        @Override
+        public void close() throws IOException {
+            servo.close();
+        }
+    }
+}
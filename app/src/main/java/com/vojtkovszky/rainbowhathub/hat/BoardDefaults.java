@@ -0,0 +1,21 @@
+package com.vojtkovszky.rainbowhathub.hat;
+
+/**
+ * Names of buses and pins the Rainbow HAT components are connected to on a given board,
+ * along with settings of the buses and of the led strip attached.
+ */
+public interface BoardDefaults {
+    String getI2cBus();
+    String getSpiBus();
+    String getPiezoPwm();
+    String getServoPwm();
+    String getButtonA();
+    String getButtonB();
+    String getButtonC();
+    String getLedR();
+    String getLedG();
+    String getLedB();
+    int getSpiFrequencyHz();
+    int getLedStripLength();
+    int getLedStripBrightness();
+}
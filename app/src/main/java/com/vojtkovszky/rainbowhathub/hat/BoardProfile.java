@@ -0,0 +1,126 @@
+package com.vojtkovszky.rainbowhathub.hat;
+
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatLedStrip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Immutable board profile, parsed from a properties file listing one profile per board.
+ *
+ * The file names its profiles in order of preference under the "profiles" key, each profile
+ * then being a set of keys prefixed by its name, see boards.properties next to this class.
+ */
+public final class BoardProfile implements BoardDefaults {
+
+    private static final String KEY_PROFILES = "profiles";
+    // a little over what an APA102 chain still takes reliably
+    private static final int MAX_SPI_FREQUENCY_HZ = 32000000;
+
+    private final String name;
+    private final String device;
+    private final String i2cBus;
+    private final String spiBus;
+    private final int spiFrequencyHz;
+    private final String piezoPwm;
+    private final String servoPwm;
+    private final String buttonA;
+    private final String buttonB;
+    private final String buttonC;
+    private final String ledR;
+    private final String ledG;
+    private final String ledB;
+    private final int ledStripLength;
+    private final int ledStripBrightness;
+
+    private BoardProfile(Properties properties, String name) {
+        this.name = name;
+        device = getString(properties, name, "device");
+        i2cBus = getString(properties, name, "i2c.bus");
+        spiBus = getString(properties, name, "spi.bus");
+        spiFrequencyHz = getInt(properties, name, "spi.frequency", 1, MAX_SPI_FREQUENCY_HZ);
+        piezoPwm = getString(properties, name, "pwm.piezo");
+        servoPwm = getString(properties, name, "pwm.servo");
+        buttonA = getString(properties, name, "button.a");
+        buttonB = getString(properties, name, "button.b");
+        buttonC = getString(properties, name, "button.c");
+        ledR = getString(properties, name, "led.r");
+        ledG = getString(properties, name, "led.g");
+        ledB = getString(properties, name, "led.b");
+        ledStripLength = getInt(properties, name, "ledstrip.length", 1, Short.MAX_VALUE);
+        ledStripBrightness = getInt(properties, name, "ledstrip.brightness", 0, HatLedStrip.MAX_BRIGHTNESS);
+    }
+
+    /**
+     * Parse all profiles of given file and pick the one for given device, falling back
+     * to the last one listed.
+     *
+     * @throws IllegalArgumentException if any listed profile is incomplete or malformed
+     */
+    public static BoardProfile load(InputStream input, String device) throws IOException {
+        Properties properties = new Properties();
+        properties.load(input);
+
+        String profiles = properties.getProperty(KEY_PROFILES, "").trim();
+        if (profiles.isEmpty())
+            throw new IllegalArgumentException("No board profiles listed");
+
+        BoardProfile selected = null;
+        for (String name : profiles.split("\\s*,\\s*")) {
+            // every listed profile is parsed, so a broken one shows on any board
+            BoardProfile profile = new BoardProfile(properties, name);
+            if (selected == null || !selected.device.equals(device))
+                selected = profile;
+        }
+        return selected;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDevice() {
+        return device;
+    }
+
+    public String getI2cBus() { return i2cBus;}
+    public String getSpiBus() { return spiBus;}
+    public String getPiezoPwm() { return piezoPwm;}
+    public String getServoPwm() { return servoPwm;}
+    public String getButtonA() { return buttonA;}
+    public String getButtonB() { return buttonB;}
+    public String getButtonC() { return buttonC;}
+    public String getLedR() { return ledR;}
+    public String getLedG() { return ledG;}
+    public String getLedB() { return ledB;}
+    public int getSpiFrequencyHz() { return spiFrequencyHz;}
+    public int getLedStripLength() { return ledStripLength;}
+    public int getLedStripBrightness() { return ledStripBrightness;}
+
+    @Override
+    public String toString() {
+        return name + " (" + device + ")";
+    }
+
+    private static String getString(Properties properties, String profile, String key) {
+        String value = properties.getProperty(profile + "." + key);
+        if (value == null || value.trim().isEmpty())
+            throw new IllegalArgumentException("Board profile " + profile + " is missing " + key);
+        return value.trim();
+    }
+
+    private static int getInt(Properties properties, String profile, String key, int min, int max) {
+        String value = getString(properties, profile, key);
+        int parsed;
+        try {
+            parsed = Integer.parseInt(value);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Board profile " + profile + " has malformed " + key + ": " + value);
+        }
+        if (parsed < min || parsed > max)
+            throw new IllegalArgumentException("Board profile " + profile + " has " + key + " out of range: " + value);
+        return parsed;
+    }
+}
@@ -0,0 +1,142 @@
+package com.vojtkovszky.rainbowhathub.hat;
+
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Executes blocking peripheral I/O for a single bus on its own thread, keeping it off the main thread.
+ *
+ * Commands are taken from a bounded queue in submission order. Commands are meant to be reused:
+ * submitting a command which is still waiting in the queue doesn't queue it again, so a command
+ * reading its state when executed merges all updates superseded in the meantime.
+ */
+public class BusExecutor {
+
+    private static final String TAG = BusExecutor.class.getSimpleName();
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 32;
+
+    public enum Bus {
+        I2C,
+        SPI,
+        PWM,
+        GPIO
+    }
+
+    private final Bus bus;
+    private final Command[] queue;
+    private int queueHead = 0;
+    private int queueSize = 0;
+    private boolean running = true;
+    private final Thread thread;
+
+    public BusExecutor(Bus bus) {
+        this(bus, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public BusExecutor(Bus bus, int queueCapacity) {
+        this.bus = bus;
+        this.queue = new Command[queueCapacity];
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runLoop();
+            }
+        }, "hat-" + bus.name().toLowerCase());
+        this.thread.start();
+    }
+
+    public Bus getBus() {
+        return bus;
+    }
+
+    /**
+     * Queue command for execution. Command already waiting in the queue is merged.
+     *
+     * @return false if executor is shut down or queue is full and command was dropped
+     */
+    public boolean submit(Command command) {
+        synchronized (this) {
+            if (!running)
+                return false;
+
+            if (command.queued)
+                return true;
+
+            if (queueSize == queue.length) {
+                Log.w(TAG, bus + " queue full, dropping command");
+                return false;
+            }
+
+            queue[(queueHead + queueSize) % queue.length] = command;
+            queueSize++;
+            command.queued = true;
+            notify();
+            return true;
+        }
+    }
+
+    /**
+     * Stop accepting commands and wait for up to given time for the queued ones to finish.
+     */
+    public void shutdown(long timeoutMs) {
+        synchronized (this) {
+            running = false;
+            notify();
+        }
+
+        try {
+            thread.join(timeoutMs);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isExecutorThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    private void runLoop() {
+        while (true) {
+            Command command;
+            synchronized (this) {
+                try {
+                    while (queueSize == 0 && running)
+                        wait();
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+
+                if (queueSize == 0)
+                    return;
+
+                command = queue[queueHead];
+                queue[queueHead] = null;
+                queueHead = (queueHead + 1) % queue.length;
+                queueSize--;
+                // cleared before executing, so updates made while executing get queued again
+                command.queued = false;
+            }
+
+            try {
+                command.execute();
+            }
+            catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Error executing command on " + bus, e);
+            }
+        }
+    }
+
+    /**
+     * Unit of work for an executor. Instance should only ever be submitted to a single executor.
+     */
+    public static abstract class Command {
+        // guarded by the executor command is submitted to
+        private boolean queued = false;
+
+        protected abstract void execute() throws IOException;
+    }
+}
@@ -1,20 +1,23 @@
 package com.vojtkovszky.rainbowhathub.hat;
 
-import android.content.Context;
-import android.hardware.Sensor;
-import android.hardware.SensorManager;
 import android.util.Log;
 
-import com.google.android.things.contrib.driver.apa102.Apa102;
-import com.google.android.things.contrib.driver.bmx280.Bmx280SensorDriver;
-import com.google.android.things.contrib.driver.button.Button;
-import com.google.android.things.contrib.driver.ht16k33.AlphanumericDisplay;
-import com.google.android.things.contrib.driver.pwmservo.Servo;
-import com.google.android.things.contrib.driver.pwmspeaker.Speaker;
-import com.google.android.things.pio.Gpio;
-import com.vojtkovszky.rainbowhathub.MainActivity;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatButton;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatDisplay;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatLed;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatLedStrip;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSensor;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatServo;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSpeaker;
+import com.vojtkovszky.rainbowhathub.metrics.ComponentMetrics;
+import com.vojtkovszky.rainbowhathub.sensors.SensorSampler;
+import com.vojtkovszky.rainbowhathub.timing.TimerWheel;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by mvojtkovszky on 2017-05-25.
@@ -26,113 +29,322 @@ public class ComponentsManager {
 
     private static final String TAG = ComponentsManager.class.getSimpleName();
 
-    private SensorManager mSensorManager;
-
     public enum Component {
-        DISPLAY,
-        LED_STRIP,
-        SENSORS,
-        BUTTON_LED_BLUE,
-        BUTTON_LED_GREEN,
-        BUTTON_LED_RED,
-        BUTTON_A,
-        BUTTON_B,
-        BUTTON_C,
-        SPEAKER,
-        SERVO
-    }
-
-    private AlphanumericDisplay display;
-    private Apa102 ledStrip;
-    private Bmx280SensorDriver sensors;
-    private Gpio ledBlue;
-    private Gpio ledGreen;
-    private Gpio ledRed;
-    private Speaker speaker;
-    private Servo servo;
-    private Button buttonA;
-    private Button buttonB;
-    private Button buttonC;
-
-    public ComponentsManager(Context context) {
-        mSensorManager = context.getSystemService(SensorManager.class);
+        DISPLAY(BusExecutor.Bus.I2C),
+        LED_STRIP(BusExecutor.Bus.SPI),
+        SENSORS(BusExecutor.Bus.I2C),
+        BUTTON_LED_BLUE(BusExecutor.Bus.GPIO),
+        BUTTON_LED_GREEN(BusExecutor.Bus.GPIO),
+        BUTTON_LED_RED(BusExecutor.Bus.GPIO),
+        // buttons light their leds when pressed, so leds need to be ready first
+        BUTTON_A(BusExecutor.Bus.GPIO, BUTTON_LED_RED),
+        BUTTON_B(BusExecutor.Bus.GPIO, BUTTON_LED_GREEN),
+        BUTTON_C(BusExecutor.Bus.GPIO, BUTTON_LED_BLUE),
+        SPEAKER(BusExecutor.Bus.PWM),
+        SERVO(BusExecutor.Bus.PWM);
+
+        private final BusExecutor.Bus bus;
+        private final Component[] dependencies;
+
+        /**
+         * Dependencies can only be declared before the component itself, so the declaration
+         * order is always a valid initialization order.
+         */
+        Component(BusExecutor.Bus bus, Component... dependencies) {
+            this.bus = bus;
+            this.dependencies = dependencies;
+        }
+
+        public BusExecutor.Bus getBus() {
+            return bus;
+        }
+
+        public Component[] getDependencies() {
+            return dependencies.clone();
+        }
+    }
+
+    public enum ComponentState {
+        CLOSED,
+        OPEN
+    }
+
+    /**
+     * Ids of the buttons, as passed to {@link ButtonListener}.
+     */
+    public static final int BUTTON_ID_A = 0;
+    public static final int BUTTON_ID_B = 1;
+    public static final int BUTTON_ID_C = 2;
+    public static final int BUTTON_COUNT = 3;
+
+    private static final long EXECUTOR_SHUTDOWN_TIMEOUT_MS = 1000;
+    private static final long INIT_TIMEOUT_MS = 10000;
+    private static final long IDLE_CHECK_INTERVAL_MS = 1000;
+
+    private final BusExecutor[] executors = new BusExecutor[BusExecutor.Bus.values().length];
+    private final GpioValueCommand ledRedCommand = new GpioValueCommand(Component.BUTTON_LED_RED);
+    private final GpioValueCommand ledGreenCommand = new GpioValueCommand(Component.BUTTON_LED_GREEN);
+    private final GpioValueCommand ledBlueCommand = new GpioValueCommand(Component.BUTTON_LED_BLUE);
+    private final ComponentMetrics[] metrics = createMetrics();
+    // indexed by button id
+    private final ButtonDispatcher[] buttonDispatchers = {
+            new ButtonDispatcher(BUTTON_ID_A, Component.BUTTON_A),
+            new ButtonDispatcher(BUTTON_ID_B, Component.BUTTON_B),
+            new ButtonDispatcher(BUTTON_ID_C, Component.BUTTON_C)};
+
+    // opened and closed from bus executors
+    private volatile HatDisplay display;
+    private volatile HatLedStrip ledStrip;
+    private volatile HatSensor sensors;
+    private volatile HatLed ledBlue;
+    private volatile HatLed ledGreen;
+    private volatile HatLed ledRed;
+    private volatile HatSpeaker speaker;
+    private volatile HatServo servo;
+    private volatile HatButton buttonA;
+    private volatile HatButton buttonB;
+    private volatile HatButton buttonC;
+
+    private final long[] initDurationsNs = new long[Component.values().length];
+
+    private final Object stateLock = new Object();
+    private final ComponentState[] states = new ComponentState[Component.values().length];
+    private final long[] idleTimeoutsMs = new long[Component.values().length];
+    private final long[] lastUsedTimesMs = new long[Component.values().length];
+    private final CloseIdleCommand[] closeIdleCommands = new CloseIdleCommand[Component.values().length];
+    private boolean checkingIdle = false;
+
+    private final HealthSupervisor healthSupervisor;
+    private final SensorSampler sensorSampler;
+    private final TimerWheel timerWheel = new TimerWheel("hat-timer");
+    private final MetricsDumpTask metricsDumpTask = new MetricsDumpTask();
+    private final TimerWheel.Task idleCheckTask = new TimerWheel.Task() {
+        @Override
+        protected void run() {
+            closeIdleComponents();
+            timerWheel.schedule(this, IDLE_CHECK_INTERVAL_MS);
+        }
+    };
+    // negative keeps the driver's default
+    private volatile long buttonDebounceDelayMs = -1;
+
+    public ComponentsManager() {
+        for (BusExecutor.Bus bus : BusExecutor.Bus.values())
+            executors[bus.ordinal()] = new BusExecutor(bus);
+
+        // before anything registering its restorer
+        healthSupervisor = new HealthSupervisor(this, timerWheel);
+        healthSupervisor.setRestorer(Component.BUTTON_LED_RED, ledRedCommand);
+        healthSupervisor.setRestorer(Component.BUTTON_LED_GREEN, ledGreenCommand);
+        healthSupervisor.setRestorer(Component.BUTTON_LED_BLUE, ledBlueCommand);
+        sensorSampler = new SensorSampler(this);
+
+        for (Component component : Component.values()) {
+            states[component.ordinal()] = ComponentState.CLOSED;
+            closeIdleCommands[component.ordinal()] = new CloseIdleCommand(component);
+        }
     }
 
     //---------------------------
     // [BEGIN] Init components
     //---------------------------
+    /**
+     * Initialize all components, except for the lazy ones.
+     */
     public void initAll() {
-        initComponents(Component.values());
+        List<Component> components = new ArrayList<>();
+        synchronized (stateLock) {
+            for (Component component : Component.values()) {
+                if (idleTimeoutsMs[component.ordinal()] == 0)
+                    components.add(component);
+            }
+        }
+        initComponents(components.toArray(new Component[components.size()]));
     }
 
+    /**
+     * Initialize given components, returning once all of them are done.
+     *
+     * Components on different buses are initialized in parallel on their bus executors,
+     * each one starting once its dependencies are done. Buttons are opened on the calling thread,
+     * as button drivers deliver their events through a handler created on the opening thread.
+     */
     public void initComponents(Component... components) {
+        long startTimeNs = System.nanoTime();
+
+        final CountDownLatch[] initialized = new CountDownLatch[initDurationsNs.length];
         for (Component component : components)
+            initialized[component.ordinal()] = new CountDownLatch(1);
+
+        // declaration order is a valid init order, so no command waits on one queued behind it
+        for (Component component : Component.values()) {
+            if (initialized[component.ordinal()] != null && !opensOnCallerThread(component)) {
+                if (!getExecutor(component.getBus()).submit(new InitCommand(component, initialized))) {
+                    Log.e(TAG, "Unable to queue initialization of " + component);
+                    initialized[component.ordinal()].countDown();
+                }
+            }
+        }
+        for (Component component : Component.values()) {
+            if (initialized[component.ordinal()] != null && opensOnCallerThread(component))
+                initComponentAfterDependencies(component, initialized);
+        }
+
+        try {
+            for (CountDownLatch latch : initialized) {
+                if (latch != null && !latch.await(INIT_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+                    Log.e(TAG, "Timed out initializing components");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Log.d(TAG, getInitReport() + "Components ready in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTimeNs) + " ms");
+    }
+
+    /**
+     * @return how long the last initialization of given component took, in nanoseconds
+     */
+    public long getInitDurationNs(Component component) {
+        synchronized (initDurationsNs) {
+            return initDurationsNs[component.ordinal()];
+        }
+    }
+
+    /**
+     * @return report of the last initialization time of each component, one per line
+     */
+    public String getInitReport() {
+        StringBuilder report = new StringBuilder();
+        for (Component component : Component.values()) {
+            report.append(component).append(": ")
+                    .append(TimeUnit.NANOSECONDS.toMicros(getInitDurationNs(component)) / 1000f)
+                    .append(" ms\n");
+        }
+        return report.toString();
+    }
+
+    static boolean opensOnCallerThread(Component component) {
+        return component == Component.BUTTON_A
+                || component == Component.BUTTON_B
+                || component == Component.BUTTON_C;
+    }
+
+    private void initComponentAfterDependencies(Component component, CountDownLatch[] initialized) {
+        try {
+            for (Component dependency : component.dependencies) {
+                CountDownLatch latch = initialized[dependency.ordinal()];
+                if (latch != null && !latch.await(INIT_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+                    Log.w(TAG, "Timed out waiting for " + dependency + " to initialize " + component);
+            }
+
+            long startTimeNs = System.nanoTime();
             initComponent(component);
+            synchronized (initDurationsNs) {
+                initDurationsNs[component.ordinal()] = System.nanoTime() - startTimeNs;
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            initialized[component.ordinal()].countDown();
+        }
+    }
+
+    private class InitCommand extends BusExecutor.Command {
+        private final Component component;
+        private final CountDownLatch[] initialized;
+
+        InitCommand(Component component, CountDownLatch[] initialized) {
+            this.component = component;
+            this.initialized = initialized;
+        }
+
+        @Override
+        protected void execute() {
+            initComponentAfterDependencies(component, initialized);
+        }
     }
 
     private void initComponent(Component component) {
+        if (getState(component) == ComponentState.OPEN)
+            return;
+
         try {
             switch (component) {
                 case DISPLAY:
-                    display = DriverFactory.openDisplay();
+                    display = InstrumentedDrivers.wrap(DriverFactory.openDisplay(), getMetrics(component));
                     display.clear();
                     display.setEnabled(true);
                     break;
 
                 case LED_STRIP:
-                    ledStrip = DriverFactory.openLedStrip();
-                    ledStrip.write(new int[7]);
+                    ledStrip = InstrumentedDrivers.wrap(DriverFactory.openLedStrip(), getMetrics(component));
+                    ledStrip.write(new int[DriverFactory.getBoard().getLedStripLength()]);
                     ledStrip.setBrightness(0);
                     break;
 
                 case SENSORS:
-                    sensors = DriverFactory.createSensorDriver();
-                    // Register the drivers with the framework
-                    sensors.registerTemperatureSensor();
-                    sensors.registerPressureSensor();
+                    sensors = InstrumentedDrivers.wrap(DriverFactory.openSensor(), getMetrics(component));
+                    sensors.setTemperatureOversampling(HatSensor.OVERSAMPLING_1X);
+                    sensors.setPressureOversampling(HatSensor.OVERSAMPLING_1X);
+                    // woken up by the sampler once there's something to sample
+                    sensors.setMode(HatSensor.MODE_SLEEP);
                     break;
 
                 case BUTTON_LED_RED:
-                    ledRed = DriverFactory.openLedRed();
+                    ledRed = InstrumentedDrivers.wrap(DriverFactory.openLedRed(), getMetrics(component));
                     ledRed.setValue(false);
                     break;
 
                 case BUTTON_LED_GREEN:
-                    ledGreen = DriverFactory.openLedGreen();
+                    ledGreen = InstrumentedDrivers.wrap(DriverFactory.openLedGreen(), getMetrics(component));
                     ledGreen.setValue(false);
                     break;
 
                 case BUTTON_LED_BLUE:
-                    ledBlue = DriverFactory.openLedBlue();
+                    ledBlue = InstrumentedDrivers.wrap(DriverFactory.openLedBlue(), getMetrics(component));
                     ledBlue.setValue(false);
                     break;
 
                 case BUTTON_A:
-                    buttonA = DriverFactory.openButtonA();
+                    buttonA = setUpButton(DriverFactory.openButtonA(), BUTTON_ID_A);
                     break;
 
                 case BUTTON_B:
-                    buttonB = DriverFactory.openButtonB();
+                    buttonB = setUpButton(DriverFactory.openButtonB(), BUTTON_ID_B);
                     break;
 
                 case BUTTON_C:
-                    buttonC = DriverFactory.openButtonC();
+                    buttonC = setUpButton(DriverFactory.openButtonC(), BUTTON_ID_C);
                     break;
 
                 case SPEAKER:
-                    speaker = DriverFactory.openPiezo();
+                    speaker = InstrumentedDrivers.wrap(DriverFactory.openPiezo(), getMetrics(component));
                     break;
 
                 case SERVO:
-                    servo = DriverFactory.openServo();
+                    servo = InstrumentedDrivers.wrap(DriverFactory.openServo(), getMetrics(component));
                     break;
             }
+            setState(component, ComponentState.OPEN);
             Log.d(TAG, "Initialized " + component);
         }
         catch (IOException e) {
+            getMetrics(component).recordError();
             Log.e(TAG, "Error initializing component " + component, e);
         }
     }
+    private HatButton setUpButton(HatButton button, int buttonId) {
+        button.setOnButtonEventListener(buttonDispatchers[buttonId]);
+        long debounceDelayMs = buttonDebounceDelayMs;
+        if (debounceDelayMs >= 0)
+            button.setDebounceDelay(debounceDelayMs);
+        return button;
+    }
     //---------------------------
     // [END] Init components
     //---------------------------
@@ -141,7 +353,17 @@ public class ComponentsManager {
     //---------------------------
     // [BEGIN] Close components
     //---------------------------
+    /**
+     * Close all components, after letting the already queued I/O finish. I/O executors are
+     * stopped as well, so this manager can't be used afterwards.
+     */
     public void closeAll() {
+        sensorSampler.release();
+        timerWheel.shutdown();
+
+        for (BusExecutor executor : executors)
+            executor.shutdown(EXECUTOR_SHUTDOWN_TIMEOUT_MS);
+
         closeComponents(Component.values());
     }
 
@@ -155,17 +377,25 @@ public class ComponentsManager {
             switch (component) {
                 case DISPLAY:
                     if (display != null) {
-                        display.clear();
-                        display.setEnabled(false);
-                        display.close();
+                        try {
+                            display.clear();
+                            display.setEnabled(false);
+                        }
+                        finally {
+                            display.close();
+                        }
                     }
                     break;
 
                 case LED_STRIP:
                     if (ledStrip != null) {
-                        ledStrip.write(new int[7]);
-                        ledStrip.setBrightness(0);
-                        ledStrip.close();
+                        try {
+                            ledStrip.write(new int[DriverFactory.getBoard().getLedStripLength()]);
+                            ledStrip.setBrightness(0);
+                        }
+                        finally {
+                            ledStrip.close();
+                        }
                     }
                     break;
 
@@ -242,57 +472,193 @@ public class ComponentsManager {
                 case SPEAKER: speaker = null; break;
                 case SERVO: servo = null; break;
             }
+            setState(component, ComponentState.CLOSED);
         }
     }
+
+    /**
+     * Close given component and open it again, on its bus executor.
+     *
+     * @return true if component is open again
+     */
+    boolean reopenComponent(Component component) {
+        closeComponent(component);
+        initComponent(component);
+        return getState(component) == ComponentState.OPEN;
+    }
     //---------------------------
     // [END] Close components
     //---------------------------
 
 
+    //---------------------------
+    // [BEGIN] Lazy components
+    //---------------------------
+    /**
+     * Make given components lazy: they are not opened by {@link #initAll()}, but the first time
+     * they are retrieved through their getter, and are closed again once not retrieved for
+     * given idle time. Only output components can be lazy, inputs need to stay open to deliver
+     * their events. Lazy components can only be retrieved on their bus executor, where they are
+     * also closed, so they can't be closed while in use. Users should therefore always retrieve
+     * them through the getter within a command rather than keeping a reference.
+     */
+    public void setLazy(long idleTimeoutMs, Component... components) {
+        if (idleTimeoutMs <= 0)
+            throw new IllegalArgumentException("Idle timeout must be positive");
+
+        synchronized (stateLock) {
+            for (Component component : components) {
+                if (isInput(component))
+                    throw new IllegalArgumentException(component + " is an input and can't be lazy");
+
+                idleTimeoutsMs[component.ordinal()] = idleTimeoutMs;
+                lastUsedTimesMs[component.ordinal()] = currentTimeMs();
+            }
+
+            if (!checkingIdle) {
+                checkingIdle = true;
+                timerWheel.schedule(idleCheckTask, IDLE_CHECK_INTERVAL_MS);
+            }
+        }
+    }
+
+    public boolean isLazy(Component component) {
+        synchronized (stateLock) {
+            return idleTimeoutsMs[component.ordinal()] > 0;
+        }
+    }
+
+    public ComponentState getState(Component component) {
+        synchronized (stateLock) {
+            return states[component.ordinal()];
+        }
+    }
+
+    private void setState(Component component, ComponentState state) {
+        synchronized (stateLock) {
+            states[component.ordinal()] = state;
+        }
+    }
+
+    private static boolean isInput(Component component) {
+        return component == Component.SENSORS
+                || component == Component.BUTTON_A
+                || component == Component.BUTTON_B
+                || component == Component.BUTTON_C;
+    }
+
+    private static long currentTimeMs() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * Mark lazy component as used, opening it if closed. Lazy components have no dependencies,
+     * so are opened right away, on their bus executor which the caller has to be on.
+     */
+    private void acquire(Component component) {
+        synchronized (stateLock) {
+            if (idleTimeoutsMs[component.ordinal()] == 0)
+                return;
+
+            if (!getExecutor(component.getBus()).isExecutorThread())
+                throw new IllegalStateException(component + " is lazy and can only be used on its bus executor");
+
+            lastUsedTimesMs[component.ordinal()] = currentTimeMs();
+            if (states[component.ordinal()] == ComponentState.OPEN)
+                return;
+        }
+
+        initComponent(component);
+    }
+
+    private void closeIdleComponents() {
+        for (Component component : Component.values()) {
+            if (isIdle(component))
+                getExecutor(component.getBus()).submit(closeIdleCommands[component.ordinal()]);
+        }
+    }
+
+    private boolean isIdle(Component component) {
+        synchronized (stateLock) {
+            long idleTimeoutMs = idleTimeoutsMs[component.ordinal()];
+            return idleTimeoutMs > 0
+                    && states[component.ordinal()] == ComponentState.OPEN
+                    && currentTimeMs() - lastUsedTimesMs[component.ordinal()] >= idleTimeoutMs;
+        }
+    }
+
+    private class CloseIdleCommand extends BusExecutor.Command {
+        private final Component component;
+
+        CloseIdleCommand(Component component) {
+            this.component = component;
+        }
+
+        @Override
+        protected void execute() {
+            // might have been used since queued
+            if (isIdle(component))
+                closeComponent(component);
+        }
+    }
+    //---------------------------
+    // [END] Lazy components
+    //---------------------------
+
+
     //---------------------------
     // [BEGIN] Component getters
     //---------------------------
-    public AlphanumericDisplay getDisplay() {
+    // Drivers are closed and reopened on their bus executor, so should only be used there.
+    // Getters of lazy components throw anywhere else.
+    public HatDisplay getDisplay() {
+        acquire(Component.DISPLAY);
         return display;
     }
 
-    public Apa102 getLedstrip() {
+    public HatLedStrip getLedstrip() {
+        acquire(Component.LED_STRIP);
         return ledStrip;
     }
 
-    public Bmx280SensorDriver getSensors() {
+    public HatSensor getSensors() {
         return sensors;
     }
 
-    public Gpio getBlueLed() {
+    public HatLed getBlueLed() {
+        acquire(Component.BUTTON_LED_BLUE);
         return ledBlue;
     }
 
-    public Gpio getGreenLed() {
+    public HatLed getGreenLed() {
+        acquire(Component.BUTTON_LED_GREEN);
         return ledGreen;
     }
 
-    public Gpio getRedLed() {
+    public HatLed getRedLed() {
+        acquire(Component.BUTTON_LED_RED);
         return ledRed;
     }
 
-    public Speaker getSpeaker() {
+    public HatSpeaker getSpeaker() {
+        acquire(Component.SPEAKER);
         return speaker;
     }
 
-    public Servo getServo() {
+    public HatServo getServo() {
+        acquire(Component.SERVO);
         return servo;
     }
 
-    public Button getButtonA() {
+    public HatButton getButtonA() {
         return buttonA;
     }
 
-    public Button getButtonB() {
+    public HatButton getButtonB() {
         return buttonB;
     }
 
-    public Button getButtonC() {
+    public HatButton getButtonC() {
         return buttonC;
     }
     //---------------------------
@@ -300,29 +666,210 @@ public class ComponentsManager {
     //---------------------------
 
 
+    //---------------------------
+    // [BEGIN] Component I/O
+    //---------------------------
+    public BusExecutor getExecutor(BusExecutor.Bus bus) {
+        return executors[bus.ordinal()];
+    }
+
+    /**
+     * Set value of one of the button leds on the GPIO executor.
+     * Consecutive changes not yet written are merged to the latest value.
+     */
+    public void setLedValue(Component led, boolean value) {
+        GpioValueCommand command;
+        switch (led) {
+            case BUTTON_LED_RED: command = ledRedCommand; break;
+            case BUTTON_LED_GREEN: command = ledGreenCommand; break;
+            case BUTTON_LED_BLUE: command = ledBlueCommand; break;
+            default: throw new IllegalArgumentException(led + " is not a led");
+        }
+        command.value = value;
+        getExecutor(led.getBus()).submit(command);
+    }
+
+    private class GpioValueCommand extends BusExecutor.Command implements HealthSupervisor.Restorer {
+        private final Component led;
+        private volatile boolean value;
+
+        GpioValueCommand(Component led) {
+            this.led = led;
+        }
+
+        @Override
+        protected void execute() throws IOException {
+            HatLed hatLed;
+            switch (led) {
+                case BUTTON_LED_RED: hatLed = getRedLed(); break;
+                case BUTTON_LED_GREEN: hatLed = getGreenLed(); break;
+                default: hatLed = getBlueLed(); break;
+            }
+            if (hatLed != null)
+                hatLed.setValue(value);
+        }
+
+        @Override
+        public void restore() throws IOException {
+            execute();
+        }
+    }
+    //---------------------------
+    // [END] Component I/O
+    //---------------------------
+
+
+    //---------------------------
+    // [BEGIN] Component metrics
+    //---------------------------
+    public ComponentMetrics getMetrics(Component component) {
+        return metrics[component.ordinal()];
+    }
+
+    /**
+     * Supervisor reopening components which keep failing.
+     */
+    public HealthSupervisor getHealthSupervisor() {
+        return healthSupervisor;
+    }
+
+    /**
+     * Snapshot of metrics of all components, indexed by component ordinal.
+     */
+    public ComponentMetrics.Snapshot[] getMetricsSnapshot() {
+        ComponentMetrics.Snapshot[] snapshot = new ComponentMetrics.Snapshot[metrics.length];
+        for (int i = 0; i < metrics.length; i++)
+            snapshot[i] = metrics[i].snapshot();
+        return snapshot;
+    }
+
+    /**
+     * Periodically log metrics of all components which were used, with throughput
+     * since the previous dump. Interval of 0 stops dumping.
+     */
+    public void setMetricsDumpInterval(long intervalMs) {
+        synchronized (metricsDumpTask) {
+            metricsDumpTask.intervalMs = intervalMs;
+            if (intervalMs > 0)
+                timerWheel.schedule(metricsDumpTask, intervalMs);
+            else
+                timerWheel.cancel(metricsDumpTask);
+        }
+    }
+
+    private static ComponentMetrics[] createMetrics() {
+        ComponentMetrics[] metrics = new ComponentMetrics[Component.values().length];
+        for (Component component : Component.values())
+            metrics[component.ordinal()] = new ComponentMetrics(component.name());
+        return metrics;
+    }
+
+    private class MetricsDumpTask extends TimerWheel.Task {
+        private long intervalMs;
+        private ComponentMetrics.Snapshot[] previous;
+
+        @Override
+        protected void run() {
+            ComponentMetrics.Snapshot[] snapshot = getMetricsSnapshot();
+            for (int i = 0; i < snapshot.length; i++) {
+                if (snapshot[i].getOperationCount() > 0 || snapshot[i].getErrorCount() > 0)
+                    Log.i(TAG, snapshot[i].format(previous != null ? previous[i] : null));
+            }
+            previous = snapshot;
+
+            synchronized (this) {
+                if (intervalMs > 0)
+                    timerWheel.schedule(this, intervalMs);
+            }
+        }
+    }
+    //---------------------------
+    // [END] Component metrics
+    //---------------------------
+
+
     //---------------------------
     // [BEGIN] Component callbacks
     //---------------------------
-    public void registerSensors(MainActivity activity) {
-        // Register the BMP280 temperature sensor
-        Sensor temperature = mSensorManager.getDynamicSensorList(Sensor.TYPE_AMBIENT_TEMPERATURE).get(0);
-        mSensorManager.registerListener(activity, temperature,
-                SensorManager.SENSOR_DELAY_NORMAL);
+    public SensorSampler getSensorSampler() {
+        return sensorSampler;
+    }
+
+    /**
+     * Start sampling the sensors, delivering batches of samples to given listener.
+     */
+    public void registerSensors(SensorSampler.Listener listener) {
+        sensorSampler.start(listener);
+    }
+
+    public void unregisterSensors() {
+        sensorSampler.stop();
+    }
+
+    /**
+     * Timer shared by the hub for short timed work, such as gesture timeouts.
+     */
+    public TimerWheel getTimerWheel() {
+        return timerWheel;
+    }
 
-        // Register the BMP280 pressure sensor
-        Sensor pressure = mSensorManager.getDynamicSensorList(Sensor.TYPE_PRESSURE).get(0);
-        mSensorManager.registerListener(activity, pressure,
-                SensorManager.SENSOR_DELAY_NORMAL);
+    /**
+     * Set debounce delay of button drivers, applied to open buttons and the ones opened later.
+     * Set to 0 when debouncing is done by the listener, e.g. {@link com.vojtkovszky.rainbowhathub.input.GestureEngine}.
+     */
+    public void setButtonDebounceDelay(long delayMs) {
+        buttonDebounceDelayMs = delayMs;
+        HatButton[] buttons = {buttonA, buttonB, buttonC};
+        for (HatButton button : buttons) {
+            if (button != null)
+                button.setDebounceDelay(delayMs);
+        }
     }
 
-    public void unregisterSensors(MainActivity activity) {
-        mSensorManager.unregisterListener(activity);
+    /**
+     * Set listener of all the buttons.
+     */
+    public void setButtonListeners(ButtonListener listener) {
+        for (ButtonDispatcher dispatcher : buttonDispatchers)
+            dispatcher.listener = listener;
+    }
+
+    /**
+     * Set listener of a single button, one of BUTTON_ID constants.
+     */
+    public void setButtonListener(int buttonId, ButtonListener listener) {
+        buttonDispatchers[buttonId].listener = listener;
+    }
+
+    /**
+     * Attached to each button as it opens, so events are routed by the id it was created with
+     * instead of finding out which button fired on every event.
+     */
+    private class ButtonDispatcher implements HatButton.OnButtonEventListener {
+        private final int buttonId;
+        private final ComponentMetrics metrics;
+        private volatile ButtonListener listener;
+
+        ButtonDispatcher(int buttonId, Component button) {
+            this.buttonId = buttonId;
+            this.metrics = getMetrics(button);
+        }
+
+        @Override
+        public void onButtonEvent(HatButton button, boolean pressed) {
+            metrics.recordEvent();
+            ButtonListener listener = this.listener;
+            if (listener != null)
+                listener.onButtonEvent(buttonId, pressed);
+        }
     }
 
-    public void setButtonListeners(MainActivity activity) {
-        buttonA.setOnButtonEventListener(activity);
-        buttonB.setOnButtonEventListener(activity);
-        buttonC.setOnButtonEventListener(activity);
+    public interface ButtonListener {
+        /**
+         * @param buttonId one of BUTTON_ID constants
+         * @param pressed true if button was pressed, false if released
+         */
+        void onButtonEvent(int buttonId, boolean pressed);
     }
     //---------------------------
     // [END] Component callbacks
@@ -1,148 +1,133 @@
 package com.vojtkovszky.rainbowhathub.hat;
 
 import android.os.Build;
+import android.util.Log;
 
-import com.google.android.things.contrib.driver.apa102.Apa102;
-import com.google.android.things.contrib.driver.bmx280.Bmx280;
-import com.google.android.things.contrib.driver.bmx280.Bmx280SensorDriver;
-import com.google.android.things.contrib.driver.button.Button;
-import com.google.android.things.contrib.driver.button.ButtonInputDriver;
-import com.google.android.things.contrib.driver.ht16k33.AlphanumericDisplay;
-import com.google.android.things.contrib.driver.pwmservo.Servo;
-import com.google.android.things.contrib.driver.pwmspeaker.Speaker;
-import com.google.android.things.pio.Gpio;
-import com.google.android.things.pio.PeripheralManagerService;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatButton;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatDisplay;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatLed;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatLedStrip;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSensor;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatServo;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSpeaker;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Created by mvojtkovszky on 2017-05-25.
  *
  * Driver factory for the Rainbow Hat.
+ * Drivers are opened through a pluggable {@link DriverProvider}, using the Android Things
+ * drivers on the board we're running on, unless a different one is set.
+ * Buses and pins of the board are read from its {@link BoardProfile}.
  */
 @SuppressWarnings({"unused", "WeakerAccess"})
 public class DriverFactory {
 
-    public static final int DEFAULT_LEDSTRIP_BRIGHTNESS = 1;
+    private static final String TAG = DriverFactory.class.getSimpleName();
 
-    private interface BoardDefaults {
-        String getI2cBus();
-        String getSpiBus();
-        String getPiezoPwm();
-        String getServoPwm();
-        String getButtonA();
-        String getButtonB();
-        String getButtonC();
-        String getLedR();
-        String getLedG();
-        String getLedB();
-    }
-
-    private static final class Rpi3BoardDefaults implements BoardDefaults {
-        public String getI2cBus() { return "I2C1";}
-        public String getSpiBus() { return "SPI0.0";}
-        public String getPiezoPwm() { return "PWM1";}
-        public String getServoPwm() { return "PWM0";}
-        public String getButtonA() { return "BCM21";}
-        public String getButtonB() { return "BCM20";}
-        public String getButtonC() { return "BCM16";}
-        public String getLedR() { return "BCM6";}
-        public String getLedG() { return "BCM19";}
-        public String getLedB() { return "BCM26";}
-    }
-
-    private static final class Imx7BoardDefaults implements BoardDefaults {
-        public String getI2cBus() { return "I2C1";}
-        public String getSpiBus() { return "SPI3.1";}
-        public String getPiezoPwm() { return "PWM2";}
-        public String getServoPwm() { return "PWM1";}
-        public String getButtonA() { return "GPIO_174";}
-        public String getButtonB() { return "GPIO_175";}
-        public String getButtonC() { return "GPIO_39";}
-        public String getLedR() { return "GPIO_34";}
-        public String getLedG() { return "GPIO_32";}
-        public String getLedB() { return "GPIO_37";}
-    }
-
-    private static final BoardDefaults BOARD = Build.DEVICE.equals("rpi3") ?
-            new Rpi3BoardDefaults() : new Imx7BoardDefaults();
+    // board profiles bundled as a java resource next to this class
+    private static final String BOARD_PROFILES = "boards.properties";
 
-    public static final Button.LogicState BUTTON_LOGIC_STATE = Button.LogicState.PRESSED_WHEN_LOW;
+    private static DriverProvider provider;
+    private static BoardDefaults board;
 
-    public static final int LEDSTRIP_LENGTH = 7;
-
-    public static Bmx280 openSensor() throws IOException {
-        return new Bmx280(BOARD.getI2cBus());
+    /**
+     * Open all drivers from now on with given provider, on buses and pins of given board.
+     */
+    public static synchronized void setDriverProvider(DriverProvider driverProvider, BoardDefaults boardDefaults) {
+        provider = driverProvider;
+        board = boardDefaults;
     }
 
-    public static Bmx280SensorDriver createSensorDriver() throws IOException {
-        return new Bmx280SensorDriver(BOARD.getI2cBus());
+    public static synchronized DriverProvider getDriverProvider() {
+        if (provider == null)
+            provider = new AndroidThingsDriverProvider();
+        return provider;
     }
 
-    public static AlphanumericDisplay openDisplay() throws IOException {
-        return new AlphanumericDisplay(BOARD.getI2cBus());
+    public static synchronized BoardDefaults getBoard() {
+        if (board == null)
+            board = loadBoardProfile(Build.DEVICE);
+        return board;
     }
 
-    public static Speaker openPiezo() throws IOException {
-        return new Speaker(BOARD.getPiezoPwm());
-    }
+    /**
+     * Load bundled board profile for given device, the profiles being parsed just once at startup.
+     */
+    public static BoardProfile loadBoardProfile(String device) {
+        InputStream input = DriverFactory.class.getResourceAsStream(BOARD_PROFILES);
+        if (input == null)
+            throw new IllegalStateException("Board profiles " + BOARD_PROFILES + " not bundled");
 
-    public static Servo openServo() throws IOException {
-        return new Servo(BOARD.getServoPwm());
+        try {
+            BoardProfile profile = BoardProfile.load(input, device);
+            Log.i(TAG, "Using board profile " + profile);
+            return profile;
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Board profiles " + BOARD_PROFILES + " unreadable", e);
+        }
+        finally {
+            try {
+                input.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
     }
 
-    public static Button openButtonA() throws IOException {
-        return openButton(BOARD.getButtonA());
+    public static HatSensor openSensor() throws IOException {
+        return getDriverProvider().openSensor(getBoard().getI2cBus());
     }
 
-    public static Button openButtonB() throws IOException {
-        return openButton(BOARD.getButtonB());
+    public static HatDisplay openDisplay() throws IOException {
+        return getDriverProvider().openDisplay(getBoard().getI2cBus());
     }
 
-    public static Button openButtonC() throws IOException {
-        return openButton(BOARD.getButtonC());
+    public static HatSpeaker openPiezo() throws IOException {
+        return getDriverProvider().openSpeaker(getBoard().getPiezoPwm());
     }
 
-    public static Button openButton(String pin) throws IOException {
-        return new Button(pin, BUTTON_LOGIC_STATE);
+    public static HatServo openServo() throws IOException {
+        return getDriverProvider().openServo(getBoard().getServoPwm());
     }
 
-    public static ButtonInputDriver createButtonAInputDriver(int keycode) throws IOException {
-        return createButtonInputDriver(BOARD.getButtonA(), keycode);
+    public static HatButton openButtonA() throws IOException {
+        return openButton(getBoard().getButtonA());
     }
 
-    public static ButtonInputDriver createButtonBInputDriver(int keycode) throws IOException {
-        return createButtonInputDriver(BOARD.getButtonB(), keycode);
+    public static HatButton openButtonB() throws IOException {
+        return openButton(getBoard().getButtonB());
     }
 
-    public static ButtonInputDriver createButtonCInputDriver(int keycode) throws IOException {
-        return createButtonInputDriver(BOARD.getButtonC(), keycode);
+    public static HatButton openButtonC() throws IOException {
+        return openButton(getBoard().getButtonC());
     }
 
-    public static ButtonInputDriver createButtonInputDriver(String pin, int keycode) throws IOException {
-        return new ButtonInputDriver(pin, BUTTON_LOGIC_STATE, keycode);
+    public static HatButton openButton(String pin) throws IOException {
+        return getDriverProvider().openButton(pin);
     }
 
-    public static Gpio openLedRed() throws IOException {
-        return openLed(BOARD.getLedR());
+    public static HatLed openLedRed() throws IOException {
+        return openLed(getBoard().getLedR());
     }
 
-    public static Gpio openLedGreen() throws IOException {
-        return openLed(BOARD.getLedG());
+    public static HatLed openLedGreen() throws IOException {
+        return openLed(getBoard().getLedG());
     }
 
-    public static Gpio openLedBlue() throws IOException {
-        return openLed(BOARD.getLedB());
+    public static HatLed openLedBlue() throws IOException {
+        return openLed(getBoard().getLedB());
     }
 
-    public static Gpio openLed(String pin) throws IOException {
-        PeripheralManagerService pioService = new PeripheralManagerService();
-        Gpio ledGpio = pioService.openGpio(pin);
-        ledGpio.setDirection(Gpio.DIRECTION_OUT_INITIALLY_LOW);
-        return ledGpio;
+    public static HatLed openLed(String pin) throws IOException {
+        return getDriverProvider().openLed(pin);
     }
 
-    public static Apa102 openLedStrip() throws IOException {
-        return new Apa102(BOARD.getSpiBus(), Apa102.Mode.BGR);
+    public static HatLedStrip openLedStrip() throws IOException {
+        BoardDefaults board = getBoard();
+        return getDriverProvider().openLedStrip(board.getSpiBus(), board.getSpiFrequencyHz(), board.getLedStripLength());
     }
-}
\ No newline at end of file
+}
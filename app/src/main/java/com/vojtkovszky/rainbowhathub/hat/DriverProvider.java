@@ -0,0 +1,25 @@
+package com.vojtkovszky.rainbowhathub.hat;
+
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatButton;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatDisplay;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatLed;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatLedStrip;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSensor;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatServo;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSpeaker;
+
+import java.io.IOException;
+
+/**
+ * Opens the drivers of HAT's components on given buses and pins, as named by {@link BoardDefaults}.
+ * Buses are clocked as the board's profile sets them, where the driver allows to.
+ */
+public interface DriverProvider {
+    HatDisplay openDisplay(String i2cBus) throws IOException;
+    HatLedStrip openLedStrip(String spiBus, int spiFrequencyHz, int length) throws IOException;
+    HatSensor openSensor(String i2cBus) throws IOException;
+    HatLed openLed(String pin) throws IOException;
+    HatButton openButton(String pin) throws IOException;
+    HatSpeaker openSpeaker(String pwm) throws IOException;
+    HatServo openServo(String pwm) throws IOException;
+}
@@ -0,0 +1,234 @@
+package com.vojtkovszky.rainbowhathub.hat;
+
+import android.util.Log;
+
+import com.vojtkovszky.rainbowhathub.metrics.ComponentMetrics;
+import com.vojtkovszky.rainbowhathub.timing.TimerWheel;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recovers components whose I/O keeps failing, without restarting the rest of the hub.
+ *
+ * Every completed operation of a component is checked against its health: errors, and operations
+ * slower than the component's latency limit if it has one, count as failures. Once a component
+ * fails a number of times in a row, just that component is closed and opened again on its bus
+ * executor, after a jittered backoff doubling with each attempt. Once reopened, its
+ * {@link Restorer} writes the last known output state back, such as the led frame, display text
+ * or servo angle. Buttons are opened on the main thread, so they are not supervised.
+ */
+public class HealthSupervisor {
+
+    private static final String TAG = HealthSupervisor.class.getSimpleName();
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    public static final long DEFAULT_MIN_BACKOFF_MS = 10;
+    public static final long DEFAULT_MAX_BACKOFF_MS = 5000;
+
+    // component recovered at least this long ago starts over from the minimum backoff
+    private static final long BACKOFF_RESET_MS = 30000;
+
+    /**
+     * Writes the last known output state to a reopened component. Called on the component's
+     * bus executor, with the component open.
+     */
+    public interface Restorer {
+        void restore() throws IOException;
+    }
+
+    private final ComponentsManager componentsManager;
+    private final TimerWheel timerWheel;
+    private final Health[] health = new Health[ComponentsManager.Component.values().length];
+    private final Random random = new Random();
+
+    // guarded by this
+    private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private long minBackoffMs = DEFAULT_MIN_BACKOFF_MS;
+    private long maxBackoffMs = DEFAULT_MAX_BACKOFF_MS;
+
+    HealthSupervisor(ComponentsManager componentsManager, TimerWheel timerWheel) {
+        this.componentsManager = componentsManager;
+        this.timerWheel = timerWheel;
+        for (ComponentsManager.Component component : ComponentsManager.Component.values()) {
+            if (ComponentsManager.opensOnCallerThread(component))
+                continue;
+
+            health[component.ordinal()] = new Health(component);
+            componentsManager.getMetrics(component).setListener(health[component.ordinal()]);
+        }
+    }
+
+    /**
+     * Set number of consecutive failures after which a component is reopened.
+     */
+    public synchronized void setFailureThreshold(int failureThreshold) {
+        if (failureThreshold <= 0)
+            throw new IllegalArgumentException("Threshold must be positive");
+        this.failureThreshold = failureThreshold;
+    }
+
+    /**
+     * Set backoff before the first reopening attempt and the most it can grow to.
+     * Actual delays are randomized between half and all of the backoff.
+     */
+    public synchronized void setBackoff(long minBackoffMs, long maxBackoffMs) {
+        if (minBackoffMs <= 0 || maxBackoffMs < minBackoffMs)
+            throw new IllegalArgumentException("Invalid backoff range");
+        this.minBackoffMs = minBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    /**
+     * Count operations of given component taking longer than given limit as failures.
+     * Limit of 0 only counts errors.
+     */
+    public void setLatencyLimit(ComponentsManager.Component component, long limitUs) {
+        getHealth(component).latencyLimitNs = TimeUnit.MICROSECONDS.toNanos(limitUs);
+    }
+
+    /**
+     * Set what restores state of given component once it's reopened, replacing the previous one.
+     */
+    public void setRestorer(ComponentsManager.Component component, Restorer restorer) {
+        getHealth(component).restorer = restorer;
+    }
+
+    public int getConsecutiveFailures(ComponentsManager.Component component) {
+        return getHealth(component).consecutiveFailures.get();
+    }
+
+    public synchronized int getRecoveryCount(ComponentsManager.Component component) {
+        return getHealth(component).recoveryCount;
+    }
+
+    /**
+     * @return milliseconds from the component being found failing to its state being restored,
+     * the last time it recovered
+     */
+    public synchronized long getLastRecoveryTimeMs(ComponentsManager.Component component) {
+        return getHealth(component).lastRecoveryTimeMs;
+    }
+
+    private Health getHealth(ComponentsManager.Component component) {
+        Health componentHealth = health[component.ordinal()];
+        if (componentHealth == null)
+            throw new IllegalArgumentException(component + " is not supervised");
+        return componentHealth;
+    }
+
+    private void onFailure(Health componentHealth) {
+        int failures = componentHealth.consecutiveFailures.incrementAndGet();
+        synchronized (this) {
+            if (failures >= failureThreshold)
+                scheduleRecovery(componentHealth);
+        }
+    }
+
+    private synchronized void scheduleRecovery(Health componentHealth) {
+        if (componentHealth.recovering)
+            return;
+
+        long nowNs = System.nanoTime();
+        if (componentHealth.failingSinceNs == 0) {
+            componentHealth.failingSinceNs = nowNs;
+            if (nowNs - componentHealth.lastRecoveredNs >= TimeUnit.MILLISECONDS.toNanos(BACKOFF_RESET_MS))
+                componentHealth.attempts = 0;
+        }
+
+        long backoffMs = Math.min(maxBackoffMs, minBackoffMs << Math.min(componentHealth.attempts, 20));
+        // spread, so components failing together don't retry in lockstep
+        long delayMs = backoffMs / 2 + (long) (random.nextDouble() * (backoffMs - backoffMs / 2));
+        componentHealth.attempts++;
+        componentHealth.recovering = timerWheel.schedule(componentHealth.recoverTask, delayMs);
+        Log.w(TAG, componentHealth.component + " failing, reopening in " + delayMs + " ms");
+    }
+
+    /**
+     * Runs on the component's bus executor.
+     */
+    private void recover(Health componentHealth) {
+        ComponentsManager.Component component = componentHealth.component;
+        boolean recovered = false;
+        try {
+            if (componentsManager.reopenComponent(component)) {
+                Restorer restorer = componentHealth.restorer;
+                if (restorer != null)
+                    restorer.restore();
+                recovered = true;
+            }
+        }
+        catch (IOException e) {
+            Log.e(TAG, "Error restoring state of " + component, e);
+        }
+
+        synchronized (this) {
+            componentHealth.recovering = false;
+            if (!recovered) {
+                scheduleRecovery(componentHealth);
+                return;
+            }
+
+            long nowNs = System.nanoTime();
+            componentHealth.consecutiveFailures.set(0);
+            componentHealth.recoveryCount++;
+            componentHealth.lastRecoveryTimeMs = TimeUnit.NANOSECONDS.toMillis(nowNs - componentHealth.failingSinceNs);
+            componentHealth.lastRecoveredNs = nowNs;
+            componentHealth.failingSinceNs = 0;
+            Log.i(TAG, "Recovered " + component + " in " + componentHealth.lastRecoveryTimeMs + " ms");
+        }
+    }
+
+    private class Health implements ComponentMetrics.Listener {
+        private final ComponentsManager.Component component;
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile long latencyLimitNs = 0;
+        private volatile Restorer restorer;
+
+        // guarded by supervisor
+        private boolean recovering = false;
+        private int attempts = 0;
+        private long failingSinceNs = 0;
+        private long lastRecoveredNs = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(BACKOFF_RESET_MS);
+        private int recoveryCount = 0;
+        private long lastRecoveryTimeMs = 0;
+
+        private final BusExecutor.Command recoverCommand = new BusExecutor.Command() {
+            @Override
+            protected void execute() {
+                recover(Health.this);
+            }
+        };
+        private final TimerWheel.Task recoverTask = new TimerWheel.Task() {
+            @Override
+            protected void run() {
+                if (!componentsManager.getExecutor(component.getBus()).submit(recoverCommand)) {
+                    synchronized (HealthSupervisor.this) {
+                        recovering = false;
+                        scheduleRecovery(Health.this);
+                    }
+                }
+            }
+        };
+
+        Health(ComponentsManager.Component component) {
+            this.component = component;
+        }
+
+        @Override
+        public void onOperation(long durationNs) {
+            long limitNs = latencyLimitNs;
+            if (limitNs > 0 && durationNs > limitNs)
+                onFailure(this);
+            else if (consecutiveFailures.get() != 0)
+                consecutiveFailures.set(0);
+        }
+
+        @Override
+        public void onError() {
+            onFailure(this);
+        }
+    }
+}
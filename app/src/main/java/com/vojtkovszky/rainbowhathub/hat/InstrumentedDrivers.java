@@ -0,0 +1,423 @@
+package com.vojtkovszky.rainbowhathub.hat;
+
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatDisplay;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatLed;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatLedStrip;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSensor;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatServo;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSpeaker;
+import com.vojtkovszky.rainbowhathub.metrics.ComponentMetrics;
+
+import java.io.IOException;
+
+/**
+ * Wrappers recording latency and errors of every bus operation of a driver into its
+ * component's {@link ComponentMetrics}. Calls without any I/O are passed through as they are.
+ *
+ * Each wrapper calls its driver directly, so wrapping adds no allocation to the per-frame
+ * paths, and recording is left to the shared {@link Instrumented} base.
+ */
+final class InstrumentedDrivers {
+
+    private InstrumentedDrivers() {}
+
+    static HatDisplay wrap(HatDisplay display, ComponentMetrics metrics) {
+        return new InstrumentedDisplay(display, metrics);
+    }
+
+    static HatLedStrip wrap(HatLedStrip ledStrip, ComponentMetrics metrics) {
+        return new InstrumentedLedStrip(ledStrip, metrics);
+    }
+
+    static HatSensor wrap(HatSensor sensor, ComponentMetrics metrics) {
+        return new InstrumentedSensor(sensor, metrics);
+    }
+
+    static HatLed wrap(HatLed led, ComponentMetrics metrics) {
+        return new InstrumentedLed(led, metrics);
+    }
+
+    static HatSpeaker wrap(HatSpeaker speaker, ComponentMetrics metrics) {
+        return new InstrumentedSpeaker(speaker, metrics);
+    }
+
+    static HatServo wrap(HatServo servo, ComponentMetrics metrics) {
+        return new InstrumentedServo(servo, metrics);
+    }
+
+    /**
+     * Records an operation started at given time, either once it completes or as an error.
+     */
+    private abstract static class Instrumented {
+        private final ComponentMetrics metrics;
+
+        Instrumented(ComponentMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        final void record(long startNs, boolean completed) {
+            if (completed)
+                metrics.recordOperation(System.nanoTime() - startNs);
+            else
+                metrics.recordError();
+        }
+    }
+
+    private static class InstrumentedDisplay extends Instrumented implements HatDisplay {
+        private final HatDisplay display;
+
+        InstrumentedDisplay(HatDisplay display, ComponentMetrics metrics) {
+            super(metrics);
+            this.display = display;
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) throws IOException {
+            long startNs = System.nanoTime();
+            boolean completed = false;
+            try {
+                display.setEnabled(enabled);
+                completed = true;
+            }
+            finally {
+                record(startNs, completed);
+            }
+        }
+
+        @Override
+        public void setBrightness(float brightness) throws IOException {
+            long startNs = System.nanoTime();
+            boolean completed = false;
+            try {
+                display.setBrightness(brightness);
+                completed = true;
+            }
+            finally {
+                record(startNs, completed);
+            }
+        }
+
+        @Override
+        public void setBlinkRate(int blinkRate) throws IOException {
+            long startNs = System.nanoTime();
+            boolean completed = false;
+            try {
+                display.setBlinkRate(blinkRate);
+                completed = true;
+            }
+            finally {
+                record(startNs, completed);
+            }
+        }
+
+        @Override
+        public void writeSegments(int index, int segments) throws IOException {
+            long startNs = System.nanoTime();
+            boolean completed = false;
+            try {
+                display.writeSegments(index, segments);
+                completed = true;
+            }
+            finally {
+                record(startNs, completed);
+            }
+        }
+
+        @Override
+        public void clear() throws IOException {
+            long startNs = System.nanoTime();
+            boolean completed = false;
+            try {
+                display.clear();
+                completed = true;
+            }
+            finally {
+                record(startNs, completed);
+            }
+        }
+
+        @Override
+        public void display(String text) throws IOException {
+            long startNs = System.nanoTime();
+            boolean completed = false;
+            try {
+                display.display(text);
+                completed = true;
+            }
+            finally {
+                record(startNs, completed);
+            }
+        }
+
+        @Override
+        public void display(char c, int index, boolean dot) throws IOException {
+            long startNs = System.nanoTime();
+            boolean completed = false;
+            try {
+                display.display(c, index, dot);
+                completed = true;
+            }
+            finally {
+                record(startNs, completed);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            display.close();
+        }
+    }
+
+    private static class InstrumentedLedStrip extends Instrumented implements HatLedStrip {
+        private final HatLedStrip ledStrip;
+
+        InstrumentedLedStrip(HatLedStrip ledStrip, ComponentMetrics metrics) {
+            super(metrics);
+            this.ledStrip = ledStrip;
+        }
+
+        @Override
+        public void setBrightness(int brightness) {
+            ledStrip.setBrightness(brightness);
+        }
+
+        @Override
+        public int getBrightness() {
+            return ledStrip.getBrightness();
+        }
+
+        @Override
+        public void write(int[] colors) throws IOException {
+            long startNs = System.nanoTime();
+            boolean completed = false;
+            try {
+                ledStrip.write(colors);
+                completed = true;
+            }
+            finally {
+                record(startNs, completed);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            ledStrip.close();
+        }
+    }
+
+    private static class InstrumentedSensor extends Instrumented implements HatSensor {
+        private final HatSensor sensor;
+
+        InstrumentedSensor(HatSensor sensor, ComponentMetrics metrics) {
+            super(metrics);
+            this.sensor = sensor;
+        }
+
+        @Override
+        public void setMode(int mode) throws IOException {
+            long startNs = System.nanoTime();
+            boolean completed = false;
+            try {
+                sensor.setMode(mode);
+                completed = true;
+            }
+            finally {
+                record(startNs, completed);
+            }
+        }
+
+        @Override
+        public void setTemperatureOversampling(int oversampling) throws IOException {
+            long startNs = System.nanoTime();
+            boolean completed = false;
+            try {
+                sensor.setTemperatureOversampling(oversampling);
+                completed = true;
+            }
+            finally {
+                record(startNs, completed);
+            }
+        }
+
+        @Override
+        public void setPressureOversampling(int oversampling) throws IOException {
+            long startNs = System.nanoTime();
+            boolean completed = false;
+            try {
+                sensor.setPressureOversampling(oversampling);
+                completed = true;
+            }
+            finally {
+                record(startNs, completed);
+            }
+        }
+
+        @Override
+        public float readTemperature() throws IOException {
+            long startNs = System.nanoTime();
+            boolean completed = false;
+            try {
+                float temperature = sensor.readTemperature();
+                completed = true;
+                return temperature;
+            }
+            finally {
+                record(startNs, completed);
+            }
+        }
+
+        @Override
+        public float readPressure() throws IOException {
+            long startNs = System.nanoTime();
+            boolean completed = false;
+            try {
+                float pressure = sensor.readPressure();
+                completed = true;
+                return pressure;
+            }
+            finally {
+                record(startNs, completed);
+            }
+        }
+
+        @Override
+        public void readTemperatureAndPressure(float[] values) throws IOException {
+            long startNs = System.nanoTime();
+            boolean completed = false;
+            try {
+                sensor.readTemperatureAndPressure(values);
+                completed = true;
+            }
+            finally {
+                record(startNs, completed);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            sensor.close();
+        }
+    }
+
+    private static class InstrumentedLed extends Instrumented implements HatLed {
+        private final HatLed led;
+
+        InstrumentedLed(HatLed led, ComponentMetrics metrics) {
+            super(metrics);
+            this.led = led;
+        }
+
+        @Override
+        public void setValue(boolean value) throws IOException {
+            long startNs = System.nanoTime();
+            boolean completed = false;
+            try {
+                led.setValue(value);
+                completed = true;
+            }
+            finally {
+                record(startNs, completed);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            led.close();
+        }
+    }
+
+    private static class InstrumentedSpeaker extends Instrumented implements HatSpeaker {
+        private final HatSpeaker speaker;
+
+        InstrumentedSpeaker(HatSpeaker speaker, ComponentMetrics metrics) {
+            super(metrics);
+            this.speaker = speaker;
+        }
+
+        @Override
+        public void play(double frequency) throws IOException {
+            long startNs = System.nanoTime();
+            boolean completed = false;
+            try {
+                speaker.play(frequency);
+                completed = true;
+            }
+            finally {
+                record(startNs, completed);
+            }
+        }
+
+        @Override
+        public void stop() throws IOException {
+            long startNs = System.nanoTime();
+            boolean completed = false;
+            try {
+                speaker.stop();
+                completed = true;
+            }
+            finally {
+                record(startNs, completed);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            speaker.close();
+        }
+    }
+
+    private static class InstrumentedServo extends Instrumented implements HatServo {
+        private final HatServo servo;
+
+        InstrumentedServo(HatServo servo, ComponentMetrics metrics) {
+            super(metrics);
+            this.servo = servo;
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) throws IOException {
+            long startNs = System.nanoTime();
+            boolean completed = false;
+            try {
+                servo.setEnabled(enabled);
+                completed = true;
+            }
+            finally {
+                record(startNs, completed);
+            }
+        }
+
+        @Override
+        public void setAngle(double angle) throws IOException {
+            long startNs = System.nanoTime();
+            boolean completed = false;
+            try {
+                servo.setAngle(angle);
+                completed = true;
+            }
+            finally {
+                record(startNs, completed);
+            }
+        }
+
+        @Override
+        public double getAngle() {
+            return servo.getAngle();
+        }
+
+        @Override
+        public double getMinimumAngle() {
+            return servo.getMinimumAngle();
+        }
+
+        @Override
+        public double getMaximumAngle() {
+            return servo.getMaximumAngle();
+        }
+
+        @Override
+        public void close() throws IOException {
+            servo.close();
+        }
+    }
+}
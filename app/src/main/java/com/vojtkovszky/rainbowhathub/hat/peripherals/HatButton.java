@@ -0,0 +1,17 @@
+package com.vojtkovszky.rainbowhathub.hat.peripherals;
+
+import java.io.Closeable;
+
+/**
+ * Capacitive button on a GPIO input.
+ */
+public interface HatButton extends Closeable {
+
+    void setOnButtonEventListener(OnButtonEventListener listener);
+
+    void setDebounceDelay(long delayMs);
+
+    interface OnButtonEventListener {
+        void onButtonEvent(HatButton button, boolean pressed);
+    }
+}
@@ -0,0 +1,43 @@
+package com.vojtkovszky.rainbowhathub.hat.peripherals;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 4 digit, 14 segment alphanumeric display driven by a HT16K33 over I2C.
+ */
+public interface HatDisplay extends Closeable {
+
+    int DIGITS = 4;
+
+    /**
+     * Hardware blink rates of the whole display.
+     */
+    int BLINK_OFF = 0;
+    int BLINK_2HZ = 1;
+    int BLINK_1HZ = 2;
+    int BLINK_HALF_HZ = 3;
+
+    void setEnabled(boolean enabled) throws IOException;
+
+    /**
+     * @param brightness from 0 to 1
+     */
+    void setBrightness(float brightness) throws IOException;
+
+    /**
+     * @param blinkRate one of the BLINK constants
+     */
+    void setBlinkRate(int blinkRate) throws IOException;
+
+    /**
+     * Write raw segments of a single digit, as encoded by {@link com.vojtkovszky.rainbowhathub.hat.SegmentFont}.
+     */
+    void writeSegments(int index, int segments) throws IOException;
+
+    void clear() throws IOException;
+
+    void display(String text) throws IOException;
+
+    void display(char c, int index, boolean dot) throws IOException;
+}
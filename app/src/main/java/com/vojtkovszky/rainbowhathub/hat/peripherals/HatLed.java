@@ -0,0 +1,12 @@
+package com.vojtkovszky.rainbowhathub.hat.peripherals;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Single led on a GPIO output.
+ */
+public interface HatLed extends Closeable {
+
+    void setValue(boolean value) throws IOException;
+}
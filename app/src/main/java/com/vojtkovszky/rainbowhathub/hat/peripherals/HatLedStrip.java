@@ -0,0 +1,21 @@
+package com.vojtkovszky.rainbowhathub.hat.peripherals;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Chain of APA102 leds driven over SPI.
+ */
+public interface HatLedStrip extends Closeable {
+
+    int MAX_BRIGHTNESS = 31;
+
+    /**
+     * Brightness is applied with the next {@link #write(int[])}.
+     */
+    void setBrightness(int brightness);
+
+    int getBrightness();
+
+    void write(int[] colors) throws IOException;
+}
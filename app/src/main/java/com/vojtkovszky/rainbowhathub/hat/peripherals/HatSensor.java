@@ -0,0 +1,44 @@
+package com.vojtkovszky.rainbowhathub.hat.peripherals;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * BMx280 temperature and pressure sensor on I2C. Constants match the ones of the BMx280 driver.
+ */
+public interface HatSensor extends Closeable {
+
+    int MODE_SLEEP = 0;
+    int MODE_FORCED = 1;
+    int MODE_NORMAL = 3;
+
+    int OVERSAMPLING_SKIPPED = 0;
+    int OVERSAMPLING_1X = 1;
+    int OVERSAMPLING_2X = 2;
+    int OVERSAMPLING_4X = 3;
+    int OVERSAMPLING_8X = 4;
+    int OVERSAMPLING_16X = 5;
+
+    void setMode(int mode) throws IOException;
+
+    void setTemperatureOversampling(int oversampling) throws IOException;
+
+    void setPressureOversampling(int oversampling) throws IOException;
+
+    /**
+     * @return temperature in degrees Celsius
+     */
+    float readTemperature() throws IOException;
+
+    /**
+     * @return pressure in hPa
+     */
+    float readPressure() throws IOException;
+
+    /**
+     * Read both values with a single bus transaction.
+     *
+     * @param values array to store temperature and pressure into, in that order
+     */
+    void readTemperatureAndPressure(float[] values) throws IOException;
+}
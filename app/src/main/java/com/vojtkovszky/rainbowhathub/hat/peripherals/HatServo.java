@@ -0,0 +1,20 @@
+package com.vojtkovszky.rainbowhathub.hat.peripherals;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Servo motor on a PWM output.
+ */
+public interface HatServo extends Closeable {
+
+    void setEnabled(boolean enabled) throws IOException;
+
+    void setAngle(double angle) throws IOException;
+
+    double getAngle();
+
+    double getMinimumAngle();
+
+    double getMaximumAngle();
+}
@@ -0,0 +1,14 @@
+package com.vojtkovszky.rainbowhathub.hat.peripherals;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Piezo speaker on a PWM output.
+ */
+public interface HatSpeaker extends Closeable {
+
+    void play(double frequency) throws IOException;
+
+    void stop() throws IOException;
+}
@@ -0,0 +1,24 @@
+package com.vojtkovszky.rainbowhathub.hat.simulated;
+
+import com.vojtkovszky.rainbowhathub.hat.BoardDefaults;
+
+/**
+ * Bus and pin names of the simulated HAT, with the Rainbow HAT's own strip of 7 leds.
+ */
+public class SimulatedBoardDefaults implements BoardDefaults {
+    public static final int LEDSTRIP_LENGTH = 7;
+
+    public String getI2cBus() { return "SIM_I2C";}
+    public String getSpiBus() { return "SIM_SPI";}
+    public String getPiezoPwm() { return "SIM_PWM_PIEZO";}
+    public String getServoPwm() { return "SIM_PWM_SERVO";}
+    public String getButtonA() { return "SIM_BUTTON_A";}
+    public String getButtonB() { return "SIM_BUTTON_B";}
+    public String getButtonC() { return "SIM_BUTTON_C";}
+    public String getLedR() { return "SIM_LED_R";}
+    public String getLedG() { return "SIM_LED_G";}
+    public String getLedB() { return "SIM_LED_B";}
+    public int getSpiFrequencyHz() { return 1000000;}
+    public int getLedStripLength() { return LEDSTRIP_LENGTH;}
+    public int getLedStripBrightness() { return 1;}
+}
@@ -0,0 +1,87 @@
+package com.vojtkovszky.rainbowhathub.hat.simulated;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Models the time a bus takes to execute an operation: a fixed cost per operation
+ * plus the time to clock out each byte transferred. The calling thread is held for that time.
+ */
+public class SimulatedBus {
+
+    // parking is too coarse for short delays, spin for those instead
+    private static final long MIN_PARK_NS = 50000;
+
+    private volatile long operationNs;
+    private volatile long byteNs;
+
+    private long operations = 0;
+    private long bytes = 0;
+    private int operationsToFail = 0;
+
+    public SimulatedBus(long operationNs, long byteNs) {
+        this.operationNs = operationNs;
+        this.byteNs = byteNs;
+    }
+
+    /**
+     * I2C at given clock, each byte taking 9 clocks with the ack bit.
+     */
+    public static SimulatedBus i2c(int clockHz) {
+        return new SimulatedBus(50000, 9L * 1000000000 / clockHz);
+    }
+
+    /**
+     * SPI at given clock.
+     */
+    public static SimulatedBus spi(int clockHz) {
+        return new SimulatedBus(10000, 8L * 1000000000 / clockHz);
+    }
+
+    public void setLatency(long operationNs, long byteNs) {
+        this.operationNs = operationNs;
+        this.byteNs = byteNs;
+    }
+
+    /**
+     * Make the next given number of operations fail, as if the bus glitched.
+     */
+    public synchronized void failNextOperations(int count) {
+        operationsToFail = count;
+    }
+
+    /**
+     * Hold calling thread for the duration of an operation transferring given number of bytes.
+     *
+     * @throws IOException if operation was set to fail
+     */
+    public void transfer(int byteCount) throws IOException {
+        synchronized (this) {
+            if (operationsToFail > 0) {
+                operationsToFail--;
+                throw new IOException("Simulated bus failure");
+            }
+            operations++;
+            bytes += byteCount;
+        }
+
+        long durationNs = operationNs + byteCount * byteNs;
+        if (durationNs <= 0)
+            return;
+
+        long deadlineNs = System.nanoTime() + durationNs;
+        if (durationNs >= MIN_PARK_NS)
+            LockSupport.parkNanos(durationNs - MIN_PARK_NS);
+        while (System.nanoTime() < deadlineNs) {
+            // spin out the rest
+        }
+    }
+
+    public synchronized long getOperationCount() {
+        return operations;
+    }
+
+    public synchronized long getByteCount() {
+        return bytes;
+    }
+}
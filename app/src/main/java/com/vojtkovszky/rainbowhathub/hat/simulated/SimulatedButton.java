@@ -0,0 +1,50 @@
+package com.vojtkovszky.rainbowhathub.hat.simulated;
+
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatButton;
+
+/**
+ * GPIO button pressed and released from code. Events are delivered on the calling thread.
+ */
+public class SimulatedButton implements HatButton {
+
+    private volatile OnButtonEventListener listener;
+    private volatile long debounceDelayMs;
+    private volatile boolean closed = false;
+
+    @Override
+    public void setOnButtonEventListener(OnButtonEventListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void setDebounceDelay(long delayMs) {
+        this.debounceDelayMs = delayMs;
+    }
+
+    public long getDebounceDelay() {
+        return debounceDelayMs;
+    }
+
+    public void press() {
+        dispatch(true);
+    }
+
+    public void release() {
+        dispatch(false);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void dispatch(boolean pressed) {
+        OnButtonEventListener listener = this.listener;
+        if (listener != null && !closed)
+            listener.onButtonEvent(this, pressed);
+    }
+}
@@ -0,0 +1,122 @@
+package com.vojtkovszky.rainbowhathub.hat.simulated;
+
+import com.vojtkovszky.rainbowhathub.hat.SegmentFont;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatDisplay;
+
+import java.io.IOException;
+
+/**
+ * In memory HT16K33 alphanumeric display. Each digit is written as its own I2C transaction.
+ */
+public class SimulatedDisplay implements HatDisplay {
+
+    private final SimulatedBus bus;
+
+    private final int[] segments = new int[DIGITS];
+    private boolean enabled = false;
+    private float brightness = 1;
+    private int blinkRate = BLINK_OFF;
+    private long digitWriteCount = 0;
+    private boolean closed = false;
+
+    public SimulatedDisplay(SimulatedBus bus) {
+        this.bus = bus;
+    }
+
+    @Override
+    public synchronized void setEnabled(boolean enabled) throws IOException {
+        checkOpen();
+        bus.transfer(1);
+        this.enabled = enabled;
+    }
+
+    @Override
+    public synchronized void setBrightness(float brightness) throws IOException {
+        checkOpen();
+        bus.transfer(1);
+        this.brightness = brightness;
+    }
+
+    @Override
+    public synchronized void setBlinkRate(int blinkRate) throws IOException {
+        checkOpen();
+        bus.transfer(1);
+        this.blinkRate = blinkRate;
+    }
+
+    @Override
+    public synchronized void clear() throws IOException {
+        for (int i = 0; i < DIGITS; i++)
+            writeSegments(i, SegmentFont.BLANK);
+    }
+
+    @Override
+    public synchronized void display(String text) throws IOException {
+        for (int i = 0; i < DIGITS; i++)
+            display(i < text.length() ? text.charAt(i) : ' ', i, false);
+    }
+
+    @Override
+    public synchronized void display(char c, int index, boolean dot) throws IOException {
+        writeSegments(index, SegmentFont.glyph(c) | (dot ? SegmentFont.DOT : 0));
+    }
+
+    @Override
+    public synchronized void writeSegments(int index, int segments) throws IOException {
+        checkOpen();
+        // register address and a 16 bit segment word
+        bus.transfer(3);
+        this.segments[index] = segments;
+        digitWriteCount++;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+    }
+
+    /**
+     * @return shown text, with a '.' following each digit with the dot lit
+     */
+    public synchronized String getText() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < DIGITS; i++) {
+            text.append(SegmentFont.decode(segments[i]));
+            if ((segments[i] & SegmentFont.DOT) != 0)
+                text.append('.');
+        }
+        return text.toString();
+    }
+
+    public synchronized int getSegments(int index) {
+        return segments[index];
+    }
+
+    /**
+     * @return number of single digit writes so far
+     */
+    public synchronized long getDigitWriteCount() {
+        return digitWriteCount;
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized float getBrightness() {
+        return brightness;
+    }
+
+    public synchronized int getBlinkRate() {
+        return blinkRate;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed)
+            throw new IOException("Display closed");
+    }
+}
@@ -0,0 +1,135 @@
+package com.vojtkovszky.rainbowhathub.hat.simulated;
+
+import com.vojtkovszky.rainbowhathub.hat.BusExecutor;
+import com.vojtkovszky.rainbowhathub.hat.DriverFactory;
+import com.vojtkovszky.rainbowhathub.hat.DriverProvider;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatButton;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatDisplay;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatLed;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatLedStrip;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSensor;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatServo;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSpeaker;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Provides in memory peripherals of a simulated HAT, so the hub can run on a plain JVM.
+ *
+ * Each operation holds the calling thread for the time modelled by the {@link SimulatedBus}
+ * of its bus, by default I2C at 100 kHz and SPI at 1 MHz. Peripherals last opened on each
+ * bus or pin can be retrieved to inspect their state or, for buttons, to press them.
+ */
+public class SimulatedDriverProvider implements DriverProvider {
+
+    private static final int I2C_CLOCK_HZ = 100000;
+    private static final int SPI_CLOCK_HZ = 1000000;
+    private static final long GPIO_OPERATION_NS = 5000;
+    private static final long PWM_OPERATION_NS = 20000;
+
+    private final SimulatedBus[] buses = new SimulatedBus[BusExecutor.Bus.values().length];
+    private final Map<String, Object> peripherals = new HashMap<>();
+
+    public SimulatedDriverProvider() {
+        buses[BusExecutor.Bus.I2C.ordinal()] = SimulatedBus.i2c(I2C_CLOCK_HZ);
+        buses[BusExecutor.Bus.SPI.ordinal()] = SimulatedBus.spi(SPI_CLOCK_HZ);
+        buses[BusExecutor.Bus.GPIO.ordinal()] = new SimulatedBus(GPIO_OPERATION_NS, 0);
+        buses[BusExecutor.Bus.PWM.ordinal()] = new SimulatedBus(PWM_OPERATION_NS, 0);
+    }
+
+    /**
+     * Create a provider simulating all operations as instant.
+     */
+    public static SimulatedDriverProvider withoutLatency() {
+        SimulatedDriverProvider provider = new SimulatedDriverProvider();
+        for (SimulatedBus bus : provider.buses)
+            bus.setLatency(0, 0);
+        return provider;
+    }
+
+    /**
+     * Open all drivers through a new simulated provider from now on.
+     */
+    public static SimulatedDriverProvider install() {
+        SimulatedDriverProvider provider = new SimulatedDriverProvider();
+        DriverFactory.setDriverProvider(provider, new SimulatedBoardDefaults());
+        return provider;
+    }
+
+    public SimulatedBus getBus(BusExecutor.Bus bus) {
+        return buses[bus.ordinal()];
+    }
+
+    @Override
+    public HatDisplay openDisplay(String i2cBus) {
+        return register("display:" + i2cBus, new SimulatedDisplay(getBus(BusExecutor.Bus.I2C)));
+    }
+
+    @Override
+    public HatLedStrip openLedStrip(String spiBus, int spiFrequencyHz, int length) {
+        return register("ledStrip:" + spiBus, new SimulatedLedStrip(getBus(BusExecutor.Bus.SPI), length));
+    }
+
+    @Override
+    public HatSensor openSensor(String i2cBus) {
+        return register("sensor:" + i2cBus, new SimulatedSensor(getBus(BusExecutor.Bus.I2C)));
+    }
+
+    @Override
+    public HatLed openLed(String pin) {
+        return register(pin, new SimulatedLed(getBus(BusExecutor.Bus.GPIO)));
+    }
+
+    @Override
+    public HatButton openButton(String pin) {
+        return register(pin, new SimulatedButton());
+    }
+
+    @Override
+    public HatSpeaker openSpeaker(String pwm) {
+        return register(pwm, new SimulatedSpeaker(getBus(BusExecutor.Bus.PWM)));
+    }
+
+    @Override
+    public HatServo openServo(String pwm) {
+        return register(pwm, new SimulatedServo(getBus(BusExecutor.Bus.PWM)));
+    }
+
+    public SimulatedDisplay getDisplay(String i2cBus) {
+        return get("display:" + i2cBus, SimulatedDisplay.class);
+    }
+
+    public SimulatedLedStrip getLedStrip(String spiBus) {
+        return get("ledStrip:" + spiBus, SimulatedLedStrip.class);
+    }
+
+    public SimulatedSensor getSensor(String i2cBus) {
+        return get("sensor:" + i2cBus, SimulatedSensor.class);
+    }
+
+    public SimulatedLed getLed(String pin) {
+        return get(pin, SimulatedLed.class);
+    }
+
+    public SimulatedButton getButton(String pin) {
+        return get(pin, SimulatedButton.class);
+    }
+
+    public SimulatedSpeaker getSpeaker(String pwm) {
+        return get(pwm, SimulatedSpeaker.class);
+    }
+
+    public SimulatedServo getServo(String pwm) {
+        return get(pwm, SimulatedServo.class);
+    }
+
+    private synchronized <T> T register(String name, T peripheral) {
+        peripherals.put(name, peripheral);
+        return peripheral;
+    }
+
+    private synchronized <T> T get(String name, Class<T> type) {
+        return type.cast(peripherals.get(name));
+    }
+}
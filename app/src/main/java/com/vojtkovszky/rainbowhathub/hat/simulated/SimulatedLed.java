@@ -0,0 +1,48 @@
+package com.vojtkovszky.rainbowhathub.hat.simulated;
+
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatLed;
+
+import java.io.IOException;
+
+/**
+ * In memory GPIO led.
+ */
+public class SimulatedLed implements HatLed {
+
+    private final SimulatedBus bus;
+
+    private boolean value = false;
+    private long writeCount = 0;
+    private boolean closed = false;
+
+    public SimulatedLed(SimulatedBus bus) {
+        this.bus = bus;
+    }
+
+    @Override
+    public synchronized void setValue(boolean value) throws IOException {
+        if (closed)
+            throw new IOException("Led closed");
+
+        bus.transfer(0);
+        this.value = value;
+        writeCount++;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+    }
+
+    public synchronized boolean getValue() {
+        return value;
+    }
+
+    public synchronized long getWriteCount() {
+        return writeCount;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+}
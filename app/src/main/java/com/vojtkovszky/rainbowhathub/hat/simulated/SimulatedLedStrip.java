@@ -0,0 +1,73 @@
+package com.vojtkovszky.rainbowhathub.hat.simulated;
+
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatLedStrip;
+
+import java.io.IOException;
+
+/**
+ * In memory APA102 led strip of given length.
+ */
+public class SimulatedLedStrip implements HatLedStrip {
+
+    private final SimulatedBus bus;
+
+    private final int[] colors;
+    private int brightness = MAX_BRIGHTNESS;
+    private int writtenBrightness = MAX_BRIGHTNESS;
+    private long writeCount = 0;
+    private boolean closed = false;
+
+    public SimulatedLedStrip(SimulatedBus bus, int length) {
+        this.bus = bus;
+        this.colors = new int[length];
+    }
+
+    @Override
+    public synchronized void setBrightness(int brightness) {
+        this.brightness = brightness;
+    }
+
+    @Override
+    public synchronized int getBrightness() {
+        return brightness;
+    }
+
+    @Override
+    public synchronized void write(int[] colors) throws IOException {
+        if (closed)
+            throw new IOException("Led strip closed");
+
+        // start frame, one 32 bit frame per led and end frame
+        bus.transfer(4 + 4 * colors.length + 4);
+        System.arraycopy(colors, 0, this.colors, 0, Math.min(colors.length, this.colors.length));
+        writtenBrightness = brightness;
+        writeCount++;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+    }
+
+    /**
+     * @return colors shown, as of the last write
+     */
+    public synchronized int[] getColors() {
+        return colors.clone();
+    }
+
+    /**
+     * @return brightness shown, as of the last write
+     */
+    public synchronized int getWrittenBrightness() {
+        return writtenBrightness;
+    }
+
+    public synchronized long getWriteCount() {
+        return writeCount;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+}
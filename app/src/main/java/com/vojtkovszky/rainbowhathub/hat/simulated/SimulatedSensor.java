@@ -0,0 +1,105 @@
+package com.vojtkovszky.rainbowhathub.hat.simulated;
+
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSensor;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * In memory BMx280 sensor, reading back set values with optional random noise.
+ */
+public class SimulatedSensor implements HatSensor {
+
+    private final SimulatedBus bus;
+    private final Random random = new Random(0);
+
+    private float temperature = 22.5f;
+    private float pressure = 1013.25f;
+    private float noise = 0;
+    private int mode = MODE_SLEEP;
+    private boolean closed = false;
+
+    public SimulatedSensor(SimulatedBus bus) {
+        this.bus = bus;
+    }
+
+    public synchronized void setValues(float temperature, float pressure) {
+        this.temperature = temperature;
+        this.pressure = pressure;
+    }
+
+    /**
+     * Add uniform random noise of given amplitude to each read value.
+     */
+    public synchronized void setNoise(float noise) {
+        this.noise = noise;
+    }
+
+    public synchronized int getMode() {
+        return mode;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized void setMode(int mode) throws IOException {
+        checkOpen();
+        // read-modify-write of the control register
+        bus.transfer(2);
+        bus.transfer(2);
+        this.mode = mode;
+    }
+
+    @Override
+    public synchronized void setTemperatureOversampling(int oversampling) throws IOException {
+        checkOpen();
+        bus.transfer(2);
+        bus.transfer(2);
+    }
+
+    @Override
+    public synchronized void setPressureOversampling(int oversampling) throws IOException {
+        checkOpen();
+        bus.transfer(2);
+        bus.transfer(2);
+    }
+
+    @Override
+    public synchronized float readTemperature() throws IOException {
+        checkOpen();
+        bus.transfer(4);
+        return temperature + nextNoise();
+    }
+
+    @Override
+    public synchronized float readPressure() throws IOException {
+        checkOpen();
+        // pressure compensation needs temperature as well
+        bus.transfer(7);
+        return pressure + nextNoise();
+    }
+
+    @Override
+    public synchronized void readTemperatureAndPressure(float[] values) throws IOException {
+        checkOpen();
+        bus.transfer(7);
+        values[0] = temperature + nextNoise();
+        values[1] = pressure + nextNoise();
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+    }
+
+    private float nextNoise() {
+        return noise == 0 ? 0 : (random.nextFloat() * 2 - 1) * noise;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed)
+            throw new IOException("Sensor closed");
+    }
+}
@@ -0,0 +1,77 @@
+package com.vojtkovszky.rainbowhathub.hat.simulated;
+
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatServo;
+
+import java.io.IOException;
+
+/**
+ * In memory PWM servo, with an angle range of 0 to 180 degrees.
+ */
+public class SimulatedServo implements HatServo {
+
+    private final SimulatedBus bus;
+
+    private double angle = 0;
+    private boolean enabled = false;
+    private long writeCount = 0;
+    private boolean closed = false;
+
+    public SimulatedServo(SimulatedBus bus) {
+        this.bus = bus;
+    }
+
+    @Override
+    public synchronized void setEnabled(boolean enabled) throws IOException {
+        checkOpen();
+        bus.transfer(0);
+        this.enabled = enabled;
+    }
+
+    @Override
+    public synchronized void setAngle(double angle) throws IOException {
+        checkOpen();
+        if (angle < getMinimumAngle() || angle > getMaximumAngle())
+            throw new IllegalArgumentException("Angle " + angle + " out of range");
+
+        bus.transfer(0);
+        this.angle = angle;
+        writeCount++;
+    }
+
+    @Override
+    public synchronized double getAngle() {
+        return angle;
+    }
+
+    @Override
+    public double getMinimumAngle() {
+        return 0;
+    }
+
+    @Override
+    public double getMaximumAngle() {
+        return 180;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized long getWriteCount() {
+        return writeCount;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed)
+            throw new IOException("Servo closed");
+    }
+}
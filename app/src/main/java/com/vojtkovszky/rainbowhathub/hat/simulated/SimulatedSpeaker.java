@@ -0,0 +1,67 @@
+package com.vojtkovszky.rainbowhathub.hat.simulated;
+
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSpeaker;
+
+import java.io.IOException;
+
+/**
+ * In memory PWM piezo speaker.
+ */
+public class SimulatedSpeaker implements HatSpeaker {
+
+    private final SimulatedBus bus;
+
+    private double frequency = 0;
+    private boolean playing = false;
+    private long playCount = 0;
+    private boolean closed = false;
+
+    public SimulatedSpeaker(SimulatedBus bus) {
+        this.bus = bus;
+    }
+
+    @Override
+    public synchronized void play(double frequency) throws IOException {
+        checkOpen();
+        // frequency, duty cycle and enable
+        bus.transfer(0);
+        bus.transfer(0);
+        bus.transfer(0);
+        this.frequency = frequency;
+        this.playing = true;
+        playCount++;
+    }
+
+    @Override
+    public synchronized void stop() throws IOException {
+        checkOpen();
+        bus.transfer(0);
+        playing = false;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+    }
+
+    public synchronized double getFrequency() {
+        return frequency;
+    }
+
+    public synchronized boolean isPlaying() {
+        return playing;
+    }
+
+    public synchronized long getPlayCount() {
+        return playCount;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed)
+            throw new IOException("Speaker closed");
+    }
+}
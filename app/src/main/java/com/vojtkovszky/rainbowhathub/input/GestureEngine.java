@@ -0,0 +1,279 @@
+package com.vojtkovszky.rainbowhathub.input;
+
+import com.vojtkovszky.rainbowhathub.hat.ComponentsManager;
+import com.vojtkovszky.rainbowhathub.timing.TimerWheel;
+
+/**
+ * Turns raw button edges into debounced gestures.
+ *
+ * Edges are debounced on the leading edge: the first edge changing the button state is accepted
+ * right away and further edges are ignored for the debounce delay, after which the button is
+ * settled to its last raw state. On top of that, each button reports taps, double taps and long
+ * presses, and two buttons pressed together report a chord instead. All timeouts are run on
+ * the {@link TimerWheel}, with a preallocated task per button and timeout.
+ *
+ * Gestures are delivered one at a time, either on the thread delivering button edges or on the
+ * timer thread, so listener should return quickly.
+ */
+public class GestureEngine implements ComponentsManager.ButtonListener {
+
+    public static final long DEFAULT_DEBOUNCE_DELAY_MS = 20;
+    public static final long DEFAULT_LONG_PRESS_MS = 600;
+    public static final long DEFAULT_DOUBLE_TAP_MS = 250;
+    public static final long DEFAULT_CHORD_WINDOW_MS = 150;
+
+    public enum Gesture {
+        /** Debounced press, delivered right away */
+        PRESS,
+        /** Debounced release, delivered right away */
+        RELEASE,
+        /** Short press and release, delivered once no second tap follows */
+        TAP,
+        DOUBLE_TAP,
+        /** Button held for the long press duration, delivered while still held */
+        LONG_PRESS,
+        /** Both chord buttons pressed together, delivered with the first chord button */
+        CHORD
+    }
+
+    private final TimerWheel timerWheel;
+    private final Button[] buttons = new Button[ComponentsManager.BUTTON_COUNT];
+
+    // guarded by this
+    private long debounceDelayMs = DEFAULT_DEBOUNCE_DELAY_MS;
+    private long longPressMs = DEFAULT_LONG_PRESS_MS;
+    private long doubleTapMs = DEFAULT_DOUBLE_TAP_MS;
+    private long chordWindowMs = DEFAULT_CHORD_WINDOW_MS;
+    private int chordFirstId = ComponentsManager.BUTTON_ID_A;
+    private int chordSecondId = ComponentsManager.BUTTON_ID_B;
+    private Listener listener;
+
+    public GestureEngine(TimerWheel timerWheel) {
+        this.timerWheel = timerWheel;
+        for (int i = 0; i < buttons.length; i++)
+            buttons[i] = new Button(i);
+    }
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized void setDebounceDelay(long delayMs) {
+        this.debounceDelayMs = delayMs;
+    }
+
+    public synchronized void setLongPressDuration(long durationMs) {
+        this.longPressMs = durationMs;
+    }
+
+    /**
+     * Set how long to wait for a second tap. With 0 double taps are not recognized and
+     * taps are delivered right away on release.
+     */
+    public synchronized void setDoubleTapTimeout(long timeoutMs) {
+        this.doubleTapMs = timeoutMs;
+    }
+
+    /**
+     * Set buttons forming a chord, pressed no further than given time apart.
+     */
+    public synchronized void setChord(int firstButtonId, int secondButtonId, long windowMs) {
+        if (firstButtonId == secondButtonId)
+            throw new IllegalArgumentException("Chord needs two different buttons");
+
+        this.chordFirstId = firstButtonId;
+        this.chordSecondId = secondButtonId;
+        this.chordWindowMs = windowMs;
+    }
+
+    /**
+     * @return longest time a gesture can be pending for after the last edge
+     */
+    public synchronized long getLongestTimeoutMs() {
+        return debounceDelayMs + Math.max(longPressMs, Math.max(doubleTapMs, chordWindowMs));
+    }
+
+    /**
+     * Drop all pending gestures, treating all buttons as released.
+     */
+    public synchronized void reset() {
+        for (Button button : buttons) {
+            timerWheel.cancel(button.settleTask);
+            timerWheel.cancel(button.longPressTask);
+            timerWheel.cancel(button.tapTask);
+            button.rawPressed = false;
+            button.pressed = false;
+            button.consumed = false;
+            button.tapPending = false;
+            button.secondTap = false;
+        }
+    }
+
+    @Override
+    public synchronized void onButtonEvent(int buttonId, boolean pressed) {
+        Button button = buttons[buttonId];
+        button.rawPressed = pressed;
+
+        if (button.settleTask.isScheduled())
+            return;
+
+        long nowMs = currentTimeMs();
+        if (nowMs - button.lastEdgeTimeMs < debounceDelayMs) {
+            timerWheel.schedule(button.settleTask, button.lastEdgeTimeMs + debounceDelayMs - nowMs);
+            return;
+        }
+
+        if (pressed != button.pressed)
+            acceptEdge(button, nowMs);
+    }
+
+    private void acceptEdge(Button button, long nowMs) {
+        button.pressed = button.rawPressed;
+        button.lastEdgeTimeMs = nowMs;
+
+        if (button.pressed)
+            onPressed(button, nowMs);
+        else
+            onReleased(button);
+    }
+
+    private void onPressed(Button button, long nowMs) {
+        button.pressTimeMs = nowMs;
+        dispatch(Gesture.PRESS, button.id);
+
+        if (button.tapPending) {
+            timerWheel.cancel(button.tapTask);
+            button.tapPending = false;
+            button.secondTap = true;
+        }
+
+        Button other = getChordPartner(button);
+        if (other != null && other.pressed && !other.consumed && nowMs - other.pressTimeMs <= chordWindowMs) {
+            consume(button);
+            consume(other);
+            dispatch(Gesture.CHORD, chordFirstId);
+            return;
+        }
+
+        timerWheel.schedule(button.longPressTask, longPressMs);
+    }
+
+    private void onReleased(Button button) {
+        dispatch(Gesture.RELEASE, button.id);
+        timerWheel.cancel(button.longPressTask);
+
+        if (button.consumed) {
+            button.consumed = false;
+            return;
+        }
+
+        if (button.secondTap) {
+            button.secondTap = false;
+            dispatch(Gesture.DOUBLE_TAP, button.id);
+        }
+        else if (doubleTapMs > 0) {
+            button.tapPending = true;
+            timerWheel.schedule(button.tapTask, doubleTapMs);
+        }
+        else {
+            dispatch(Gesture.TAP, button.id);
+        }
+    }
+
+    private void consume(Button button) {
+        timerWheel.cancel(button.longPressTask);
+        timerWheel.cancel(button.tapTask);
+        button.tapPending = false;
+        button.consumed = true;
+        button.secondTap = false;
+    }
+
+    private Button getChordPartner(Button button) {
+        if (button.id == chordFirstId)
+            return buttons[chordSecondId];
+        if (button.id == chordSecondId)
+            return buttons[chordFirstId];
+        return null;
+    }
+
+    private void dispatch(Gesture gesture, int buttonId) {
+        if (listener != null)
+            listener.onGesture(gesture, buttonId);
+    }
+
+    private synchronized void onSettleTimeout(Button button) {
+        if (button.rawPressed != button.pressed)
+            acceptEdge(button, currentTimeMs());
+    }
+
+    private synchronized void onLongPressTimeout(Button button) {
+        // timeout may be one of an earlier press, if it started firing just as button was released
+        if (!button.pressed || button.consumed || currentTimeMs() - button.pressTimeMs < longPressMs)
+            return;
+
+        // a long press started as a second tap still counts the first one
+        if (button.secondTap) {
+            button.secondTap = false;
+            dispatch(Gesture.TAP, button.id);
+        }
+        button.consumed = true;
+        dispatch(Gesture.LONG_PRESS, button.id);
+    }
+
+    private synchronized void onTapTimeout(Button button) {
+        if (!button.tapPending)
+            return;
+
+        button.tapPending = false;
+        dispatch(Gesture.TAP, button.id);
+    }
+
+    private static long currentTimeMs() {
+        return System.nanoTime() / 1000000;
+    }
+
+    private class Button {
+        final int id;
+        final TimerWheel.Task settleTask = new TimerWheel.Task() {
+            @Override
+            protected void run() {
+                onSettleTimeout(Button.this);
+            }
+        };
+        final TimerWheel.Task longPressTask = new TimerWheel.Task() {
+            @Override
+            protected void run() {
+                onLongPressTimeout(Button.this);
+            }
+        };
+        final TimerWheel.Task tapTask = new TimerWheel.Task() {
+            @Override
+            protected void run() {
+                onTapTimeout(Button.this);
+            }
+        };
+
+        boolean rawPressed = false;
+        boolean pressed = false;
+        long lastEdgeTimeMs = Long.MIN_VALUE / 2;
+        long pressTimeMs;
+        // already reported as part of a chord or long press, nothing more to report until released
+        boolean consumed = false;
+        // released after a tap, waiting for a second one
+        boolean tapPending = false;
+        // pressed again while waiting for a second tap
+        boolean secondTap = false;
+
+        Button(int id) {
+            this.id = id;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * @param gesture recognized gesture
+         * @param buttonId one of {@link ComponentsManager} BUTTON_ID constants
+         */
+        void onGesture(Gesture gesture, int buttonId);
+    }
+}
@@ -0,0 +1,126 @@
+package com.vojtkovszky.rainbowhathub.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * I/O metrics of a single component: latency of its operations, operation and error counts.
+ */
+public class ComponentMetrics {
+
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong operationCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private volatile Listener listener;
+
+    public ComponentMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get notified of every operation recorded, replacing the previous listener.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Record a successfully completed operation taking given time.
+     */
+    public void recordOperation(long durationNs) {
+        latency.record(durationNs);
+        operationCount.incrementAndGet();
+        Listener listener = this.listener;
+        if (listener != null)
+            listener.onOperation(durationNs);
+    }
+
+    /**
+     * Record an operation which completed with no I/O of its own, like a button event.
+     */
+    public void recordEvent() {
+        operationCount.incrementAndGet();
+    }
+
+    public void recordError() {
+        errorCount.incrementAndGet();
+        Listener listener = this.listener;
+        if (listener != null)
+            listener.onError();
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(name, System.nanoTime(), operationCount.get(), errorCount.get(), latency.snapshot());
+    }
+
+    /**
+     * Called on the thread which did the operation, so should return quickly.
+     */
+    public interface Listener {
+        void onOperation(long durationNs);
+
+        void onError();
+    }
+
+    public static class Snapshot {
+        private final String name;
+        private final long timestampNs;
+        private final long operationCount;
+        private final long errorCount;
+        private final LatencyHistogram.Snapshot latency;
+
+        Snapshot(String name, long timestampNs, long operationCount, long errorCount,
+                 LatencyHistogram.Snapshot latency) {
+            this.name = name;
+            this.timestampNs = timestampNs;
+            this.operationCount = operationCount;
+            this.errorCount = errorCount;
+            this.latency = latency;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getTimestampNs() {
+            return timestampNs;
+        }
+
+        public long getOperationCount() {
+            return operationCount;
+        }
+
+        public long getErrorCount() {
+            return errorCount;
+        }
+
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency;
+        }
+
+        /**
+         * Operations per second since given earlier snapshot of the same component.
+         */
+        public double getThroughput(Snapshot previous) {
+            long elapsedNs = timestampNs - previous.timestampNs;
+            if (elapsedNs <= 0)
+                return 0;
+            return (operationCount - previous.operationCount) * 1e9 / elapsedNs;
+        }
+
+        /**
+         * One line summary, with throughput since given earlier snapshot if there is one.
+         */
+        public String format(Snapshot previous) {
+            return String.format(Locale.US, "%s: ops=%d (%.1f/s) errors=%d latency us p50=%.1f p99=%.1f max=%.1f",
+                    name, operationCount, previous == null ? 0 : getThroughput(previous), errorCount,
+                    latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(99) / 1000.0,
+                    latency.getMaxNs() / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.vojtkovszky.rainbowhathub.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds, with log-linear buckets like HdrHistogram.
+ *
+ * Every power of two range is split into {@link #SUB_BUCKETS} linear buckets, so recorded values
+ * are kept with about 6% precision over the whole range of long, in a fixed amount of memory.
+ * Recording is a couple of atomic increments and never allocates, reading is done on a snapshot.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // values below SUB_BUCKETS map to themselves, then one group per remaining bit position
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalNs = new AtomicLong();
+    private final AtomicLong minNs = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxNs = new AtomicLong(0);
+
+    public void record(long valueNs) {
+        if (valueNs < 0)
+            valueNs = 0;
+
+        counts.incrementAndGet(bucketIndex(valueNs));
+        totalNs.addAndGet(valueNs);
+
+        long min = minNs.get();
+        while (valueNs < min && !minNs.compareAndSet(min, valueNs))
+            min = minNs.get();
+        long max = maxNs.get();
+        while (valueNs > max && !maxNs.compareAndSet(max, valueNs))
+            max = maxNs.get();
+    }
+
+    /**
+     * Copy of the current state. Recording concurrently with taking the snapshot may leave
+     * the totals off by the values being recorded.
+     */
+    public Snapshot snapshot() {
+        long[] snapshotCounts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshotCounts[i] = counts.get(i);
+            count += snapshotCounts[i];
+        }
+        return new Snapshot(snapshotCounts, count, totalNs.get(), minNs.get(), maxNs.get());
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int group = highestBit - SUB_BUCKET_BITS + 1;
+        int subBucket = (int) (value >>> (highestBit - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return group * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketLowestValue(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+
+        int group = index / SUB_BUCKETS;
+        int subBucket = index % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket) << (group - 1);
+    }
+
+    static long bucketWidth(int index) {
+        return index < SUB_BUCKETS ? 1 : 1L << (index / SUB_BUCKETS - 1);
+    }
+
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long totalNs;
+        private final long minNs;
+        private final long maxNs;
+
+        Snapshot(long[] counts, long count, long totalNs, long minNs, long maxNs) {
+            this.counts = counts;
+            this.count = count;
+            this.totalNs = totalNs;
+            this.minNs = count == 0 ? 0 : minNs;
+            this.maxNs = maxNs;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMinNs() {
+            return minNs;
+        }
+
+        public long getMaxNs() {
+            return maxNs;
+        }
+
+        public long getMeanNs() {
+            return count == 0 ? 0 : totalNs / count;
+        }
+
+        /**
+         * Value at given percentile, as the middle of the bucket it falls into.
+         *
+         * @param percentile from 0 to 100
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0)
+                return 0;
+            if (percentile >= 100)
+                return maxNs;
+
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    long value = bucketLowestValue(i) + bucketWidth(i) / 2;
+                    return Math.max(minNs, Math.min(maxNs, value));
+                }
+            }
+            return maxNs;
+        }
+    }
+}
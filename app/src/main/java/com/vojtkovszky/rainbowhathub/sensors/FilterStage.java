@@ -0,0 +1,85 @@
+package com.vojtkovszky.rainbowhathub.sensors;
+
+import com.vojtkovszky.rainbowhathub.filters.ValueFilter;
+
+/**
+ * Runs every new sample of a {@link SensorSampler} through a filter per channel, keeping track
+ * of whether the filtered value changed, so only meaningful changes need to go any further.
+ */
+public class FilterStage {
+
+    private final ValueFilter[] filters = new ValueFilter[SensorSampler.CHANNELS.length];
+    // guarded by this
+    private final long[] lastFilteredNs = new long[SensorSampler.CHANNELS.length];
+    private final float[] filteredValues = new float[SensorSampler.CHANNELS.length];
+    private final boolean[] hasFilteredValue = new boolean[SensorSampler.CHANNELS.length];
+    private final float[] values = new float[SensorSampler.CHANNELS.length];
+    private final boolean[] hasValue = new boolean[SensorSampler.CHANNELS.length];
+
+    public FilterStage(ValueFilter temperatureFilter, ValueFilter pressureFilter) {
+        filters[SensorSampler.Channel.TEMPERATURE.ordinal()] = temperatureFilter;
+        filters[SensorSampler.Channel.PRESSURE.ordinal()] = pressureFilter;
+    }
+
+    /**
+     * Filter channel's samples added since the last update, to be called from
+     * {@link SensorSampler.Listener}.
+     *
+     * @return true if filtered value of the channel changed
+     */
+    public synchronized boolean update(SensorSampler sampler, SensorSampler.Channel channel, int count) {
+        int index = channel.ordinal();
+        SampleRingBuffer history = sampler.getHistory(channel);
+        for (int age = Math.min(count, history.size()) - 1; age >= 0; age--) {
+            long timestampNs = history.getTimestampNs(age);
+            // channel might have been off, leaving older samples in the history
+            if (timestampNs <= lastFilteredNs[index])
+                continue;
+            filteredValues[index] = filters[index].filter(history.getValue(age));
+            hasFilteredValue[index] = true;
+            lastFilteredNs[index] = timestampNs;
+        }
+        return commit(index);
+    }
+
+    /**
+     * Filter a single sample, such as one replayed from a trace. Change is only checked for at the
+     * end of a batch, same as when updating from the sampler.
+     *
+     * @return true if filtered value of the channel changed
+     */
+    public synchronized boolean update(SensorSampler.Channel channel, float sample, boolean endOfBatch) {
+        int index = channel.ordinal();
+        filteredValues[index] = filters[index].filter(sample);
+        hasFilteredValue[index] = true;
+        return endOfBatch && commit(index);
+    }
+
+    private boolean commit(int index) {
+        if (!hasFilteredValue[index])
+            return false;
+        hasFilteredValue[index] = false;
+
+        float value = filteredValues[index];
+        if (hasValue[index] && value == values[index])
+            return false;
+        values[index] = value;
+        hasValue[index] = true;
+        return true;
+    }
+
+    public synchronized float getValue(SensorSampler.Channel channel) {
+        return values[channel.ordinal()];
+    }
+
+    /**
+     * Restart filtering from scratch, making the next update of every channel a change.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < filters.length; i++) {
+            filters[i].reset();
+            hasFilteredValue[i] = false;
+            hasValue[i] = false;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.vojtkovszky.rainbowhathub.sensors;
+
+/**
+ * Fixed size history of timestamped samples, backed by preallocated primitive arrays.
+ *
+ * Once full, each new sample replaces the oldest one. Minimum, maximum and mean of the samples
+ * currently held are available in constant time: mean from a running sum and minimum and maximum
+ * from monotonic queues of sample sequence numbers, updated as samples come and go.
+ */
+public class SampleRingBuffer {
+
+    private final float[] values;
+    private final long[] timestamps;
+    private final int capacity;
+
+    // sequence number of the next sample, sample n is stored at index n % capacity
+    private long nextSequence = 0;
+    private int size = 0;
+
+    private double sum = 0;
+    private int samplesSinceSumRecomputed = 0;
+
+    private final long[] minQueue;
+    private int minQueueHead = 0;
+    private int minQueueSize = 0;
+    private final long[] maxQueue;
+    private int maxQueueHead = 0;
+    private int maxQueueSize = 0;
+
+    public SampleRingBuffer(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive");
+
+        this.capacity = capacity;
+        this.values = new float[capacity];
+        this.timestamps = new long[capacity];
+        this.minQueue = new long[capacity];
+        this.maxQueue = new long[capacity];
+    }
+
+    public synchronized void add(long timestampNs, float value) {
+        if (size == capacity) {
+            long evictedSequence = nextSequence - capacity;
+            sum -= values[index(evictedSequence)];
+            if (minQueueSize > 0 && minQueue[minQueueHead] == evictedSequence) {
+                minQueueHead = (minQueueHead + 1) % capacity;
+                minQueueSize--;
+            }
+            if (maxQueueSize > 0 && maxQueue[maxQueueHead] == evictedSequence) {
+                maxQueueHead = (maxQueueHead + 1) % capacity;
+                maxQueueSize--;
+            }
+        }
+        else {
+            size++;
+        }
+
+        long sequence = nextSequence++;
+        values[index(sequence)] = value;
+        timestamps[index(sequence)] = timestampNs;
+        sum += value;
+
+        // drop queued samples which can no longer be the min/max while this one is held
+        while (minQueueSize > 0 && values[index(minQueue[(minQueueHead + minQueueSize - 1) % capacity])] >= value)
+            minQueueSize--;
+        minQueue[(minQueueHead + minQueueSize) % capacity] = sequence;
+        minQueueSize++;
+
+        while (maxQueueSize > 0 && values[index(maxQueue[(maxQueueHead + maxQueueSize - 1) % capacity])] <= value)
+            maxQueueSize--;
+        maxQueue[(maxQueueHead + maxQueueSize) % capacity] = sequence;
+        maxQueueSize++;
+
+        // running sum drifts with rounding errors, recompute it once per capacity samples
+        if (++samplesSinceSumRecomputed == capacity)
+            recomputeSum();
+    }
+
+    public synchronized void clear() {
+        size = 0;
+        sum = 0;
+        samplesSinceSumRecomputed = 0;
+        minQueueSize = 0;
+        maxQueueSize = 0;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return total number of samples ever added
+     */
+    public synchronized long getTotalCount() {
+        return nextSequence;
+    }
+
+    /**
+     * @param age 0 for the latest sample, up to {@link #size()} - 1 for the oldest one
+     */
+    public synchronized float getValue(int age) {
+        return values[index(sequenceOf(age))];
+    }
+
+    /**
+     * @param age 0 for the latest sample, up to {@link #size()} - 1 for the oldest one
+     */
+    public synchronized long getTimestampNs(int age) {
+        return timestamps[index(sequenceOf(age))];
+    }
+
+    public synchronized float getLatest() {
+        return getValue(0);
+    }
+
+    public synchronized float getMin() {
+        checkNotEmpty();
+        return values[index(minQueue[minQueueHead])];
+    }
+
+    public synchronized float getMax() {
+        checkNotEmpty();
+        return values[index(maxQueue[maxQueueHead])];
+    }
+
+    public synchronized float getMean() {
+        checkNotEmpty();
+        return (float) (sum / size);
+    }
+
+    private long sequenceOf(int age) {
+        if (age < 0 || age >= size)
+            throw new IndexOutOfBoundsException("Age " + age + " out of " + size + " samples");
+        return nextSequence - 1 - age;
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    private void checkNotEmpty() {
+        if (size == 0)
+            throw new IllegalStateException("No samples");
+    }
+
+    private void recomputeSum() {
+        sum = 0;
+        for (long sequence = nextSequence - size; sequence < nextSequence; sequence++)
+            sum += values[index(sequence)];
+        samplesSinceSumRecomputed = 0;
+    }
+}
@@ -0,0 +1,78 @@
+package com.vojtkovszky.rainbowhathub.sensors;
+
+import android.util.Log;
+
+import com.vojtkovszky.rainbowhathub.storage.TimeSeriesStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Records every sample of a {@link SensorSampler} into a {@link TimeSeriesStore} per channel,
+ * kept in given directory across restarts.
+ *
+ * Samples are timestamped with nanoTime and stored with wall clock time, converted by an offset
+ * taken once, so clock jitter doesn't reorder them. It's taken again only when the wall clock
+ * jumps, like when set over the network.
+ */
+public class SensorRecorder {
+
+    private static final String TAG = SensorRecorder.class.getSimpleName();
+
+    private static final long CLOCK_JUMP_THRESHOLD_MS = 1000;
+
+    private final TimeSeriesStore[] stores = new TimeSeriesStore[SensorSampler.CHANNELS.length];
+    // channels can be turned off and on, leaving older samples in the history
+    private final long[] lastRecordedNs = new long[SensorSampler.CHANNELS.length];
+    // only accessed from the sampler's thread after construction
+    private long offsetMs = getClockOffsetMs();
+
+    public SensorRecorder(File directory) throws IOException {
+        for (SensorSampler.Channel channel : SensorSampler.CHANNELS)
+            stores[channel.ordinal()] = new TimeSeriesStore(directory, channel.name().toLowerCase(Locale.US));
+    }
+
+    public TimeSeriesStore getStore(SensorSampler.Channel channel) {
+        return stores[channel.ordinal()];
+    }
+
+    /**
+     * Append latest batch of samples, to be called from {@link SensorSampler.Listener}.
+     */
+    public void onSamples(SensorSampler sampler, int count) {
+        long currentOffsetMs = getClockOffsetMs();
+        if (Math.abs(currentOffsetMs - offsetMs) > CLOCK_JUMP_THRESHOLD_MS) {
+            Log.i(TAG, "Wall clock jumped by " + (currentOffsetMs - offsetMs) + " ms");
+            offsetMs = currentOffsetMs;
+        }
+        try {
+            for (SensorSampler.Channel channel : SensorSampler.CHANNELS) {
+                if (!sampler.isChannelEnabled(channel))
+                    continue;
+
+                SampleRingBuffer history = sampler.getHistory(channel);
+                TimeSeriesStore store = stores[channel.ordinal()];
+                for (int age = Math.min(count, history.size()) - 1; age >= 0; age--) {
+                    long timestampNs = history.getTimestampNs(age);
+                    if (timestampNs <= lastRecordedNs[channel.ordinal()])
+                        continue;
+                    store.append(offsetMs + timestampNs / 1000000, history.getValue(age));
+                    lastRecordedNs[channel.ordinal()] = timestampNs;
+                }
+            }
+        }
+        catch (IOException e) {
+            Log.e(TAG, "Error recording samples", e);
+        }
+    }
+
+    private static long getClockOffsetMs() {
+        return System.currentTimeMillis() - System.nanoTime() / 1000000;
+    }
+
+    public void close() {
+        for (TimeSeriesStore store : stores)
+            store.close();
+    }
+}
@@ -0,0 +1,387 @@
+package com.vojtkovszky.rainbowhathub.sensors;
+
+import android.util.Log;
+
+import com.vojtkovszky.rainbowhathub.hat.BusExecutor;
+import com.vojtkovszky.rainbowhathub.hat.ComponentsManager;
+import com.vojtkovszky.rainbowhathub.hat.HealthSupervisor;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSensor;
+import com.vojtkovszky.rainbowhathub.timing.TimerWheel;
+
+import java.io.IOException;
+
+/**
+ * Samples the BMx280 sensor directly at a configurable rate and oversampling.
+ *
+ * Reads are timed by the hub's {@link TimerWheel} and done on the I2C executor, shared with
+ * the display, and stored in a {@link SampleRingBuffer} per channel. Listener is notified once
+ * per batch of samples rather than for every one of them, on the I2C executor thread.
+ *
+ * Only enabled channels are read, and the sensor is put to sleep whenever there's nothing to
+ * sample. At low rates the sensor is run in forced mode, converting only when asked to rather
+ * than continuously. Given a range of rates, sampling speeds up while values change faster than
+ * their channel's threshold and slows back down once they settle.
+ */
+public class SensorSampler {
+
+    private static final String TAG = SensorSampler.class.getSimpleName();
+
+    public static final int DEFAULT_HISTORY_SIZE = 256;
+    public static final float DEFAULT_SAMPLING_RATE_HZ = 10;
+    public static final int DEFAULT_BATCH_SIZE = 5;
+
+    /** Up to this rate the sensor only converts when asked to */
+    public static final float FORCED_MODE_MAX_RATE_HZ = 1;
+    // batches of settled values before halving the rate
+    private static final int SETTLED_BATCHES_TO_SLOW_DOWN = 10;
+
+    public enum Channel {
+        TEMPERATURE,
+        PRESSURE
+    }
+
+    public static final Channel[] CHANNELS = Channel.values();
+
+    private final ComponentsManager componentsManager;
+    private final BusExecutor i2cExecutor;
+    private final TimerWheel timerWheel;
+    private final TimerWheel.Task samplingTask = new TimerWheel.Task() {
+        @Override
+        protected void run() {
+            onSamplingTime();
+        }
+    };
+    private final ReadCommand readCommand = new ReadCommand();
+    private final ConfigureCommand configureCommand = new ConfigureCommand();
+
+    private final SampleRingBuffer[] histories = new SampleRingBuffer[CHANNELS.length];
+
+    private final Object lock = new Object();
+    private float minSamplingRateHz = DEFAULT_SAMPLING_RATE_HZ;
+    private float maxSamplingRateHz = DEFAULT_SAMPLING_RATE_HZ;
+    private float samplingRateHz = DEFAULT_SAMPLING_RATE_HZ;
+    private final float[] changeThresholds = new float[CHANNELS.length];
+    private final boolean[] enabledChannels = {true, true};
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int temperatureOversampling = HatSensor.OVERSAMPLING_1X;
+    private int pressureOversampling = HatSensor.OVERSAMPLING_1X;
+    private boolean started = false;
+    private Listener listener;
+    private long samplingPeriodNs;
+    private long nextSampleTimeNs;
+
+    // only accessed from the I2C executor
+    private int samplesInBatch = 0;
+    private int settledBatches = 0;
+    private boolean forcedMode = false;
+    private final float[] readValues = new float[2];
+
+    public SensorSampler(ComponentsManager componentsManager) {
+        this(componentsManager, DEFAULT_HISTORY_SIZE);
+    }
+
+    public SensorSampler(ComponentsManager componentsManager, int historySize) {
+        this.componentsManager = componentsManager;
+        this.i2cExecutor = componentsManager.getExecutor(BusExecutor.Bus.I2C);
+        this.timerWheel = componentsManager.getTimerWheel();
+        for (Channel channel : CHANNELS)
+            histories[channel.ordinal()] = new SampleRingBuffer(historySize);
+        componentsManager.getHealthSupervisor().setRestorer(ComponentsManager.Component.SENSORS, configureCommand);
+    }
+
+    /**
+     * Start sampling, notifying given listener once per batch of samples.
+     */
+    public void start(Listener listener) {
+        synchronized (lock) {
+            this.listener = listener;
+            started = true;
+            scheduleSampling();
+        }
+    }
+
+    /**
+     * Stop sampling and put the sensor to sleep.
+     */
+    public void stop() {
+        synchronized (lock) {
+            listener = null;
+            started = false;
+            scheduleSampling();
+        }
+    }
+
+    /**
+     * Stop sampling. Sampler can't be used afterwards.
+     */
+    public void release() {
+        stop();
+    }
+
+    /**
+     * Sample at a fixed rate.
+     */
+    public void setSamplingRate(float samplingRateHz) {
+        setSamplingRate(samplingRateHz, samplingRateHz);
+    }
+
+    /**
+     * Sample at the minimum rate while values are settled, doubling the rate up to the maximum
+     * one while they change faster than their channel's threshold.
+     *
+     * @see #setChangeThreshold(Channel, float)
+     */
+    public void setSamplingRate(float minSamplingRateHz, float maxSamplingRateHz) {
+        if (minSamplingRateHz <= 0 || maxSamplingRateHz < minSamplingRateHz)
+            throw new IllegalArgumentException("Sampling rates must be positive, minimum first");
+
+        synchronized (lock) {
+            this.minSamplingRateHz = minSamplingRateHz;
+            this.maxSamplingRateHz = maxSamplingRateHz;
+            this.samplingRateHz = minSamplingRateHz;
+            scheduleSampling();
+        }
+    }
+
+    /**
+     * @return current sampling rate, within the set range
+     */
+    public float getSamplingRate() {
+        synchronized (lock) {
+            return samplingRateHz;
+        }
+    }
+
+    /**
+     * Set rate of change per second of channel's values considered fast enough to sample faster.
+     * 0, the default, ignores changes of the channel.
+     */
+    public void setChangeThreshold(Channel channel, float changePerSecond) {
+        synchronized (lock) {
+            changeThresholds[channel.ordinal()] = changePerSecond;
+        }
+    }
+
+    /**
+     * Set which channels to sample, stopping the sensor if none. Temperature is still measured
+     * while only pressure is sampled, as it's needed to compensate the pressure.
+     */
+    public void setEnabledChannels(boolean temperature, boolean pressure) {
+        synchronized (lock) {
+            enabledChannels[Channel.TEMPERATURE.ordinal()] = temperature;
+            enabledChannels[Channel.PRESSURE.ordinal()] = pressure;
+            scheduleSampling();
+        }
+    }
+
+    public boolean isChannelEnabled(Channel channel) {
+        synchronized (lock) {
+            return enabledChannels[channel.ordinal()];
+        }
+    }
+
+    /**
+     * Set how many samples to collect before notifying the listener.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("Batch size must be positive");
+
+        synchronized (lock) {
+            this.batchSize = batchSize;
+        }
+    }
+
+    /**
+     * Set oversampling of each channel, one of {@link HatSensor} OVERSAMPLING constants.
+     */
+    public void setOversampling(int temperatureOversampling, int pressureOversampling) {
+        synchronized (lock) {
+            this.temperatureOversampling = temperatureOversampling;
+            this.pressureOversampling = pressureOversampling;
+        }
+        i2cExecutor.submit(configureCommand);
+    }
+
+    public SampleRingBuffer getHistory(Channel channel) {
+        return histories[channel.ordinal()];
+    }
+
+    private boolean isSampling() {
+        return started && (enabledChannels[Channel.TEMPERATURE.ordinal()]
+                || enabledChannels[Channel.PRESSURE.ordinal()]);
+    }
+
+    private void scheduleSampling() {
+        timerWheel.cancel(samplingTask);
+
+        // configuration follows the latest state, so it's fine for it to merge with a queued one
+        i2cExecutor.submit(configureCommand);
+        if (!isSampling())
+            return;
+
+        samplingPeriodNs = (long) (1000000000 / samplingRateHz);
+        nextSampleTimeNs = System.nanoTime();
+        timerWheel.schedule(samplingTask, 0);
+    }
+
+    private void onSamplingTime() {
+        synchronized (lock) {
+            if (!isSampling())
+                return;
+
+            i2cExecutor.submit(readCommand);
+
+            long nowNs = System.nanoTime();
+            // fixed rate, skipping samples rather than catching up after a stall
+            nextSampleTimeNs += samplingPeriodNs;
+            if (nextSampleTimeNs < nowNs)
+                nextSampleTimeNs = nowNs;
+            timerWheel.schedule(samplingTask, (nextSampleTimeNs - nowNs) / 1000000);
+        }
+    }
+
+    /**
+     * Adapt the rate to how fast values changed over the latest batch.
+     */
+    private void adaptSamplingRate(int count) {
+        boolean changing = false;
+        synchronized (lock) {
+            if (maxSamplingRateHz == minSamplingRateHz)
+                return;
+
+            for (Channel channel : CHANNELS) {
+                float threshold = changeThresholds[channel.ordinal()];
+                if (threshold > 0 && enabledChannels[channel.ordinal()]
+                        && getChangePerSecond(histories[channel.ordinal()], count) > threshold)
+                    changing = true;
+            }
+
+            float samplingRateHz = this.samplingRateHz;
+            if (changing) {
+                settledBatches = 0;
+                samplingRateHz = Math.min(maxSamplingRateHz, samplingRateHz * 2);
+            }
+            else if (++settledBatches >= SETTLED_BATCHES_TO_SLOW_DOWN) {
+                settledBatches = 0;
+                samplingRateHz = Math.max(minSamplingRateHz, samplingRateHz / 2);
+            }
+
+            if (samplingRateHz != this.samplingRateHz) {
+                this.samplingRateHz = samplingRateHz;
+                scheduleSampling();
+            }
+        }
+    }
+
+    private static float getChangePerSecond(SampleRingBuffer history, int count) {
+        int oldest = Math.min(count, history.size()) - 1;
+        if (oldest < 1)
+            return 0;
+
+        long durationNs = history.getTimestampNs(0) - history.getTimestampNs(oldest);
+        if (durationNs <= 0)
+            return 0;
+        return Math.abs(history.getValue(0) - history.getValue(oldest)) * 1e9f / durationNs;
+    }
+
+    private class ConfigureCommand extends BusExecutor.Command implements HealthSupervisor.Restorer {
+        @Override
+        protected void execute() throws IOException {
+            HatSensor sensor = componentsManager.getSensors();
+            if (sensor == null)
+                return;
+
+            boolean sampling;
+            boolean forcedMode;
+            int temperatureOversampling;
+            int pressureOversampling;
+            synchronized (lock) {
+                sampling = isSampling();
+                forcedMode = samplingRateHz <= FORCED_MODE_MAX_RATE_HZ;
+                temperatureOversampling = SensorSampler.this.temperatureOversampling;
+                pressureOversampling = enabledChannels[Channel.PRESSURE.ordinal()]
+                        ? SensorSampler.this.pressureOversampling : HatSensor.OVERSAMPLING_SKIPPED;
+            }
+
+            if (!sampling) {
+                sensor.setMode(HatSensor.MODE_SLEEP);
+                return;
+            }
+
+            sensor.setTemperatureOversampling(temperatureOversampling);
+            sensor.setPressureOversampling(pressureOversampling);
+            // forced mode starts a single conversion, to be read by the next read
+            sensor.setMode(forcedMode ? HatSensor.MODE_FORCED : HatSensor.MODE_NORMAL);
+            SensorSampler.this.forcedMode = forcedMode;
+        }
+
+        /**
+         * Bring a reopened sensor, which sleeps, back to the current sampling configuration.
+         */
+        @Override
+        public void restore() throws IOException {
+            execute();
+        }
+    }
+
+    private class ReadCommand extends BusExecutor.Command {
+        @Override
+        protected void execute() {
+            HatSensor sensor = componentsManager.getSensors();
+            if (sensor == null)
+                return;
+
+            boolean temperatureEnabled;
+            boolean pressureEnabled;
+            synchronized (lock) {
+                if (!isSampling())
+                    return;
+                temperatureEnabled = enabledChannels[Channel.TEMPERATURE.ordinal()];
+                pressureEnabled = enabledChannels[Channel.PRESSURE.ordinal()];
+            }
+
+            try {
+                long timestampNs = System.nanoTime();
+                if (pressureEnabled)
+                    sensor.readTemperatureAndPressure(readValues);
+                else
+                    readValues[0] = sensor.readTemperature();
+                if (forcedMode)
+                    sensor.setMode(HatSensor.MODE_FORCED);
+
+                if (temperatureEnabled)
+                    histories[Channel.TEMPERATURE.ordinal()].add(timestampNs, readValues[0]);
+                if (pressureEnabled)
+                    histories[Channel.PRESSURE.ordinal()].add(timestampNs, readValues[1]);
+            }
+            catch (IOException e) {
+                Log.e(TAG, "Error reading sensor", e);
+                return;
+            }
+
+            Listener listener;
+            synchronized (lock) {
+                if (++samplesInBatch < batchSize)
+                    return;
+                listener = SensorSampler.this.listener;
+            }
+            int count = samplesInBatch;
+            samplesInBatch = 0;
+
+            adaptSamplingRate(count);
+            if (listener != null)
+                listener.onSamples(SensorSampler.this, count);
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called on the I2C executor thread once a batch of samples is collected.
+         *
+         * @param sampler sampler holding the samples in its histories
+         * @param count number of samples added to each enabled channel's history since last call
+         */
+        void onSamples(SensorSampler sampler, int count);
+    }
+}
@@ -0,0 +1,337 @@
+package com.vojtkovszky.rainbowhathub.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed size, memory-mapped file of samples compressed the way Gorilla does it.
+ *
+ * Timestamps are stored as delta of deltas in variable bit lengths, so a steady sampling rate
+ * costs a bit per sample. Values are XORed with the previous one and only the meaningful bits
+ * of the result are stored, reusing the previous bit window when they fit into it.
+ * Header is updated after every sample, so a segment is always readable up to the last one.
+ * Bits past it, left over by an append cut short by a crash, are cleared before appending again.
+ */
+class Segment {
+
+    private static final int MAGIC = 0x54534731;
+    private static final int COUNT_OFFSET = 4;
+    private static final int FIRST_TIMESTAMP_OFFSET = 8;
+    private static final int LAST_TIMESTAMP_OFFSET = 16;
+    private static final int BIT_LENGTH_OFFSET = 24;
+    static final int HEADER_SIZE = 32;
+    // timestamp control and value, plus value control and both bit window lengths
+    private static final int MAX_SAMPLE_BITS = 4 + 32 + 2 + 5 + 5 + 32;
+
+    private final File file;
+    private final ByteBuffer buffer;
+    private final long capacityBits;
+
+    private int count;
+    private long firstTimestampMs;
+    private long lastTimestampMs;
+    private long bitLength;
+
+    // encoder state, restored from the data when an existing segment is opened
+    private long lastDeltaMs;
+    private int lastValueBits;
+    private int lastLeadingZeros = -1;
+    private int lastTrailingZeros;
+
+    private Segment(File file, ByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+        this.capacityBits = (long) (buffer.capacity() - HEADER_SIZE) * 8;
+    }
+
+    /**
+     * Create a new empty segment of given size, replacing any existing file.
+     */
+    static Segment create(File file, int size) throws IOException {
+        MappedByteBuffer buffer = map(file, FileChannel.MapMode.READ_WRITE, size);
+        // file may have been preallocated with garbage, bits are written by OR-ing into zeros
+        for (int i = 0; i < size; i++)
+            buffer.put(i, (byte) 0);
+        buffer.putInt(0, MAGIC);
+        return new Segment(file, buffer);
+    }
+
+    /**
+     * Open an existing segment, restoring its state so it can be appended to.
+     */
+    static Segment open(File file, boolean writable) throws IOException {
+        ByteBuffer buffer = map(file, writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                (int) file.length());
+        Segment segment = new Segment(file, buffer);
+        segment.readHeader();
+        if (writable)
+            segment.restoreEncoderState();
+        return segment;
+    }
+
+    /**
+     * Read just the header of a segment, without keeping it mapped.
+     */
+    static Segment readInfo(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            randomAccessFile.getChannel().read(header, 0);
+            Segment segment = new Segment(file, header);
+            segment.readHeader();
+            return segment;
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static MappedByteBuffer map(File file, FileChannel.MapMode mode, int size) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+        try {
+            // mapping stays valid after the channel is closed
+            return randomAccessFile.getChannel().map(mode, 0, size);
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    long getFirstTimestampMs() {
+        return firstTimestampMs;
+    }
+
+    long getLastTimestampMs() {
+        return lastTimestampMs;
+    }
+
+    /**
+     * Append a sample, timestamps must not go backwards.
+     *
+     * @return false if segment is full or the gap since the last sample is too long for it,
+     * and sample needs to go to a new segment
+     */
+    boolean append(long timestampMs, float value) {
+        if (bitLength + MAX_SAMPLE_BITS > capacityBits)
+            return false;
+
+        int valueBits = Float.floatToRawIntBits(value);
+        if (count == 0) {
+            firstTimestampMs = timestampMs;
+            writeBits(valueBits & 0xFFFFFFFFL, 32);
+        }
+        else {
+            long deltaMs = timestampMs - lastTimestampMs;
+            long deltaOfDelta = deltaMs - lastDeltaMs;
+            if (deltaOfDelta < Integer.MIN_VALUE || deltaOfDelta > Integer.MAX_VALUE)
+                return false;
+
+            writeTimestamp(deltaOfDelta);
+            writeValue(valueBits ^ lastValueBits);
+            lastDeltaMs = deltaMs;
+        }
+
+        lastTimestampMs = timestampMs;
+        lastValueBits = valueBits;
+        count++;
+        writeHeader();
+        return true;
+    }
+
+    /**
+     * Visit samples within given time range, both ends inclusive.
+     */
+    void scan(long fromMs, long toMs, TimeSeriesStore.SampleVisitor visitor) {
+        if (count == 0 || toMs < firstTimestampMs || fromMs > lastTimestampMs)
+            return;
+
+        Decoder decoder = new Decoder();
+        for (int i = 0; i < count; i++) {
+            decoder.next();
+            if (decoder.timestampMs > toMs)
+                return;
+            if (decoder.timestampMs >= fromMs)
+                visitor.visit(decoder.timestampMs, Float.intBitsToFloat(decoder.valueBits));
+        }
+    }
+
+    /**
+     * Write changes through to the file.
+     */
+    void flush() {
+        if (buffer instanceof MappedByteBuffer)
+            ((MappedByteBuffer) buffer).force();
+    }
+
+    private void writeTimestamp(long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            writeBits(0, 1);
+        }
+        else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+            writeBits(0b10, 2);
+            writeBits(deltaOfDelta + 63, 7);
+        }
+        else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+            writeBits(0b110, 3);
+            writeBits(deltaOfDelta + 255, 9);
+        }
+        else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+            writeBits(0b1110, 4);
+            writeBits(deltaOfDelta + 2047, 12);
+        }
+        else {
+            writeBits(0b1111, 4);
+            writeBits(deltaOfDelta & 0xFFFFFFFFL, 32);
+        }
+    }
+
+    private void writeValue(int xor) {
+        if (xor == 0) {
+            writeBits(0, 1);
+            return;
+        }
+
+        int leadingZeros = Math.min(31, Integer.numberOfLeadingZeros(xor));
+        int trailingZeros = Integer.numberOfTrailingZeros(xor);
+        if (lastLeadingZeros >= 0 && leadingZeros >= lastLeadingZeros && trailingZeros >= lastTrailingZeros) {
+            // fits into the previous window
+            writeBits(0b10, 2);
+            writeBits((xor >>> lastTrailingZeros) & 0xFFFFFFFFL, 32 - lastLeadingZeros - lastTrailingZeros);
+        }
+        else {
+            int meaningfulBits = 32 - leadingZeros - trailingZeros;
+            writeBits(0b11, 2);
+            writeBits(leadingZeros, 5);
+            writeBits(meaningfulBits - 1, 5);
+            writeBits((xor >>> trailingZeros) & 0xFFFFFFFFL, meaningfulBits);
+            lastLeadingZeros = leadingZeros;
+            lastTrailingZeros = trailingZeros;
+        }
+    }
+
+    private void writeBits(long value, int bits) {
+        while (bits > 0) {
+            int index = HEADER_SIZE + (int) (bitLength >>> 3);
+            int free = 8 - (int) (bitLength & 7);
+            int taken = Math.min(free, bits);
+            int chunk = (int) (value >>> (bits - taken)) & ((1 << taken) - 1);
+            buffer.put(index, (byte) (buffer.get(index) | (chunk << (free - taken))));
+            bitLength += taken;
+            bits -= taken;
+        }
+    }
+
+    private void writeHeader() {
+        buffer.putInt(COUNT_OFFSET, count);
+        buffer.putLong(FIRST_TIMESTAMP_OFFSET, firstTimestampMs);
+        buffer.putLong(LAST_TIMESTAMP_OFFSET, lastTimestampMs);
+        buffer.putLong(BIT_LENGTH_OFFSET, bitLength);
+    }
+
+    private void readHeader() throws IOException {
+        if (buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a segment: " + file);
+
+        count = buffer.getInt(COUNT_OFFSET);
+        firstTimestampMs = buffer.getLong(FIRST_TIMESTAMP_OFFSET);
+        lastTimestampMs = buffer.getLong(LAST_TIMESTAMP_OFFSET);
+        bitLength = buffer.getLong(BIT_LENGTH_OFFSET);
+    }
+
+    private void restoreEncoderState() {
+        Decoder decoder = new Decoder();
+        for (int i = 0; i < count; i++)
+            decoder.next();
+
+        lastDeltaMs = decoder.deltaMs;
+        lastValueBits = decoder.valueBits;
+        lastLeadingZeros = decoder.leadingZeros;
+        lastTrailingZeros = decoder.trailingZeros;
+
+        // bits are written by OR-ing, so anything past the data would corrupt the next samples
+        int index = HEADER_SIZE + (int) (bitLength >>> 3);
+        if ((bitLength & 7) != 0) {
+            buffer.put(index, (byte) (buffer.get(index) & (0xFF00 >>> (bitLength & 7))));
+            index++;
+        }
+        for (; index < buffer.capacity(); index++)
+            buffer.put(index, (byte) 0);
+    }
+
+    /**
+     * Reads samples back in order, mirroring the encoder state.
+     */
+    private class Decoder {
+        long position = 0;
+        int index = 0;
+        long timestampMs;
+        long deltaMs = 0;
+        int valueBits;
+        int leadingZeros = -1;
+        int trailingZeros;
+
+        void next() {
+            if (index == 0) {
+                timestampMs = firstTimestampMs;
+                valueBits = (int) readBits(32);
+            }
+            else {
+                deltaMs += readDeltaOfDelta();
+                timestampMs += deltaMs;
+                valueBits ^= readXor();
+            }
+            index++;
+        }
+
+        private long readDeltaOfDelta() {
+            if (readBits(1) == 0)
+                return 0;
+            if (readBits(1) == 0)
+                return readBits(7) - 63;
+            if (readBits(1) == 0)
+                return readBits(9) - 255;
+            if (readBits(1) == 0)
+                return readBits(12) - 2047;
+            return (int) readBits(32);
+        }
+
+        private int readXor() {
+            if (readBits(1) == 0)
+                return 0;
+
+            if (readBits(1) == 1) {
+                leadingZeros = (int) readBits(5);
+                int meaningfulBits = (int) readBits(5) + 1;
+                trailingZeros = 32 - leadingZeros - meaningfulBits;
+            }
+            int meaningfulBits = 32 - leadingZeros - trailingZeros;
+            return (int) readBits(meaningfulBits) << trailingZeros;
+        }
+
+        private long readBits(int bits) {
+            long value = 0;
+            while (bits > 0) {
+                int index = HEADER_SIZE + (int) (position >>> 3);
+                int available = 8 - (int) (position & 7);
+                int taken = Math.min(available, bits);
+                int chunk = (buffer.get(index) >>> (available - taken)) & ((1 << taken) - 1);
+                value = (value << taken) | chunk;
+                position += taken;
+                bits -= taken;
+            }
+            return value;
+        }
+    }
+}
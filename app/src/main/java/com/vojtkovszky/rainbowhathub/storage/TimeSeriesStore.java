@@ -0,0 +1,270 @@
+package com.vojtkovszky.rainbowhathub.storage;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Append only store of a single series of timestamped float values.
+ *
+ * Samples are written to fixed size memory-mapped segment files in a compressed form, see
+ * {@link Segment}, so a write is just a few bit operations on memory with the kernel taking care
+ * of writing pages out, rather than a write call per sample. Once a segment is full a new one is
+ * started, and once there are more than the configured number of segments the oldest one is
+ * deleted. Samples need to be appended in time order.
+ *
+ * Only raw samples are stored, rollups are computed from them when queried. A noisy sensor
+ * value costs around 27 bits, so the default 96 segments of 1 MB keep about a month of samples
+ * taken at 10 Hz.
+ */
+public class TimeSeriesStore {
+
+    private static final String TAG = TimeSeriesStore.class.getSimpleName();
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 96;
+
+    private static final String SEGMENT_EXTENSION = ".seg";
+
+    private final File directory;
+    private final String name;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    // guarded by this, headers only of full segments, oldest first
+    private final List<Segment> closedSegments = new ArrayList<>();
+    private Segment activeSegment;
+    private long nextSequence = 0;
+    // of the latest sample in any segment, the active one may still be empty
+    private long lastTimestampMs = Long.MIN_VALUE;
+
+    public TimeSeriesStore(File directory, String name) throws IOException {
+        this(directory, name, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * Open a store, picking up segments left by a previous one of the same name.
+     *
+     * @param segmentSize size of a segment file in bytes
+     * @param maxSegments number of segments to keep, including the one being written
+     */
+    public TimeSeriesStore(File directory, String name, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize <= Segment.HEADER_SIZE * 2)
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        if (maxSegments < 1)
+            throw new IllegalArgumentException("Need to keep at least one segment");
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create " + directory);
+
+        this.directory = directory;
+        this.name = name;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        openSegments();
+    }
+
+    /**
+     * Append a sample. Samples older than the latest one are dropped.
+     */
+    public synchronized void append(long timestampMs, float value) throws IOException {
+        checkOpen();
+        if (timestampMs < lastTimestampMs)
+            return;
+
+        if (!activeSegment.append(timestampMs, value)) {
+            rollSegment();
+            activeSegment.append(timestampMs, value);
+        }
+        lastTimestampMs = timestampMs;
+    }
+
+    /**
+     * Visit all samples within given time range in time order, both ends inclusive.
+     */
+    public synchronized void query(long fromMs, long toMs, SampleVisitor visitor) throws IOException {
+        checkOpen();
+        for (Segment info : closedSegments) {
+            if (info.getLastTimestampMs() < fromMs || info.getFirstTimestampMs() > toMs)
+                continue;
+            // older segments are only mapped while being read
+            Segment.open(info.getFile(), false).scan(fromMs, toMs, visitor);
+        }
+        activeSegment.scan(fromMs, toMs, visitor);
+    }
+
+    /**
+     * Downsample given time range into buckets of given length, visiting every non empty one.
+     * Buckets are aligned to multiples of their length since epoch.
+     */
+    public void rollup(long fromMs, long toMs, long bucketMs, RollupVisitor visitor) throws IOException {
+        if (bucketMs <= 0)
+            throw new IllegalArgumentException("Bucket length must be positive");
+
+        Rollup rollup = new Rollup(bucketMs, visitor);
+        query(fromMs, toMs, rollup);
+        rollup.finish();
+    }
+
+    /**
+     * @return timestamp of the oldest sample kept, or -1 if there are none
+     */
+    public synchronized long getFirstTimestampMs() {
+        checkOpen();
+        Segment oldest = closedSegments.isEmpty() ? activeSegment : closedSegments.get(0);
+        return oldest.getCount() > 0 ? oldest.getFirstTimestampMs() : -1;
+    }
+
+    /**
+     * @return timestamp of the latest sample kept, or -1 if there are none
+     */
+    public synchronized long getLastTimestampMs() {
+        checkOpen();
+        return lastTimestampMs != Long.MIN_VALUE ? lastTimestampMs : -1;
+    }
+
+    /**
+     * Force written samples out to storage. Not needed for durability against the app
+     * crashing, only against losing power.
+     */
+    public synchronized void flush() {
+        if (activeSegment != null)
+            activeSegment.flush();
+    }
+
+    public synchronized void close() {
+        flush();
+        activeSegment = null;
+        closedSegments.clear();
+    }
+
+    private void checkOpen() {
+        if (activeSegment == null)
+            throw new IllegalStateException("Store " + name + " is closed");
+    }
+
+    private void openSegments() throws IOException {
+        final String prefix = name + "-";
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String fileName) {
+                return fileName.startsWith(prefix) && fileName.endsWith(SEGMENT_EXTENSION);
+            }
+        });
+        if (files == null)
+            files = new File[0];
+        // zero padded sequence numbers, so names sort in the order segments were created
+        Arrays.sort(files);
+
+        for (int i = 0; i < files.length; i++) {
+            boolean last = i == files.length - 1;
+            try {
+                if (last) {
+                    activeSegment = Segment.open(files[i], true);
+                }
+                else {
+                    closedSegments.add(Segment.readInfo(files[i]));
+                }
+            }
+            catch (IOException e) {
+                Log.w(TAG, "Dropping unreadable segment " + files[i], e);
+                files[i].delete();
+            }
+        }
+
+        if (files.length > 0) {
+            String lastName = files[files.length - 1].getName();
+            nextSequence = Long.parseLong(lastName.substring(prefix.length(),
+                    lastName.length() - SEGMENT_EXTENSION.length())) + 1;
+        }
+        if (activeSegment == null)
+            activeSegment = createSegment();
+        enforceRetention();
+
+        if (activeSegment.getCount() > 0)
+            lastTimestampMs = activeSegment.getLastTimestampMs();
+        else if (!closedSegments.isEmpty())
+            lastTimestampMs = closedSegments.get(closedSegments.size() - 1).getLastTimestampMs();
+    }
+
+    private void rollSegment() throws IOException {
+        activeSegment.flush();
+        // let go of the full segment's mapping, keeping just its header
+        closedSegments.add(Segment.readInfo(activeSegment.getFile()));
+        activeSegment = createSegment();
+        enforceRetention();
+    }
+
+    private Segment createSegment() throws IOException {
+        File file = new File(directory, String.format(Locale.US, "%s-%08d%s", name, nextSequence++, SEGMENT_EXTENSION));
+        return Segment.create(file, segmentSize);
+    }
+
+    private void enforceRetention() {
+        while (closedSegments.size() + 1 > maxSegments) {
+            Segment oldest = closedSegments.remove(0);
+            if (!oldest.getFile().delete())
+                Log.w(TAG, "Can't delete " + oldest.getFile());
+        }
+    }
+
+    /**
+     * Accumulates samples of a bucket until one from the next bucket comes.
+     */
+    private static class Rollup implements SampleVisitor {
+        private final long bucketMs;
+        private final RollupVisitor visitor;
+
+        private long bucketStartMs;
+        private int count = 0;
+        private float min;
+        private float max;
+        private double sum;
+
+        Rollup(long bucketMs, RollupVisitor visitor) {
+            this.bucketMs = bucketMs;
+            this.visitor = visitor;
+        }
+
+        @Override
+        public void visit(long timestampMs, float value) {
+            long startMs = timestampMs - ((timestampMs % bucketMs) + bucketMs) % bucketMs;
+            if (count > 0 && startMs != bucketStartMs)
+                finish();
+
+            if (count == 0) {
+                bucketStartMs = startMs;
+                min = value;
+                max = value;
+                sum = 0;
+            }
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+            count++;
+        }
+
+        void finish() {
+            if (count > 0)
+                visitor.visit(bucketStartMs, count, min, max, (float) (sum / count));
+            count = 0;
+        }
+    }
+
+    public interface SampleVisitor {
+        void visit(long timestampMs, float value);
+    }
+
+    public interface RollupVisitor {
+        /**
+         * @param bucketStartMs start of the bucket, inclusive
+         * @param count number of samples in the bucket, always positive
+         */
+        void visit(long bucketStartMs, int count, float min, float max, float mean);
+    }
+}
@@ -0,0 +1,541 @@
+package com.vojtkovszky.rainbowhathub.telemetry;
+
+import android.util.Log;
+
+import com.vojtkovszky.rainbowhathub.events.EventBus;
+import com.vojtkovszky.rainbowhathub.hat.ComponentsManager;
+import com.vojtkovszky.rainbowhathub.metrics.ComponentMetrics;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streams hub events and component metrics to any number of TCP clients, and takes commands
+ * from them, over a line based text protocol.
+ *
+ * Sent lines:
+ * <pre>
+ * sample &lt;channel&gt; &lt;value&gt;
+ * gesture &lt;button id&gt; &lt;gesture&gt;
+ * mode &lt;working mode&gt;
+ * metrics &lt;component metrics&gt;
+ * dropped &lt;bytes&gt;
+ * </pre>
+ * where channel, gesture and working mode are ordinals of their enums. Commands are lines of
+ * a name and an optional argument, handled by the {@link CommandHandler} and answered with
+ * either "ok" or "error" to the sending client only, in between broadcast lines. Commands aren't
+ * authenticated, so the server only listens on loopback unless given another address.
+ *
+ * Events are encoded once into a single broadcast ring, and every client is written straight
+ * from it, from its own position, by a single selector thread. A client falling more than the
+ * whole ring behind skips to the latest half of it, and is told how many bytes it missed, ending
+ * any line cut short first, once its pending replies are sent. Bytes missed meanwhile are added
+ * to the same notice, so a client that stops reading only ever holds one.
+ * The event bus subscription is the only link to the inputs, so a slow client never holds
+ * them up.
+ */
+public class TelemetryServer implements EventBus.Subscriber {
+
+    private static final String TAG = TelemetryServer.class.getSimpleName();
+
+    public static final int DEFAULT_PORT = 8765;
+    public static final int MAX_CLIENTS = 64;
+
+    private static final int BROADCAST_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LINE_LENGTH = 256;
+    // room kept free in the replies for a dropped notice, a newline, "dropped " and a long
+    private static final int MAX_NOTICE_LENGTH = 1 + 8 + 19 + 1;
+
+    private final ComponentsManager componentsManager;
+    private final CommandHandler commandHandler;
+    private final AtomicBoolean wakeUpPending = new AtomicBoolean();
+    private volatile boolean running = false;
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread thread;
+    private int clientCount = 0;
+
+    // guarded by this, written by publishers and read by the selector thread
+    private final ByteBuffer broadcast = ByteBuffer.allocateDirect(BROADCAST_BUFFER_SIZE);
+    private final byte[] line = new byte[MAX_LINE_LENGTH];
+    private int lineLength;
+    private long writePosition = 0;
+
+    // only accessed from the selector thread
+    private long metricsIntervalMs = 0;
+    private long nextMetricsTimeMs;
+    private ComponentMetrics.Snapshot[] previousMetrics;
+
+    public TelemetryServer(ComponentsManager componentsManager, CommandHandler commandHandler) {
+        this.componentsManager = componentsManager;
+        this.commandHandler = commandHandler;
+    }
+
+    /**
+     * Start listening on given loopback port, 0 for any free one.
+     *
+     * @param metricsIntervalMs how often to send component metrics, 0 not to
+     */
+    public void start(int port, long metricsIntervalMs) throws IOException {
+        start(InetAddress.getLoopbackAddress(), port, metricsIntervalMs);
+    }
+
+    /**
+     * Start listening on given address and port, letting anyone who can reach it send commands.
+     *
+     * @param address address to listen on, null for all interfaces
+     * @param port port to listen on, 0 for any free one
+     * @param metricsIntervalMs how often to send component metrics, 0 not to
+     */
+    public synchronized void start(InetAddress address, int port, long metricsIntervalMs) throws IOException {
+        if (running)
+            throw new IllegalStateException("Already started");
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(address, port));
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.metricsIntervalMs = metricsIntervalMs;
+        this.nextMetricsTimeMs = System.currentTimeMillis() + metricsIntervalMs;
+
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                selectLoop();
+            }
+        }, "telemetry");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public InetAddress getAddress() {
+        return serverChannel.socket().getInetAddress();
+    }
+
+    /**
+     * Disconnect all clients and stop listening.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            if (!running)
+                return;
+            running = false;
+            thread = this.thread;
+        }
+        selector.wakeup();
+        try {
+            thread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //---------------------------
+    // [BEGIN] Encoding
+    //---------------------------
+    @Override
+    public void onEvent(int type, int source, int code, float value, long timestampNs) {
+        synchronized (this) {
+            switch (type) {
+                case EventBus.TYPE_SENSOR_SAMPLE:
+                    appendText("sample ");
+                    appendNumber(source);
+                    appendText(" ");
+                    appendNumber(value);
+                    break;
+
+                case EventBus.TYPE_GESTURE:
+                    appendText("gesture ");
+                    appendNumber(source);
+                    appendText(" ");
+                    appendNumber(code);
+                    break;
+
+                case EventBus.TYPE_MODE_CHANGED:
+                    appendText("mode ");
+                    appendNumber(code);
+                    break;
+
+                default:
+                    lineLength = 0;
+                    return;
+            }
+            broadcastLine();
+        }
+        wakeUp();
+    }
+
+    private void broadcastMetrics() {
+        ComponentMetrics.Snapshot[] snapshot = componentsManager.getMetricsSnapshot();
+        synchronized (this) {
+            for (int i = 0; i < snapshot.length; i++) {
+                appendText("metrics ");
+                appendText(snapshot[i].format(previousMetrics != null ? previousMetrics[i] : null));
+                broadcastLine();
+            }
+        }
+        previousMetrics = snapshot;
+    }
+
+    private void appendText(String text) {
+        for (int i = 0; i < text.length() && lineLength < MAX_LINE_LENGTH - 1; i++)
+            line[lineLength++] = (byte) text.charAt(i);
+    }
+
+    private void appendNumber(long number) {
+        if (number < 0) {
+            appendText("-");
+            number = -number;
+        }
+        // digits written backwards first
+        int start = lineLength;
+        do {
+            if (lineLength == MAX_LINE_LENGTH - 1)
+                return;
+            line[lineLength++] = (byte) ('0' + number % 10);
+            number /= 10;
+        } while (number > 0);
+
+        for (int i = start, j = lineLength - 1; i < j; i++, j--) {
+            byte digit = line[i];
+            line[i] = line[j];
+            line[j] = digit;
+        }
+    }
+
+    /**
+     * Append value with two decimals.
+     */
+    private void appendNumber(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            appendText("nan");
+            return;
+        }
+        long hundredths = Math.round(value * 100.0);
+        if (hundredths < 0) {
+            appendText("-");
+            hundredths = -hundredths;
+        }
+        appendNumber(hundredths / 100);
+        appendText(hundredths % 100 < 10 ? ".0" : ".");
+        appendNumber(hundredths % 100);
+    }
+
+    private void broadcastLine() {
+        line[lineLength++] = '\n';
+        int offset = (int) (writePosition % BROADCAST_BUFFER_SIZE);
+        int firstPart = Math.min(lineLength, BROADCAST_BUFFER_SIZE - offset);
+        broadcast.position(offset);
+        broadcast.put(line, 0, firstPart);
+        if (firstPart < lineLength) {
+            broadcast.position(0);
+            broadcast.put(line, firstPart, lineLength - firstPart);
+        }
+        writePosition += lineLength;
+        lineLength = 0;
+    }
+
+    private void wakeUp() {
+        if (running && wakeUpPending.compareAndSet(false, true))
+            selector.wakeup();
+    }
+    //---------------------------
+    // [END] Encoding
+    //---------------------------
+
+
+    //---------------------------
+    // [BEGIN] Selector loop
+    //---------------------------
+    private void selectLoop() {
+        while (running) {
+            try {
+                long timeoutMs = metricsIntervalMs > 0
+                        ? Math.max(1, nextMetricsTimeMs - System.currentTimeMillis()) : 0;
+                selector.select(timeoutMs);
+                wakeUpPending.set(false);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+
+                    if (key.isAcceptable())
+                        accept();
+                    else
+                        handleClient(key);
+                }
+
+                if (metricsIntervalMs > 0 && System.currentTimeMillis() >= nextMetricsTimeMs) {
+                    nextMetricsTimeMs += metricsIntervalMs;
+                    broadcastMetrics();
+                }
+                writeAll();
+            }
+            catch (IOException e) {
+                Log.e(TAG, "Error in selector loop", e);
+            }
+        }
+
+        for (SelectionKey key : selector.keys())
+            closeChannel(key);
+        try {
+            selector.close();
+        }
+        catch (IOException e) {
+            Log.e(TAG, "Error closing selector", e);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null)
+            return;
+
+        if (clientCount == MAX_CLIENTS) {
+            Log.w(TAG, "Too many clients, refusing " + channel.socket().getRemoteSocketAddress());
+            channel.close();
+            return;
+        }
+
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Client client;
+        synchronized (this) {
+            // new clients only get what's published from now on
+            client = new Client(broadcast.duplicate(), broadcast.duplicate(), writePosition);
+        }
+        channel.register(selector, SelectionKey.OP_READ, client);
+        clientCount++;
+    }
+
+    private void handleClient(SelectionKey key) {
+        Client client = (Client) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        try {
+            if (key.isReadable() && !read(channel, client)) {
+                closeChannel(key);
+                return;
+            }
+            if (key.isWritable())
+                write(key);
+        }
+        catch (IOException e) {
+            Log.w(TAG, "Dropping client after error", e);
+            closeChannel(key);
+        }
+        catch (RuntimeException e) {
+            Log.e(TAG, "Dropping client after unexpected error", e);
+            closeChannel(key);
+        }
+    }
+
+    private boolean read(SocketChannel channel, Client client) throws IOException {
+        if (channel.read(client.input) < 0)
+            return false;
+
+        ByteBuffer input = client.input;
+        int start = 0;
+        for (int i = 0; i < input.position(); i++) {
+            if (input.get(i) != '\n')
+                continue;
+            handleCommand(client, new String(input.array(), start, i - start, "US-ASCII").trim());
+            start = i + 1;
+        }
+
+        if (start > 0) {
+            input.flip();
+            input.position(start);
+            input.compact();
+        }
+        else if (!input.hasRemaining()) {
+            input.clear();
+            reply(client, "error line too long");
+        }
+        return true;
+    }
+
+    private void handleCommand(Client client, String command) {
+        if (command.isEmpty())
+            return;
+
+        int separator = command.indexOf(' ');
+        String name = separator < 0 ? command : command.substring(0, separator);
+        String argument = separator < 0 ? null : command.substring(separator + 1).trim();
+        boolean handled;
+        try {
+            handled = commandHandler.onCommand(name, argument);
+        }
+        catch (RuntimeException e) {
+            Log.w(TAG, "Error handling command " + command, e);
+            handled = false;
+        }
+        reply(client, handled ? "ok" : "error " + name);
+    }
+
+    private void reply(Client client, String text) {
+        if (client.replies.remaining() < text.length() + 1 + MAX_NOTICE_LENGTH) {
+            Log.w(TAG, "Client not reading replies, dropping one");
+            return;
+        }
+        putLine(client.replies, text);
+    }
+
+    private static void putLine(ByteBuffer buffer, String text) {
+        for (int i = 0; i < text.length(); i++)
+            buffer.put((byte) text.charAt(i));
+        buffer.put((byte) '\n');
+    }
+
+    private void writeAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.attachment() != null) {
+                try {
+                    write(key);
+                }
+                catch (IOException e) {
+                    Log.w(TAG, "Dropping client after error", e);
+                    closeChannel(key);
+                }
+                catch (RuntimeException e) {
+                    Log.e(TAG, "Dropping client after unexpected error", e);
+                    closeChannel(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write pending replies and broadcast data, waiting for the socket to be writable
+     * if it doesn't take all of it. Replies only go out once the client got a whole line, and a
+     * dropped notice only once they're all sent.
+     */
+    private void write(SelectionKey key) throws IOException {
+        Client client = (Client) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        boolean done;
+
+        ByteBuffer replies = client.replies;
+        if (client.atLineStart) {
+            // room for the notice is always kept free by replies, so it fits once they're sent
+            if (client.droppedBytes > 0 && replies.position() == 0) {
+                putLine(replies, "dropped " + client.droppedBytes);
+                client.droppedBytes = 0;
+            }
+            if (replies.position() > 0) {
+                replies.flip();
+                channel.write(replies);
+                replies.compact();
+            }
+        }
+
+        synchronized (this) {
+            if (writePosition - client.readPosition > BROADCAST_BUFFER_SIZE) {
+                // overwritten before it could be sent, notice goes out ahead of the resumed lines
+                long resumePosition = findLineStart(writePosition - BROADCAST_BUFFER_SIZE / 2);
+                client.droppedBytes += resumePosition - client.readPosition;
+                if (!client.atLineStart) {
+                    // replies are still all unsent then, the cut line gets ended ahead of them
+                    byte[] unsent = replies.array();
+                    System.arraycopy(unsent, 0, unsent, 1, replies.position());
+                    unsent[0] = '\n';
+                    replies.position(replies.position() + 1);
+                }
+                client.readPosition = resumePosition;
+                client.atLineStart = true;
+            }
+
+            long available = writePosition - client.readPosition;
+            boolean pending = replies.position() > 0 || client.droppedBytes > 0;
+            // pending replies wait for the line being sent to be finished, and go out before more
+            if (available > 0 && (!pending || !client.atLineStart)) {
+                int offset = (int) (client.readPosition % BROADCAST_BUFFER_SIZE);
+                int firstPart = (int) Math.min(available, BROADCAST_BUFFER_SIZE - offset);
+                client.views[0].limit(offset + firstPart).position(offset);
+                client.views[1].limit((int) available - firstPart).position(0);
+                long written = channel.write(client.views, 0, firstPart < available ? 2 : 1);
+                if (written > 0) {
+                    client.readPosition += written;
+                    int lastOffset = (int) ((client.readPosition - 1) % BROADCAST_BUFFER_SIZE);
+                    client.atLineStart = broadcast.get(lastOffset) == '\n';
+                }
+            }
+            done = client.readPosition == writePosition && !pending;
+        }
+
+        int interest = SelectionKey.OP_READ | (done ? 0 : SelectionKey.OP_WRITE);
+        if (key.interestOps() != interest)
+            key.interestOps(interest);
+    }
+
+    /**
+     * @return position of the first line starting at or after given position in the ring
+     */
+    private long findLineStart(long position) {
+        while (position < writePosition && broadcast.get((int) ((position - 1) % BROADCAST_BUFFER_SIZE)) != '\n')
+            position++;
+        return position;
+    }
+
+    private void closeChannel(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        }
+        catch (IOException e) {
+            Log.w(TAG, "Error closing channel", e);
+        }
+        if (key.attachment() != null)
+            clientCount--;
+    }
+    //---------------------------
+    // [END] Selector loop
+    //---------------------------
+
+    private static class Client {
+        // views of the broadcast ring, for the part up to its end and the wrapped one
+        final ByteBuffer[] views;
+        final ByteBuffer input = ByteBuffer.allocate(MAX_LINE_LENGTH);
+        final ByteBuffer replies = ByteBuffer.allocate(MAX_LINE_LENGTH);
+        long readPosition;
+        // whether broadcast data sent so far ends with a whole line
+        boolean atLineStart = true;
+        // missed broadcast data not told about yet
+        long droppedBytes;
+
+        Client(ByteBuffer firstView, ByteBuffer secondView, long readPosition) {
+            this.views = new ByteBuffer[] {firstView, secondView};
+            this.readPosition = readPosition;
+        }
+    }
+
+    public interface CommandHandler {
+        /**
+         * Called on the server's thread, which shouldn't be blocked.
+         *
+         * @param argument rest of the line after the name, or null if none
+         * @return false if command or its argument isn't known
+         */
+        boolean onCommand(String name, String argument);
+    }
+}
@@ -0,0 +1,284 @@
+package com.vojtkovszky.rainbowhathub.timing;
+
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timing wheel running timed tasks on a dedicated thread.
+ *
+ * Time is divided into ticks of fixed duration, each hashed into one of the wheel's slots.
+ * Scheduling and cancelling are constant time, and all the tasks due in a tick are fired
+ * together once the tick passes, so a task fires up to one tick late but never early.
+ * Tasks are meant to be reused: they are linked into the wheel directly and scheduling one
+ * doesn't allocate. Thread sleeps until the earliest scheduled task is due, skipping the empty
+ * ticks before it, and indefinitely while there is nothing scheduled.
+ */
+public class TimerWheel {
+
+    private static final String TAG = TimerWheel.class.getSimpleName();
+
+    public static final long DEFAULT_TICK_MS = 5;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final long tickNs;
+    private final long startNs;
+    private final int mask;
+    // heads of doubly linked task lists, one per slot
+    private final Task[] slots;
+    private final Thread thread;
+
+    // guarded by this
+    private boolean running = true;
+    private int size = 0;
+    private long processedTick = 0;
+    // tick the thread sleeps until, if it's sleeping on a scheduled task
+    private long wakeTick = Long.MAX_VALUE;
+    private long wakeups = 0;
+    private Task[] firing = new Task[16];
+    private int[] firingGenerations = new int[16];
+
+    public TimerWheel(String name) {
+        this(name, DEFAULT_TICK_MS, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param tickMs timer resolution
+     * @param wheelSize number of slots, rounded up to a power of two. Tasks due further than
+     *                  a full rotation are fine, they just get passed over until due.
+     */
+    public TimerWheel(String name, long tickMs, int wheelSize) {
+        if (tickMs <= 0 || wheelSize <= 0)
+            throw new IllegalArgumentException("Tick and wheel size must be positive");
+
+        int slotCount = Integer.highestOneBit(wheelSize);
+        if (slotCount < wheelSize)
+            slotCount <<= 1;
+
+        this.tickNs = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        this.startNs = System.nanoTime();
+        this.mask = slotCount - 1;
+        this.slots = new Task[slotCount];
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runLoop();
+            }
+        }, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Schedule task to run after given delay, rescheduling it if it's already scheduled.
+     *
+     * @return false if wheel is shut down
+     */
+    public boolean schedule(Task task, long delayMs) {
+        synchronized (this) {
+            if (!running)
+                return false;
+
+            if (task.wheel != null && task.wheel != this)
+                throw new IllegalStateException("Task belongs to another wheel");
+            task.wheel = this;
+
+            if (task.scheduled)
+                unlink(task);
+
+            long elapsedNs = System.nanoTime() - startNs;
+            // wheel is idle, so the cursor stopped at some past tick
+            if (size == 0)
+                processedTick = elapsedNs / tickNs;
+
+            // first tick boundary at or after the due time
+            long dueNs = elapsedNs + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMs));
+            task.deadlineTick = Math.max(processedTick + 1, (dueNs + tickNs - 1) / tickNs);
+            task.generation++;
+            link(task);
+            if (task.deadlineTick < wakeTick)
+                notify();
+            return true;
+        }
+    }
+
+    /**
+     * Cancel task if it's scheduled. Task which already started firing is not interrupted.
+     *
+     * @return true if task was scheduled
+     */
+    public boolean cancel(Task task) {
+        synchronized (this) {
+            // also stops it from firing if it's already collected for the current tick
+            task.generation++;
+            if (!task.scheduled)
+                return false;
+
+            unlink(task);
+            return true;
+        }
+    }
+
+    /**
+     * Stop the timer thread, dropping all the scheduled tasks.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            running = false;
+            notify();
+        }
+    }
+
+    public boolean isTimerThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    private void link(Task task) {
+        int slot = (int) (task.deadlineTick & mask);
+        task.prev = null;
+        task.next = slots[slot];
+        if (task.next != null)
+            task.next.prev = task;
+        slots[slot] = task;
+        task.scheduled = true;
+        size++;
+    }
+
+    private void unlink(Task task) {
+        if (task.prev != null)
+            task.prev.next = task.next;
+        else
+            slots[(int) (task.deadlineTick & mask)] = task.next;
+        if (task.next != null)
+            task.next.prev = task.prev;
+        task.next = null;
+        task.prev = null;
+        task.scheduled = false;
+        size--;
+    }
+
+    private void runLoop() {
+        while (true) {
+            int firingCount = 0;
+            synchronized (this) {
+                try {
+                    while (running && size == 0)
+                        wait();
+                    if (!running)
+                        return;
+
+                    long dueTick = getEarliestDeadlineTick();
+                    long waitNs = startNs + dueTick * tickNs - System.nanoTime();
+                    if (waitNs > 0) {
+                        wakeTick = dueTick;
+                        TimeUnit.NANOSECONDS.timedWait(this, waitNs);
+                        wakeTick = Long.MAX_VALUE;
+                        wakeups++;
+                        continue;
+                    }
+                    // nothing is due in the ticks before
+                    processedTick = dueTick - 1;
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+
+                processedTick++;
+                Task task = slots[(int) (processedTick & mask)];
+                while (task != null) {
+                    Task next = task.next;
+                    if (task.deadlineTick <= processedTick) {
+                        unlink(task);
+                        if (firingCount == firing.length)
+                            growFiring();
+                        firing[firingCount] = task;
+                        firingGenerations[firingCount] = task.generation;
+                        firingCount++;
+                    }
+                    task = next;
+                }
+            }
+
+            for (int i = 0; i < firingCount; i++) {
+                Task task = firing[i];
+                firing[i] = null;
+                synchronized (this) {
+                    // cancelled or rescheduled by a task fired before it
+                    if (task.generation != firingGenerations[i] || task.scheduled)
+                        continue;
+                }
+
+                try {
+                    task.run();
+                }
+                catch (RuntimeException e) {
+                    Log.e(TAG, "Error running timer task", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Earliest deadline of the scheduled tasks, with at least one task scheduled.
+     */
+    private long getEarliestDeadlineTick() {
+        // first tick within a rotation having a task due in it
+        for (long tick = processedTick + 1; tick <= processedTick + slots.length; tick++) {
+            for (Task task = slots[(int) (tick & mask)]; task != null; task = task.next) {
+                if (task.deadlineTick == tick)
+                    return tick;
+            }
+        }
+
+        // everything is due more than a rotation away
+        long earliestTick = Long.MAX_VALUE;
+        for (Task slot : slots) {
+            for (Task task = slot; task != null; task = task.next)
+                earliestTick = Math.min(earliestTick, task.deadlineTick);
+        }
+        return earliestTick;
+    }
+
+    /**
+     * @return number of times the thread woke up from sleeping on a scheduled task
+     */
+    synchronized long getWakeupCount() {
+        return wakeups;
+    }
+
+    private void growFiring() {
+        Task[] grownFiring = new Task[firing.length * 2];
+        int[] grownGenerations = new int[firing.length * 2];
+        System.arraycopy(firing, 0, grownFiring, 0, firing.length);
+        System.arraycopy(firingGenerations, 0, grownGenerations, 0, firing.length);
+        firing = grownFiring;
+        firingGenerations = grownGenerations;
+    }
+
+    /**
+     * Reusable timed task. Instance should only ever be scheduled on a single wheel.
+     */
+    public static abstract class Task {
+        private volatile TimerWheel wheel;
+        // guarded by the wheel task is scheduled on
+        private Task next;
+        private Task prev;
+        private long deadlineTick;
+        private int generation;
+        private boolean scheduled = false;
+
+        public boolean isScheduled() {
+            TimerWheel wheel = this.wheel;
+            if (wheel == null)
+                return false;
+            synchronized (wheel) {
+                return scheduled;
+            }
+        }
+
+        /**
+         * Called on the timer thread once task is due.
+         */
+        protected abstract void run();
+    }
+}
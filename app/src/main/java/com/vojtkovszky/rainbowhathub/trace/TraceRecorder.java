@@ -0,0 +1,311 @@
+package com.vojtkovszky.rainbowhathub.trace;
+
+import android.util.Log;
+
+import com.vojtkovszky.rainbowhathub.timing.TimerWheel;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends input events to a compact binary trace, to be fed through the hub again
+ * by {@link TraceReplayer}.
+ *
+ * Every event is a fixed size record of its time since recording started, type, source, code
+ * and value, written into one of two preallocated buffers. Once it fills up, the buffer is handed
+ * to a writer thread appending it to the file while the other one is filled, so recording never
+ * waits for the disk unless the writer falls a whole buffer behind. Recording is cheap enough to
+ * stay on for good: once the file grows over its maximum size it's moved aside to a single ".old"
+ * file and a new one is started. A trace left over from before is moved aside the same way when
+ * recording starts, so it survives a restart.
+ */
+public class TraceRecorder implements Closeable {
+
+    private static final String TAG = TraceRecorder.class.getSimpleName();
+
+    /** Raw button edge, source being button id and code 1 when pressed */
+    public static final int TYPE_BUTTON_EDGE = 0;
+    /** Gesture recognized from the edges, source being button id and code gesture ordinal */
+    public static final int TYPE_GESTURE = 1;
+    /** Raw sensor sample, source being channel ordinal and code 1 on the last sample of a batch */
+    public static final int TYPE_SENSOR_SAMPLE = 2;
+    /** Working mode set other than by the buttons, code being mode ordinal */
+    public static final int TYPE_MODE_SET = 3;
+
+    public static final int DEFAULT_BUFFER_RECORDS = 256;
+    public static final long DEFAULT_MAX_FILE_SIZE = 4 * 1024 * 1024;
+
+    static final int MAGIC = 0x48545243; // "HTRC"
+    static final int VERSION = 1;
+    // magic, version and wall clock time recording started at
+    static final int HEADER_SIZE = 16;
+    // time, type, source, code and value
+    static final int RECORD_SIZE = 16;
+
+    private final File file;
+    private final File oldFile;
+    private final long maxFileSize;
+    private final long startNs = System.nanoTime();
+    private final long startTimeMs = System.currentTimeMillis();
+
+    private final Thread writer;
+    private final TimerWheel.Task flushTask = new TimerWheel.Task() {
+        @Override
+        protected void run() {
+            onFlushTime();
+        }
+    };
+    private TimerWheel timerWheel;
+    private long flushIntervalMs;
+
+    // guarded by this, either the full buffer is with the writer or the spare one is free
+    private ByteBuffer buffer;
+    private ByteBuffer fullBuffer;
+    private ByteBuffer spareBuffer;
+    private boolean closed = false;
+    private boolean failed = false;
+
+    // only accessed from the writer thread once started
+    private FileChannel channel;
+    private long fileSize;
+
+    public TraceRecorder(File file) throws IOException {
+        this(file, DEFAULT_BUFFER_RECORDS, DEFAULT_MAX_FILE_SIZE);
+    }
+
+    public TraceRecorder(File file, int bufferRecords, long maxFileSize) throws IOException {
+        if (bufferRecords <= 0 || maxFileSize < HEADER_SIZE + RECORD_SIZE)
+            throw new IllegalArgumentException("Buffer or maximum file size too small");
+
+        this.file = file;
+        this.oldFile = new File(file.getPath() + ".old");
+        this.maxFileSize = maxFileSize;
+        this.buffer = ByteBuffer.allocateDirect(bufferRecords * RECORD_SIZE);
+        this.spareBuffer = ByteBuffer.allocateDirect(bufferRecords * RECORD_SIZE);
+
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create " + directory);
+        if (file.length() > HEADER_SIZE)
+            moveAside();
+        startFile();
+
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "trace-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Record an event happening now.
+     */
+    public void record(int type, int source, int code, float value) {
+        record(System.nanoTime(), type, source, code, value);
+    }
+
+    /**
+     * Record an event, dropped if the recorder is closed or failed writing.
+     *
+     * @param timestampNs {@link System#nanoTime()} the event happened at
+     */
+    public synchronized void record(long timestampNs, int type, int source, int code, float value) {
+        if (closed || failed)
+            return;
+
+        buffer.putLong(timestampNs - startNs);
+        buffer.put((byte) type);
+        buffer.put((byte) source);
+        buffer.putShort((short) code);
+        buffer.putFloat(value);
+        if (!buffer.hasRemaining())
+            handOver();
+    }
+
+    /**
+     * Also write buffered events out every given interval, so a partly filled buffer doesn't
+     * hold events back indefinitely while inputs are quiet.
+     */
+    public synchronized void setFlushInterval(TimerWheel timerWheel, long intervalMs) {
+        if (intervalMs <= 0)
+            throw new IllegalArgumentException("Interval must be positive");
+
+        if (this.timerWheel != null)
+            this.timerWheel.cancel(flushTask);
+        this.timerWheel = timerWheel;
+        this.flushIntervalMs = intervalMs;
+        if (!closed)
+            timerWheel.schedule(flushTask, intervalMs);
+    }
+
+    /**
+     * Write all buffered events out, waiting for them to be written.
+     */
+    public synchronized void flush() {
+        if (closed || failed)
+            return;
+
+        if (buffer.position() > 0)
+            handOver();
+        awaitSpareBuffer();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed)
+                return;
+
+            if (!failed && buffer.position() > 0)
+                handOver();
+            closed = true;
+            if (timerWheel != null)
+                timerWheel.cancel(flushTask);
+            notifyAll();
+        }
+
+        try {
+            writer.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Trace moved aside last, holding what was recorded before the current one.
+     */
+    public File getOldFile() {
+        return oldFile;
+    }
+
+    private void startFile() throws IOException {
+        channel = new FileOutputStream(file).getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(startTimeMs).flip();
+        while (header.hasRemaining())
+            channel.write(header);
+        fileSize = HEADER_SIZE;
+    }
+
+    private void moveAside() throws IOException {
+        if (oldFile.exists() && !oldFile.delete() || !file.renameTo(oldFile))
+            throw new IOException("Can't move " + file + " aside");
+    }
+
+    /**
+     * Hand the buffer being filled over to the writer, waiting for the writer to be done with
+     * the other one if it isn't yet.
+     */
+    private void handOver() {
+        awaitSpareBuffer();
+        if (failed) {
+            buffer.clear();
+            return;
+        }
+
+        buffer.flip();
+        fullBuffer = buffer;
+        buffer = spareBuffer;
+        spareBuffer = null;
+        notifyAll();
+    }
+
+    private void awaitSpareBuffer() {
+        boolean interrupted = false;
+        while (spareBuffer == null && !failed) {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private synchronized void onFlushTime() {
+        if (closed)
+            return;
+
+        // timer thread mustn't wait for the disk, so a busy writer gets it next time
+        if (buffer.position() > 0 && spareBuffer != null && !failed)
+            handOver();
+        timerWheel.schedule(flushTask, flushIntervalMs);
+    }
+
+    private void writeLoop() {
+        while (true) {
+            ByteBuffer fullBuffer;
+            synchronized (this) {
+                while (this.fullBuffer == null && !closed) {
+                    try {
+                        wait();
+                    }
+                    catch (InterruptedException e) {
+                        // only stops once closed
+                    }
+                }
+                fullBuffer = this.fullBuffer;
+            }
+            if (fullBuffer == null)
+                break;
+
+            boolean written = writeBuffer(fullBuffer);
+            synchronized (this) {
+                fullBuffer.clear();
+                this.fullBuffer = null;
+                spareBuffer = fullBuffer;
+                if (!written)
+                    failed = true;
+                notifyAll();
+            }
+        }
+        closeFile();
+    }
+
+    private boolean writeBuffer(ByteBuffer buffer) {
+        try {
+            if (fileSize + buffer.remaining() > maxFileSize) {
+                closeFile();
+                moveAside();
+                startFile();
+            }
+
+            fileSize += buffer.remaining();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            return true;
+        }
+        catch (IOException e) {
+            Log.e(TAG, "Error writing trace, not recording anymore", e);
+            closeFile();
+            return false;
+        }
+    }
+
+    private void closeFile() {
+        if (channel == null)
+            return;
+
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            Log.e(TAG, "Error closing trace", e);
+        }
+        channel = null;
+    }
+}
@@ -0,0 +1,112 @@
+package com.vojtkovszky.rainbowhathub.trace;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a trace written by {@link TraceRecorder} back, handing its records to a listener
+ * either paced by their recorded times or as fast as possible.
+ *
+ * Records are read in chunks into a preallocated buffer, so replaying doesn't allocate per
+ * record and can be used to measure throughput of whatever the listener feeds them to.
+ */
+public class TraceReplayer {
+
+    public static final int DEFAULT_BUFFER_RECORDS = 256;
+
+    private final File file;
+    private final ByteBuffer buffer;
+    private volatile boolean cancelled = false;
+
+    public TraceReplayer(File file) {
+        this(file, DEFAULT_BUFFER_RECORDS);
+    }
+
+    public TraceReplayer(File file, int bufferRecords) {
+        this.file = file;
+        this.buffer = ByteBuffer.allocateDirect(bufferRecords * TraceRecorder.RECORD_SIZE);
+    }
+
+    /**
+     * Replay the whole trace on the calling thread.
+     *
+     * @param speed how many times faster than recorded to replay, 1 for real time
+     *              and 0 for as fast as possible
+     * @return number of records replayed
+     * @throws IOException if file is not a trace
+     */
+    public long replay(Listener listener, float speed) throws IOException, InterruptedException {
+        if (speed < 0)
+            throw new IllegalArgumentException("Speed can't be negative");
+        cancelled = false;
+
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            readHeader(channel);
+
+            long count = 0;
+            long firstTimestampNs = 0;
+            long startNs = System.nanoTime();
+            buffer.clear();
+            while (!cancelled && channel.read(buffer) >= 0) {
+                buffer.flip();
+                while (!cancelled && buffer.remaining() >= TraceRecorder.RECORD_SIZE) {
+                    long timestampNs = buffer.getLong();
+                    int type = buffer.get();
+                    int source = buffer.get();
+                    int code = buffer.getShort();
+                    float value = buffer.getFloat();
+
+                    if (count++ == 0)
+                        firstTimestampNs = timestampNs;
+                    else if (speed > 0)
+                        sleepUntil(startNs + (long) ((timestampNs - firstTimestampNs) / speed));
+                    listener.onRecord(type, source, code, value, timestampNs);
+                }
+                // a partial record is carried over to the next read
+                buffer.compact();
+            }
+            return count;
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Stop replay in progress after the record being handed over.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private static void readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(TraceRecorder.HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header) >= 0);
+        header.flip();
+        if (header.remaining() < TraceRecorder.HEADER_SIZE || header.getInt() != TraceRecorder.MAGIC)
+            throw new IOException("Not an input trace");
+        int version = header.getInt();
+        if (version != TraceRecorder.VERSION)
+            throw new IOException("Unsupported trace version " + version);
+    }
+
+    private static void sleepUntil(long timeNs) throws InterruptedException {
+        long delayNs = timeNs - System.nanoTime();
+        if (delayNs > 0)
+            TimeUnit.NANOSECONDS.sleep(delayNs);
+    }
+
+    public interface Listener {
+        /**
+         * Called on the replaying thread for every record, in recorded order.
+         *
+         * @param timestampNs time since recording started
+         */
+        void onRecord(int type, int source, int code, float value, long timestampNs);
+    }
+}
@@ -0,0 +1,143 @@
+package com.vojtkovszky.rainbowhathub;
+
+import com.vojtkovszky.rainbowhathub.handlers.WorkingModeHandler;
+import com.vojtkovszky.rainbowhathub.hat.ComponentsManager;
+import com.vojtkovszky.rainbowhathub.hat.DriverFactory;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedBoardDefaults;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedDriverProvider;
+import com.vojtkovszky.rainbowhathub.input.GestureEngine;
+import com.vojtkovszky.rainbowhathub.sensors.SampleRingBuffer;
+import com.vojtkovszky.rainbowhathub.sensors.SensorSampler;
+import com.vojtkovszky.rainbowhathub.trace.TraceRecorder;
+import com.vojtkovszky.rainbowhathub.trace.TraceReplayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Recorded inputs replayed through the whole hub, against the simulated HAT.
+ */
+public class HubRuntimeTest {
+
+    private File directory;
+    private HubRuntime hubRuntime;
+
+    @Before
+    public void setUp() throws Exception {
+        DriverFactory.setDriverProvider(SimulatedDriverProvider.withoutLatency(), new SimulatedBoardDefaults());
+        directory = File.createTempFile("hub", "");
+        directory.delete();
+        directory.mkdirs();
+        hubRuntime = new HubRuntime(directory, 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        hubRuntime.close();
+        delete(directory);
+    }
+
+    @Test
+    public void acceleratedReplay_appliesRecordedGestures() throws Exception {
+        File file = new File(directory, "incident.trace");
+        TraceRecorder recorder = new TraceRecorder(file);
+        for (int i = 0; i < 2; i++) {
+            recorder.record(TraceRecorder.TYPE_BUTTON_EDGE, ComponentsManager.BUTTON_ID_A, 1, 0);
+            recorder.record(TraceRecorder.TYPE_GESTURE, ComponentsManager.BUTTON_ID_A,
+                    GestureEngine.Gesture.PRESS.ordinal(), 0);
+            recorder.record(TraceRecorder.TYPE_BUTTON_EDGE, ComponentsManager.BUTTON_ID_A, 0, 0);
+            recorder.record(TraceRecorder.TYPE_GESTURE, ComponentsManager.BUTTON_ID_A,
+                    GestureEngine.Gesture.TAP.ordinal(), 0);
+        }
+        for (int i = 0; i < 100; i++)
+            recorder.record(TraceRecorder.TYPE_SENSOR_SAMPLE, 1, i % 5 == 4 ? 1 : 0, 1000 + i * 0.1f);
+        recorder.close();
+
+        assertEquals(108, hubRuntime.replay(new TraceReplayer(file), 0));
+        awaitMode(WorkingModeHandler.WorkingMode.MODE_PRESSURE);
+    }
+
+    @Test
+    public void replay_notRecordedAgain() throws Exception {
+        File file = new File(directory, "incident.trace");
+        TraceRecorder recorder = new TraceRecorder(file);
+        // a tap, going through the gesture engine again in real time
+        long pressedNs = System.nanoTime();
+        recorder.record(pressedNs, TraceRecorder.TYPE_BUTTON_EDGE, ComponentsManager.BUTTON_ID_A, 1, 0);
+        recorder.record(pressedNs + 50000000, TraceRecorder.TYPE_BUTTON_EDGE, ComponentsManager.BUTTON_ID_A, 0, 0);
+        recorder.close();
+
+        hubRuntime.replay(new TraceReplayer(file), 1);
+        awaitMode(WorkingModeHandler.WorkingMode.MODE_TEMPERATURE);
+        hubRuntime.stopInputs();
+        assertEquals(0, new TraceReplayer(hubRuntime.getInputTrace()).replay(new TraceReplayer.Listener() {
+            @Override
+            public void onRecord(int type, int source, int code, float value, long timestampNs) {
+            }
+        }, 0));
+    }
+
+    @Test
+    public void pressureMode_keepsTemperatureSampledForGradient() throws Exception {
+        SensorSampler sampler = hubRuntime.getComponentsManager().getSensorSampler();
+        File file = new File(directory, "incident.trace");
+        TraceRecorder recorder = new TraceRecorder(file);
+        // gradient is the last animation
+        for (int i = 0; i < 4; i++) {
+            recorder.record(TraceRecorder.TYPE_GESTURE, ComponentsManager.BUTTON_ID_C,
+                    GestureEngine.Gesture.TAP.ordinal(), 0);
+        }
+        recorder.record(TraceRecorder.TYPE_MODE_SET, 0, WorkingModeHandler.WorkingMode.MODE_PRESSURE.ordinal(), 0);
+        recorder.close();
+
+        hubRuntime.replay(new TraceReplayer(file), 0);
+        awaitMode(WorkingModeHandler.WorkingMode.MODE_PRESSURE);
+        awaitTemperatureEnabled(sampler, true);
+        hubRuntime.startInputs();
+        SampleRingBuffer temperatures = sampler.getHistory(SensorSampler.Channel.TEMPERATURE);
+        long timestampNs = temperatures.size() > 0 ? temperatures.getTimestampNs(0) : 0;
+        long deadlineMs = System.currentTimeMillis() + 5000;
+        while ((temperatures.size() == 0 || temperatures.getTimestampNs(0) == timestampNs)
+                && System.currentTimeMillis() < deadlineMs)
+            Thread.sleep(10);
+        assertTrue(temperatures.size() > 0 && temperatures.getTimestampNs(0) != timestampNs);
+
+        // strip off, only pressure needed again
+        recorder = new TraceRecorder(file);
+        recorder.record(TraceRecorder.TYPE_GESTURE, ComponentsManager.BUTTON_ID_C,
+                GestureEngine.Gesture.LONG_PRESS.ordinal(), 0);
+        recorder.close();
+        hubRuntime.replay(new TraceReplayer(file), 0);
+        awaitTemperatureEnabled(sampler, false);
+    }
+
+    private void awaitTemperatureEnabled(SensorSampler sampler, boolean enabled) throws InterruptedException {
+        long deadlineMs = System.currentTimeMillis() + 5000;
+        while (sampler.isChannelEnabled(SensorSampler.Channel.TEMPERATURE) != enabled
+                && System.currentTimeMillis() < deadlineMs)
+            Thread.sleep(10);
+        assertEquals(enabled, sampler.isChannelEnabled(SensorSampler.Channel.TEMPERATURE));
+    }
+
+    private void awaitMode(WorkingModeHandler.WorkingMode mode) throws InterruptedException {
+        long deadlineMs = System.currentTimeMillis() + 5000;
+        while (hubRuntime.getWorkingModeHandler().getCurrentMode() != mode
+                && System.currentTimeMillis() < deadlineMs)
+            Thread.sleep(10);
+        assertEquals(mode, hubRuntime.getWorkingModeHandler().getCurrentMode());
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files)
+                delete(child);
+        }
+        file.delete();
+    }
+}
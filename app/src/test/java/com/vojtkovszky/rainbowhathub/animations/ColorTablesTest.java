@@ -0,0 +1,35 @@
+package com.vojtkovszky.rainbowhathub.animations;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ColorTablesTest {
+
+    @Test
+    public void hsv_primaryColors() throws Exception {
+        assertEquals(0xFFFF0000, ColorTables.hsv(0, 255));
+        assertEquals(0xFF00FF00, ColorTables.hsv(85, 255));
+        assertEquals(0xFF0000FF, ColorTables.hsv(171, 255));
+    }
+
+    @Test
+    public void hsv_zeroIntensityIsBlack() throws Exception {
+        assertEquals(0xFF000000, ColorTables.hsv(42, 0));
+    }
+
+    @Test
+    public void scale_isGammaCorrected() throws Exception {
+        int red = (ColorTables.scale(0xFFFFFF, 128) >> 16) & 0xFF;
+        // half intensity is a lot less than half of the pwm duty cycle
+        assertTrue(red > 40 && red < 70);
+    }
+
+    @Test
+    public void wave_coversFullRange() throws Exception {
+        assertEquals(128, ColorTables.wave(0));
+        assertEquals(255, ColorTables.wave(ColorTables.STEPS / 4));
+        assertEquals(0, ColorTables.wave(3 * ColorTables.STEPS / 4));
+        assertEquals(ColorTables.wave(10), ColorTables.wave(10 + ColorTables.STEPS));
+    }
+}
@@ -0,0 +1,144 @@
+package com.vojtkovszky.rainbowhathub.events;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EventBusTest {
+
+    private EventBus eventBus;
+
+    @Before
+    public void setUp() throws Exception {
+        eventBus = new EventBus();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        eventBus.shutdown();
+    }
+
+    @Test
+    public void publish_deliversToSubscribersOfType() throws Exception {
+        RecordingSubscriber gestures = new RecordingSubscriber(null);
+        RecordingSubscriber samples = new RecordingSubscriber(null);
+        eventBus.subscribe("gestures", gestures, EventBus.Policy.DROP_OLDEST, EventBus.TYPE_GESTURE);
+        eventBus.subscribe("samples", samples, EventBus.Policy.DROP_OLDEST, EventBus.TYPE_SENSOR_SAMPLE);
+
+        eventBus.publish(EventBus.TYPE_GESTURE, 2, 5, 0);
+        eventBus.publish(EventBus.TYPE_SENSOR_SAMPLE, 1, 0, 1013.25f);
+
+        gestures.await(1);
+        samples.await(1);
+        assertEquals("1 2 5 0.0", gestures.get(0));
+        assertEquals("0 1 0 1013.25", samples.get(0));
+        assertEquals(1, gestures.size());
+    }
+
+    @Test
+    public void dropOldest_keepsNewestWhenSubscriberIsSlow() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSubscriber subscriber = new RecordingSubscriber(release);
+        EventBus.Subscription subscription = eventBus.subscribe("slow", subscriber,
+                EventBus.Policy.DROP_OLDEST, 4, new int[] {EventBus.TYPE_GESTURE});
+
+        // first one gets stuck in the subscriber, the rest overflow its queue of 4
+        eventBus.publish(EventBus.TYPE_GESTURE, 0, 0, 0);
+        Thread.sleep(50);
+        for (int i = 1; i <= 10; i++)
+            eventBus.publish(EventBus.TYPE_GESTURE, 0, i, 0);
+        release.countDown();
+
+        subscriber.await(5);
+        Thread.sleep(50);
+        assertEquals(5, subscriber.size());
+        assertEquals("1 0 7 0.0", subscriber.get(1));
+        assertEquals("1 0 10 0.0", subscriber.get(4));
+        assertEquals(6, subscription.getDroppedCount());
+    }
+
+    @Test
+    public void coalesceLatest_keepsLatestPerSource() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSubscriber subscriber = new RecordingSubscriber(release);
+        eventBus.subscribe("display", subscriber, EventBus.Policy.COALESCE_LATEST,
+                EventBus.TYPE_SENSOR_SAMPLE);
+
+        eventBus.publish(EventBus.TYPE_SENSOR_SAMPLE, 0, 0, 1);
+        Thread.sleep(50);
+        for (int i = 2; i <= 5; i++) {
+            eventBus.publish(EventBus.TYPE_SENSOR_SAMPLE, 0, 0, i);
+            eventBus.publish(EventBus.TYPE_SENSOR_SAMPLE, 1, 0, i * 100);
+        }
+        release.countDown();
+
+        subscriber.await(3);
+        Thread.sleep(50);
+        // no ordering between different sources
+        assertEquals(3, subscriber.size());
+        assertTrue(subscriber.contains("0 0 0 5.0"));
+        assertTrue(subscriber.contains("0 1 0 500.0"));
+    }
+
+    @Test
+    public void block_deliversEverything() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber(null);
+        EventBus.Subscription subscription = eventBus.subscribe("all", subscriber,
+                EventBus.Policy.BLOCK, 2, new int[] {EventBus.TYPE_MODE_CHANGED});
+
+        for (int i = 0; i < 100; i++)
+            eventBus.publish(EventBus.TYPE_MODE_CHANGED, 0, i, 0);
+
+        subscriber.await(100);
+        assertEquals("2 0 99 0.0", subscriber.get(99));
+        assertEquals(0, subscription.getDroppedCount());
+    }
+
+    private static class RecordingSubscriber implements EventBus.Subscriber {
+        private final CountDownLatch release;
+        private final List<String> events = new ArrayList<>();
+
+        RecordingSubscriber(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void onEvent(int type, int source, int code, float value, long timestampNs) {
+            synchronized (this) {
+                events.add(type + " " + source + " " + code + " " + value);
+                notifyAll();
+            }
+            if (release != null) {
+                try {
+                    release.await(1, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException ignore) {}
+            }
+        }
+
+        synchronized void await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 1000;
+            while (events.size() < count && System.currentTimeMillis() < deadline)
+                wait(10);
+        }
+
+        synchronized int size() {
+            return events.size();
+        }
+
+        synchronized boolean contains(String event) {
+            return events.contains(event);
+        }
+
+        synchronized String get(int index) {
+            return events.get(index);
+        }
+    }
+}
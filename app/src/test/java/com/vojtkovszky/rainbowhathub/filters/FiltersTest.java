@@ -0,0 +1,92 @@
+package com.vojtkovszky.rainbowhathub.filters;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FiltersTest {
+
+    @Test
+    public void median_matchesSortedWindow() throws Exception {
+        MedianFilter filter = new MedianFilter(5);
+        Random random = new Random(0);
+        float[] values = new float[200];
+        for (int i = 0; i < values.length; i++) {
+            // repeated values included
+            values[i] = random.nextInt(20);
+            float[] window = Arrays.copyOfRange(values, Math.max(0, i - 4), i + 1);
+            Arrays.sort(window);
+            float expected = window.length % 2 == 1 ? window[window.length / 2]
+                    : (window[window.length / 2 - 1] + window[window.length / 2]) / 2;
+            assertEquals(expected, filter.filter(values[i]), 0);
+        }
+    }
+
+    @Test
+    public void median_dropsSingleOutlier() throws Exception {
+        MedianFilter filter = new MedianFilter(3);
+        filter.filter(20);
+        filter.filter(20);
+        assertEquals(20, filter.filter(85), 0);
+        assertEquals(20, filter.filter(20), 0);
+    }
+
+    @Test
+    public void median_skipsNaN() throws Exception {
+        MedianFilter filter = new MedianFilter(3);
+        assertTrue(Float.isNaN(filter.filter(Float.NaN)));
+        filter.filter(20);
+        filter.filter(21);
+        filter.filter(22);
+        assertEquals(21, filter.filter(Float.NaN), 0);
+        // window keeps rolling over the held values only
+        assertEquals(22, filter.filter(23), 0);
+        assertEquals(23, filter.filter(24), 0);
+    }
+
+    @Test
+    public void exponential_convergesToStep() throws Exception {
+        ExponentialFilter filter = new ExponentialFilter(0.5f);
+        assertEquals(10, filter.filter(10), 0);
+        assertEquals(15, filter.filter(20), 0);
+        assertEquals(17.5f, filter.filter(20), 0);
+
+        filter.reset();
+        assertEquals(30, filter.filter(30), 0);
+    }
+
+    @Test
+    public void kalman_reducesNoise() throws Exception {
+        KalmanFilter filter = new KalmanFilter(0.001f, 1);
+        Random random = new Random(0);
+        float maxError = 0;
+        for (int i = 0; i < 500; i++) {
+            float value = filter.filter(1000 + (float) random.nextGaussian());
+            if (i >= 100)
+                maxError = Math.max(maxError, Math.abs(value - 1000));
+        }
+        assertTrue(maxError < 0.5f);
+    }
+
+    @Test
+    public void deadband_holdsSmallChanges() throws Exception {
+        DeadbandFilter filter = new DeadbandFilter(0.5f);
+        assertEquals(20, filter.filter(20), 0);
+        assertEquals(20, filter.filter(20.4f), 0);
+        assertEquals(20, filter.filter(19.6f), 0);
+        assertEquals(20.5f, filter.filter(20.5f), 0);
+    }
+
+    @Test
+    public void chain_appliesFiltersInOrder() throws Exception {
+        FilterChain chain = new FilterChain(new MedianFilter(3), new DeadbandFilter(1));
+        chain.filter(10);
+        chain.filter(10);
+        // outlier removed before reaching the deadband
+        assertEquals(10, chain.filter(50), 0);
+        assertEquals(10, chain.filter(10.5f), 0);
+    }
+}
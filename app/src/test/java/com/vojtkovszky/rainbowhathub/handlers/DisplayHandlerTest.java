@@ -0,0 +1,136 @@
+package com.vojtkovszky.rainbowhathub.handlers;
+
+import com.vojtkovszky.rainbowhathub.hat.BoardDefaults;
+import com.vojtkovszky.rainbowhathub.hat.ComponentsManager;
+import com.vojtkovszky.rainbowhathub.hat.DriverFactory;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedBoardDefaults;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedDisplay;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedDriverProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Formatting of values for the 4 digit display, and rate limiting against the simulated one.
+ */
+public class DisplayHandlerTest {
+
+    private final char[] chars = new char[DisplayHandler.DISPLAY_LENGTH];
+    private final boolean[] dots = new boolean[DisplayHandler.DISPLAY_LENGTH];
+
+    private ComponentsManager componentsManager;
+    private DisplayRenderer renderer;
+    private DisplayHandler handler;
+    private SimulatedDisplay display;
+
+    @Before
+    public void setUp() throws Exception {
+        BoardDefaults board = new SimulatedBoardDefaults();
+        SimulatedDriverProvider provider = SimulatedDriverProvider.withoutLatency();
+        DriverFactory.setDriverProvider(provider, board);
+
+        componentsManager = new ComponentsManager();
+        componentsManager.initComponents(ComponentsManager.Component.DISPLAY);
+        renderer = new DisplayRenderer(componentsManager);
+        handler = new DisplayHandler(componentsManager, renderer);
+        display = provider.getDisplay(board.getI2cBus());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        handler.release();
+        renderer.release();
+        componentsManager.closeAll();
+    }
+
+    @Test
+    public void valuesWithinRefreshInterval_coalescedToLatest() throws Exception {
+        handler.showValue(1);
+        awaitText("1.000", 1000);
+        long shownMs = System.currentTimeMillis();
+
+        handler.showValue(2);
+        handler.showValue(3);
+        // nothing else shows until the refresh interval passes, then only the latest value
+        long deadlineMs = shownMs + 5000;
+        while (!"3.000".equals(display.getText()) && System.currentTimeMillis() < deadlineMs) {
+            assertEquals("1.000", display.getText());
+            Thread.sleep(5);
+        }
+        assertEquals("3.000", display.getText());
+        assertTrue(System.currentTimeMillis() - shownMs >= 1900);
+    }
+
+    @Test
+    public void reset_letsNextValueShowRightAway() throws Exception {
+        handler.showValue(1);
+        awaitText("1.000", 1000);
+
+        handler.reset();
+        handler.showValue(2);
+        awaitText("2.000", 1000);
+    }
+
+    @Test
+    public void format_negativeRoundingToZeroHasNoSign() throws Exception {
+        DisplayHandler.formatValue(-0.001f, chars, dots);
+        assertArrayEquals("0000".toCharArray(), chars);
+        assertTrue(dots[0]);
+    }
+
+    @Test
+    public void format_usesRemainingDigitsForDecimals() throws Exception {
+        DisplayHandler.formatValue(23.456f, chars, dots);
+        assertArrayEquals("2346".toCharArray(), chars);
+        assertTrue(dots[1]);
+        assertFalse(dots[3]);
+    }
+
+    @Test
+    public void format_negativeValue() throws Exception {
+        DisplayHandler.formatValue(-5.3f, chars, dots);
+        assertArrayEquals("-530".toCharArray(), chars);
+        assertTrue(dots[1]);
+    }
+
+    @Test
+    public void format_roundingCarriesIntoIntegerPart() throws Exception {
+        DisplayHandler.formatValue(9.9999f, chars, dots);
+        assertArrayEquals("1000".toCharArray(), chars);
+        assertTrue(dots[1]);
+    }
+
+    @Test
+    public void format_fourIntegerDigitsHaveNoDecimals() throws Exception {
+        DisplayHandler.formatValue(1013.25f, chars, dots);
+        assertArrayEquals("1013".toCharArray(), chars);
+        for (boolean dot : dots)
+            assertFalse(dot);
+    }
+
+    @Test
+    public void format_tooLargeValueShowsDashes() throws Exception {
+        DisplayHandler.formatValue(10000f, chars, dots);
+        assertArrayEquals("----".toCharArray(), chars);
+    }
+
+    @Test
+    public void formatLong_keepsTwoDecimals() throws Exception {
+        char[] text = new char[32];
+        int length = DisplayHandler.formatLongValue(1013.257f, text);
+        assertEquals("1013.26", new String(text, 0, length));
+
+        length = DisplayHandler.formatLongValue(-150.5f, text);
+        assertEquals("-150.50", new String(text, 0, length));
+    }
+
+    private void awaitText(String text, long timeoutMs) throws InterruptedException {
+        long deadlineMs = System.currentTimeMillis() + timeoutMs;
+        while (!text.equals(display.getText()) && System.currentTimeMillis() < deadlineMs)
+            Thread.sleep(5);
+        assertEquals(text, display.getText());
+    }
+}
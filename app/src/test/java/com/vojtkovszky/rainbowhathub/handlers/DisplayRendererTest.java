@@ -0,0 +1,148 @@
+package com.vojtkovszky.rainbowhathub.handlers;
+
+import com.vojtkovszky.rainbowhathub.hat.BoardDefaults;
+import com.vojtkovszky.rainbowhathub.hat.BusExecutor;
+import com.vojtkovszky.rainbowhathub.hat.ComponentsManager;
+import com.vojtkovszky.rainbowhathub.hat.DriverFactory;
+import com.vojtkovszky.rainbowhathub.hat.SegmentFont;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatDisplay;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedBoardDefaults;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedDisplay;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedDriverProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Renders against the simulated display, in real time.
+ */
+public class DisplayRendererTest {
+
+    private SimulatedDriverProvider provider;
+    private ComponentsManager componentsManager;
+    private DisplayRenderer renderer;
+    private SimulatedDisplay display;
+
+    @Before
+    public void setUp() throws Exception {
+        BoardDefaults board = new SimulatedBoardDefaults();
+        provider = SimulatedDriverProvider.withoutLatency();
+        DriverFactory.setDriverProvider(provider, board);
+
+        componentsManager = new ComponentsManager();
+        componentsManager.initComponents(ComponentsManager.Component.DISPLAY);
+        // reopening would restore the frame on its own
+        componentsManager.getHealthSupervisor().setFailureThreshold(100);
+        renderer = new DisplayRenderer(componentsManager);
+        display = provider.getDisplay(board.getI2cBus());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        renderer.release();
+        componentsManager.closeAll();
+    }
+
+    @Test
+    public void dots_mergedIntoPreviousDigit() throws Exception {
+        renderer.show("23.46");
+        awaitWritten();
+
+        assertEquals("23.46", display.getText());
+        assertEquals(SegmentFont.glyph('3') | SegmentFont.DOT, display.getSegments(1));
+    }
+
+    @Test
+    public void onlyChangedDigits_written() throws Exception {
+        renderer.show("1013");
+        awaitWritten();
+        long writeCount = display.getDigitWriteCount();
+
+        renderer.show("1014");
+        awaitWritten();
+        assertEquals("1014", display.getText());
+        assertEquals(writeCount + 1, display.getDigitWriteCount());
+
+        renderer.show("1014");
+        awaitWritten();
+        assertEquals(writeCount + 1, display.getDigitWriteCount());
+    }
+
+    @Test
+    public void longText_scrollsAndComesRound() throws Exception {
+        renderer.setScrollInterval(50);
+        renderer.show("1013.25");
+        awaitWritten();
+        assertEquals("1013.", display.getText());
+
+        awaitText("013.2");
+        awaitText("3.25 ");
+        awaitText("1013.");
+    }
+
+    @Test
+    public void blinking_blanksEveryOtherInterval() throws Exception {
+        renderer.show("AB");
+        renderer.setBlinkInterval(50);
+
+        awaitText("    ");
+        awaitText("AB  ");
+        renderer.setBlinkInterval(0);
+        awaitWritten();
+        assertEquals("AB  ", display.getText());
+    }
+
+    @Test
+    public void displaySettings_written() throws Exception {
+        renderer.setBrightness(0.5f);
+        renderer.setBlinkRate(HatDisplay.BLINK_1HZ);
+        awaitWritten();
+
+        assertEquals(0.5f, display.getBrightness(), 0);
+        assertEquals(HatDisplay.BLINK_1HZ, display.getBlinkRate());
+    }
+
+    @Test
+    public void failedWrite_ofStaticFrame_retried() throws Exception {
+        provider.getBus(BusExecutor.Bus.I2C).failNextOperations(2);
+        renderer.show("HOLD");
+
+        awaitText("HOLD");
+    }
+
+    @Test
+    public void show_afterRelease_ignored() throws Exception {
+        renderer.show("1013");
+        awaitWritten();
+        renderer.release();
+
+        renderer.show("ABCDEFGH");
+        Thread.sleep(2 * DisplayRenderer.DEFAULT_SCROLL_INTERVAL_MS);
+        awaitWritten();
+        assertEquals("1013", display.getText());
+    }
+
+    private void awaitText(String text) throws InterruptedException {
+        long deadlineMs = System.currentTimeMillis() + 5000;
+        while (!text.equals(display.getText()) && System.currentTimeMillis() < deadlineMs)
+            Thread.sleep(5);
+        assertEquals(text, display.getText());
+    }
+
+    private void awaitWritten() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        componentsManager.getExecutor(BusExecutor.Bus.I2C).submit(new BusExecutor.Command() {
+            @Override
+            protected void execute() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+}
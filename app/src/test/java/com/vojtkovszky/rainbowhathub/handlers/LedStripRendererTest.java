@@ -0,0 +1,88 @@
+package com.vojtkovszky.rainbowhathub.handlers;
+
+import com.vojtkovszky.rainbowhathub.hat.BoardDefaults;
+import com.vojtkovszky.rainbowhathub.hat.BusExecutor;
+import com.vojtkovszky.rainbowhathub.hat.ComponentsManager;
+import com.vojtkovszky.rainbowhathub.hat.DriverFactory;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedBoardDefaults;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedDriverProvider;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedLedStrip;
+import com.vojtkovszky.rainbowhathub.metrics.ComponentMetrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Renders against the simulated strip, in real time.
+ */
+public class LedStripRendererTest {
+
+    private SimulatedDriverProvider provider;
+    private ComponentsManager componentsManager;
+    private LedStripRenderer renderer;
+    private SimulatedLedStrip strip;
+
+    @Before
+    public void setUp() throws Exception {
+        BoardDefaults board = new SimulatedBoardDefaults();
+        provider = SimulatedDriverProvider.withoutLatency();
+        DriverFactory.setDriverProvider(provider, board);
+
+        componentsManager = new ComponentsManager();
+        componentsManager.initComponents(ComponentsManager.Component.LED_STRIP);
+        // reopening would restore the frame on its own
+        componentsManager.getHealthSupervisor().setFailureThreshold(100);
+        renderer = new LedStripRenderer(componentsManager);
+        strip = provider.getLedStrip(board.getSpiBus());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        renderer.release();
+        componentsManager.closeAll();
+    }
+
+    @Test
+    public void failedWrite_ofLastFrame_retried() throws Exception {
+        provider.getBus(BusExecutor.Bus.SPI).failNextOperations(2);
+        renderer.setBrightness(5);
+        // single frame, rendering stops right after it
+        renderer.start(new LedStripRenderer.FrameProducer() {
+            @Override
+            public boolean produceFrame(int[] frame, long frameTimeMs) {
+                frame[0] = 0xFFFF0000;
+                return false;
+            }
+        });
+
+        long deadlineMs = System.currentTimeMillis() + 5000;
+        while (strip.getColors()[0] != 0xFFFF0000 && System.currentTimeMillis() < deadlineMs)
+            Thread.sleep(10);
+        assertEquals(0xFFFF0000, strip.getColors()[0]);
+        assertEquals(5, strip.getWrittenBrightness());
+    }
+
+    @Test
+    public void failingWrites_retriedOnlyAFewTimes() throws Exception {
+        provider.getBus(BusExecutor.Bus.SPI).failNextOperations(100);
+        renderer.setBrightness(5);
+        renderer.start(new LedStripRenderer.FrameProducer() {
+            @Override
+            public boolean produceFrame(int[] frame, long frameTimeMs) {
+                frame[0] = 0xFFFF0000;
+                return false;
+            }
+        });
+
+        // a frame apart each, done well within a second
+        Thread.sleep(1000);
+        ComponentMetrics.Snapshot snapshot = componentsManager.getMetricsSnapshot()
+                [ComponentsManager.Component.LED_STRIP.ordinal()];
+        // first write and three retries
+        assertEquals(4, snapshot.getErrorCount());
+        assertEquals(0, strip.getColors()[0]);
+    }
+}
@@ -0,0 +1,131 @@
+package com.vojtkovszky.rainbowhathub.handlers;
+
+import com.vojtkovszky.rainbowhathub.hat.BoardDefaults;
+import com.vojtkovszky.rainbowhathub.hat.BusExecutor;
+import com.vojtkovszky.rainbowhathub.hat.ComponentsManager;
+import com.vojtkovszky.rainbowhathub.hat.DriverFactory;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedBoardDefaults;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedDriverProvider;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedServo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Moves against the simulated servo, in real time.
+ */
+public class ServoHandlerTest {
+
+    private ComponentsManager componentsManager;
+    private ServoHandler servoHandler;
+    private SimulatedServo servo;
+
+    @Before
+    public void setUp() throws Exception {
+        BoardDefaults board = new SimulatedBoardDefaults();
+        SimulatedDriverProvider provider = SimulatedDriverProvider.withoutLatency();
+        DriverFactory.setDriverProvider(provider, board);
+
+        componentsManager = new ComponentsManager();
+        componentsManager.initComponents(ComponentsManager.Component.SERVO);
+        servoHandler = new ServoHandler(componentsManager);
+        servo = provider.getServo(board.getServoPwm());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        componentsManager.closeAll();
+    }
+
+    @Test
+    public void trapezoidalMove_takesLimitedTime() throws Exception {
+        servoHandler.setTarget(0);
+        long startMs = System.currentTimeMillis();
+        // half way accelerating to max velocity, other half decelerating, 1 second total
+        servoHandler.setTarget(90);
+        awaitStopped();
+
+        long durationMs = System.currentTimeMillis() - startMs;
+        assertTrue("Took " + durationMs + " ms", durationMs >= 900 && durationMs < 2000);
+        assertEquals(90, servo.getAngle(), 0.2);
+    }
+
+    @Test
+    public void sCurveMove_reachesTarget() throws Exception {
+        servoHandler.setProfile(ServoHandler.Profile.S_CURVE, 360, 3600);
+        servoHandler.setTarget(180);
+        servoHandler.setTarget(20);
+        awaitStopped();
+
+        assertEquals(20, servo.getAngle(), 0.2);
+    }
+
+    @Test
+    public void newTarget_preemptsMove() throws Exception {
+        servoHandler.setTarget(0);
+        servoHandler.setTarget(180);
+        Thread.sleep(300);
+        servoHandler.setTarget(10);
+        awaitStopped();
+
+        assertEquals(10, servo.getAngle(), 0.2);
+    }
+
+    @Test
+    public void unchangedPulse_notWritten() throws Exception {
+        servoHandler.setTarget(45);
+        awaitStopped();
+        long writeCount = servo.getWriteCount();
+
+        // well below a microsecond of pulse width
+        servoHandler.setTarget(45.01);
+        awaitStopped();
+        assertEquals(writeCount, servo.getWriteCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nanTarget_rejected() throws Exception {
+        servoHandler.setTarget(30);
+        servoHandler.setTarget(Double.NaN);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void infiniteTarget_rejected() throws Exception {
+        servoHandler.setTarget(30);
+        servoHandler.setTarget(Double.POSITIVE_INFINITY);
+    }
+
+    @Test
+    public void nanValue_leavesGauge() throws Exception {
+        servoHandler.showValue(30, 0, 180, 0, 180);
+        awaitStopped();
+
+        servoHandler.showValue(Float.NaN, 0, 180, 0, 180);
+        assertFalse(servoHandler.isMoving());
+        awaitStopped();
+        assertEquals(30, servo.getAngle(), 0.2);
+    }
+
+    private void awaitStopped() throws InterruptedException {
+        long deadlineMs = System.currentTimeMillis() + 5000;
+        while (servoHandler.isMoving() && System.currentTimeMillis() < deadlineMs)
+            Thread.sleep(10);
+        assertFalse(servoHandler.isMoving());
+
+        // lets last write through
+        final CountDownLatch latch = new CountDownLatch(1);
+        componentsManager.getExecutor(BusExecutor.Bus.PWM).submit(new BusExecutor.Command() {
+            @Override
+            protected void execute() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,74 @@
+package com.vojtkovszky.rainbowhathub.handlers;
+
+import com.vojtkovszky.rainbowhathub.hat.BoardDefaults;
+import com.vojtkovszky.rainbowhathub.hat.ComponentsManager;
+import com.vojtkovszky.rainbowhathub.hat.DriverFactory;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedBoardDefaults;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedDriverProvider;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedSpeaker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tone sequencing against the simulated speaker, waiting notes out in real time.
+ */
+public class SpeakerTonesHandlerTest {
+
+    private ComponentsManager componentsManager;
+    private SpeakerTonesHandler speakerTonesHandler;
+    private SimulatedSpeaker speaker;
+
+    @Before
+    public void setUp() throws Exception {
+        BoardDefaults board = new SimulatedBoardDefaults();
+        SimulatedDriverProvider provider = SimulatedDriverProvider.withoutLatency();
+        DriverFactory.setDriverProvider(provider, board);
+
+        componentsManager = new ComponentsManager();
+        componentsManager.initComponents(ComponentsManager.Component.SPEAKER);
+        speakerTonesHandler = new SpeakerTonesHandler(componentsManager);
+        speaker = provider.getSpeaker(board.getPiezoPwm());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        componentsManager.closeAll();
+    }
+
+    @Test
+    public void playTone_stopsAfterDuration() throws Exception {
+        assertTrue(speakerTonesHandler.playTone(440, 50, SpeakerTonesHandler.PRIORITY_FEEDBACK));
+        Thread.sleep(20);
+        assertTrue(speaker.isPlaying());
+        assertEquals(440, speaker.getFrequency(), 0);
+
+        Thread.sleep(150);
+        assertFalse(speaker.isPlaying());
+        assertFalse(speakerTonesHandler.isPlaying());
+    }
+
+    @Test
+    public void playSequence_playsAllNotes() throws Exception {
+        speakerTonesHandler.playSequence(new double[] {440, 0, 880}, new long[] {30, 30, 30},
+                SpeakerTonesHandler.PRIORITY_NOTIFICATION);
+        Thread.sleep(250);
+
+        assertEquals(2, speaker.getPlayCount());
+        assertEquals(880, speaker.getFrequency(), 0);
+        assertFalse(speaker.isPlaying());
+    }
+
+    @Test
+    public void lowerPriority_isRejectedWhilePlaying() throws Exception {
+        speakerTonesHandler.playTone(880, 200, SpeakerTonesHandler.PRIORITY_ALARM);
+
+        assertFalse(speakerTonesHandler.playTone(440));
+        assertTrue(speakerTonesHandler.playTone(220, 50, SpeakerTonesHandler.PRIORITY_ALARM));
+        Thread.sleep(20);
+        assertEquals(220, speaker.getFrequency(), 0);
+    }
+}
@@ -0,0 +1,67 @@
+package com.vojtkovszky.rainbowhathub.hat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+public class BoardProfileTest {
+
+    private static final String CHAINED_STRIP =
+            "profiles = hat\n"
+            + "hat.device = rpi3\n"
+            + "hat.i2c.bus = I2C1\n"
+            + "hat.spi.bus = SPI0.0\n"
+            + "hat.spi.frequency = 8000000\n"
+            + "hat.pwm.piezo = PWM1\n"
+            + "hat.pwm.servo = PWM0\n"
+            + "hat.button.a = BCM21\n"
+            + "hat.button.b = BCM20\n"
+            + "hat.button.c = BCM16\n"
+            + "hat.led.r = BCM6\n"
+            + "hat.led.g = BCM19\n"
+            + "hat.led.b = BCM26\n"
+            + "hat.ledstrip.length = 150\n"
+            + "hat.ledstrip.brightness = 4\n";
+
+    @Test
+    public void bundledProfiles_matchDevice() throws Exception {
+        BoardProfile profile = DriverFactory.loadBoardProfile("rpi3");
+        assertEquals("rpi3", profile.getName());
+        assertEquals("SPI0.0", profile.getSpiBus());
+        assertEquals("BCM21", profile.getButtonA());
+        assertEquals(7, profile.getLedStripLength());
+    }
+
+    @Test
+    public void bundledProfiles_unknownDeviceFallsBackToLast() throws Exception {
+        BoardProfile profile = DriverFactory.loadBoardProfile("unknown");
+        assertEquals("imx7d", profile.getName());
+        assertEquals("SPI3.1", profile.getSpiBus());
+        assertEquals("GPIO_37", profile.getLedB());
+    }
+
+    @Test
+    public void chainedStrip_settingsParsed() throws Exception {
+        BoardProfile profile = BoardProfile.load(stream(CHAINED_STRIP), "rpi3");
+        assertEquals(8000000, profile.getSpiFrequencyHz());
+        assertEquals(150, profile.getLedStripLength());
+        assertEquals(4, profile.getLedStripBrightness());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingKey_rejected() throws Exception {
+        BoardProfile.load(stream(CHAINED_STRIP.replace("hat.led.g = BCM19\n", "")), "rpi3");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void brightnessOutOfRange_rejected() throws Exception {
+        BoardProfile.load(stream(CHAINED_STRIP.replace("brightness = 4", "brightness = 40")), "rpi3");
+    }
+
+    private static InputStream stream(String text) throws Exception {
+        return new ByteArrayInputStream(text.getBytes("ISO-8859-1"));
+    }
+}
@@ -0,0 +1,134 @@
+package com.vojtkovszky.rainbowhathub.hat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Queueing and merging of commands.
+ */
+public class BusExecutorTest {
+
+    private BusExecutor executor;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new BusExecutor(BusExecutor.Bus.I2C, 4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdown(1000);
+    }
+
+    @Test
+    public void queuedCommand_mergesUpdates() throws Exception {
+        BlockingCommand blocker = new BlockingCommand();
+        executor.submit(blocker);
+        assertTrue(blocker.started.await(5, TimeUnit.SECONDS));
+
+        CountingCommand command = new CountingCommand();
+        for (int value = 1; value <= 3; value++) {
+            command.value = value;
+            assertTrue(executor.submit(command));
+        }
+        blocker.release.countDown();
+        executor.shutdown(5000);
+
+        assertEquals(1, command.executions.get());
+        assertEquals(3, command.lastValue);
+    }
+
+    @Test
+    public void updateWhileExecuting_executesAgain() throws Exception {
+        final CountDownLatch executing = new CountDownLatch(1);
+        final CountDownLatch resubmitted = new CountDownLatch(1);
+        final AtomicInteger executions = new AtomicInteger();
+        BusExecutor.Command command = new BusExecutor.Command() {
+            @Override
+            protected void execute() {
+                if (executions.incrementAndGet() == 1) {
+                    executing.countDown();
+                    await(resubmitted);
+                }
+            }
+        };
+
+        executor.submit(command);
+        assertTrue(executing.await(5, TimeUnit.SECONDS));
+        assertTrue(executor.submit(command));
+        resubmitted.countDown();
+        executor.shutdown(5000);
+
+        assertEquals(2, executions.get());
+    }
+
+    @Test
+    public void shutdown_drainsQueue() throws Exception {
+        BlockingCommand blocker = new BlockingCommand();
+        executor.submit(blocker);
+        assertTrue(blocker.started.await(5, TimeUnit.SECONDS));
+
+        CountingCommand[] commands = new CountingCommand[3];
+        for (int i = 0; i < commands.length; i++) {
+            commands[i] = new CountingCommand();
+            assertTrue(executor.submit(commands[i]));
+        }
+        blocker.release.countDown();
+        executor.shutdown(5000);
+
+        for (CountingCommand command : commands)
+            assertEquals(1, command.executions.get());
+        assertFalse(executor.submit(new CountingCommand()));
+    }
+
+    @Test
+    public void fullQueue_dropsCommand() throws Exception {
+        BlockingCommand blocker = new BlockingCommand();
+        executor.submit(blocker);
+        assertTrue(blocker.started.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 4; i++)
+            assertTrue(executor.submit(new CountingCommand()));
+        assertFalse(executor.submit(new CountingCommand()));
+        blocker.release.countDown();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class BlockingCommand extends BusExecutor.Command {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        protected void execute() {
+            started.countDown();
+            await(release);
+        }
+    }
+
+    private static class CountingCommand extends BusExecutor.Command {
+        final AtomicInteger executions = new AtomicInteger();
+        volatile int value;
+        volatile int lastValue;
+
+        @Override
+        protected void execute() {
+            lastValue = value;
+            executions.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.vojtkovszky.rainbowhathub.hat;
+
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatButton;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatDisplay;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatLed;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatLedStrip;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSensor;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatServo;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSpeaker;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedBoardDefaults;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedDriverProvider;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedServo;
+import com.vojtkovszky.rainbowhathub.metrics.ComponentMetrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Components lifecycle, run against the simulated HAT.
+ */
+public class ComponentsManagerTest {
+
+    private final BoardDefaults board = new SimulatedBoardDefaults();
+    private SimulatedDriverProvider provider;
+    private ComponentsManager componentsManager;
+
+    @Before
+    public void setUp() throws Exception {
+        provider = SimulatedDriverProvider.withoutLatency();
+        DriverFactory.setDriverProvider(provider, board);
+        componentsManager = new ComponentsManager();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        componentsManager.closeAll();
+    }
+
+    @Test
+    public void initAll_opensAllComponents() throws Exception {
+        componentsManager.initAll();
+
+        for (ComponentsManager.Component component : ComponentsManager.Component.values())
+            assertEquals(ComponentsManager.ComponentState.OPEN, componentsManager.getState(component));
+        assertTrue(provider.getDisplay(board.getI2cBus()).isEnabled());
+    }
+
+    @Test
+    public void setLedValue_writesLed() throws Exception {
+        componentsManager.initAll();
+        componentsManager.setLedValue(ComponentsManager.Component.BUTTON_LED_RED, true);
+        // lets queued I/O finish
+        componentsManager.closeAll();
+
+        assertTrue(provider.getLed(board.getLedR()).getValue());
+        assertTrue(provider.getLed(board.getLedR()).isClosed());
+    }
+
+    @Test
+    public void ledWrites_areMeasured() throws Exception {
+        componentsManager.initAll();
+        componentsManager.setLedValue(ComponentsManager.Component.BUTTON_LED_GREEN, true);
+        componentsManager.closeAll();
+
+        ComponentMetrics.Snapshot snapshot = componentsManager.getMetricsSnapshot()
+                [ComponentsManager.Component.BUTTON_LED_GREEN.ordinal()];
+        // one write on init, one on set
+        assertEquals(2, snapshot.getOperationCount());
+        assertEquals(0, snapshot.getErrorCount());
+        assertEquals(2, snapshot.getLatency().getCount());
+    }
+
+    @Test
+    public void lazyComponent_opensOnFirstUse() throws Exception {
+        componentsManager.setLazy(60000, ComponentsManager.Component.SERVO);
+        componentsManager.initAll();
+
+        assertEquals(ComponentsManager.ComponentState.CLOSED,
+                componentsManager.getState(ComponentsManager.Component.SERVO));
+        assertNotNull(getServoOnExecutor());
+        assertEquals(ComponentsManager.ComponentState.OPEN,
+                componentsManager.getState(ComponentsManager.Component.SERVO));
+    }
+
+    @Test
+    public void lazyComponent_closedWhenIdleAndReopenedOnUse() throws Exception {
+        componentsManager.setLazy(100, ComponentsManager.Component.SERVO);
+        componentsManager.initAll();
+        getServoOnExecutor();
+        SimulatedServo opened = provider.getServo(board.getServoPwm());
+
+        // idle components are checked for once a second
+        long deadlineMs = System.currentTimeMillis() + 5000;
+        while (componentsManager.getState(ComponentsManager.Component.SERVO) != ComponentsManager.ComponentState.CLOSED
+                && System.currentTimeMillis() < deadlineMs)
+            Thread.sleep(20);
+        assertEquals(ComponentsManager.ComponentState.CLOSED,
+                componentsManager.getState(ComponentsManager.Component.SERVO));
+        assertTrue(opened.isClosed());
+
+        assertNotNull(getServoOnExecutor());
+        assertEquals(ComponentsManager.ComponentState.OPEN,
+                componentsManager.getState(ComponentsManager.Component.SERVO));
+        SimulatedServo reopened = provider.getServo(board.getServoPwm());
+        assertNotSame(opened, reopened);
+        assertFalse(reopened.isClosed());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void lazyComponent_notRetrievableOffItsExecutor() throws Exception {
+        componentsManager.setLazy(60000, ComponentsManager.Component.SERVO);
+        componentsManager.getServo();
+    }
+
+    @Test
+    public void buttonEvents_routedById() throws Exception {
+        componentsManager.initAll();
+        final int[] lastEvent = {-1, 0};
+        componentsManager.setButtonListeners(new ComponentsManager.ButtonListener() {
+            @Override
+            public void onButtonEvent(int buttonId, boolean pressed) {
+                lastEvent[0] = buttonId;
+                lastEvent[1] = pressed ? 1 : 0;
+            }
+        });
+
+        provider.getButton(board.getButtonB()).press();
+        assertEquals(ComponentsManager.BUTTON_ID_B, lastEvent[0]);
+        assertEquals(1, lastEvent[1]);
+
+        provider.getButton(board.getButtonC()).release();
+        assertEquals(ComponentsManager.BUTTON_ID_C, lastEvent[0]);
+        assertEquals(0, lastEvent[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void inputComponent_cantBeLazy() throws Exception {
+        componentsManager.setLazy(60000, ComponentsManager.Component.BUTTON_A);
+    }
+
+    @Test
+    public void componentsOnDifferentBuses_initializedInParallel() throws Exception {
+        DriverFactory.setDriverProvider(new SlowOpeningProvider(provider, 300, null), board);
+
+        long startMs = System.currentTimeMillis();
+        componentsManager.initComponents(ComponentsManager.Component.DISPLAY,
+                ComponentsManager.Component.LED_STRIP, ComponentsManager.Component.SERVO);
+        long durationMs = System.currentTimeMillis() - startMs;
+
+        assertTrue("Took " + durationMs + " ms", durationMs < 800);
+        assertEquals(ComponentsManager.ComponentState.OPEN,
+                componentsManager.getState(ComponentsManager.Component.LED_STRIP));
+    }
+
+    @Test
+    public void dependency_openedFirst() throws Exception {
+        final ComponentsManager.ComponentState[] ledStateOnButtonOpen = new ComponentsManager.ComponentState[1];
+        DriverFactory.setDriverProvider(new SlowOpeningProvider(provider, 200, null) {
+            @Override
+            public HatButton openButton(String pin) throws IOException {
+                ledStateOnButtonOpen[0] = componentsManager.getState(ComponentsManager.Component.BUTTON_LED_RED);
+                return super.openButton(pin);
+            }
+        }, board);
+
+        componentsManager.initComponents(ComponentsManager.Component.BUTTON_A,
+                ComponentsManager.Component.BUTTON_LED_RED);
+
+        assertEquals(ComponentsManager.ComponentState.OPEN, ledStateOnButtonOpen[0]);
+        assertEquals(ComponentsManager.ComponentState.OPEN,
+                componentsManager.getState(ComponentsManager.Component.BUTTON_A));
+    }
+
+    @Test
+    public void failingDependency_doesntHoldUpDependent() throws Exception {
+        DriverFactory.setDriverProvider(new SlowOpeningProvider(provider, 0, board.getLedR()), board);
+
+        long startMs = System.currentTimeMillis();
+        componentsManager.initComponents(ComponentsManager.Component.BUTTON_LED_RED,
+                ComponentsManager.Component.BUTTON_A);
+        long durationMs = System.currentTimeMillis() - startMs;
+
+        assertTrue("Took " + durationMs + " ms", durationMs < 1000);
+        assertEquals(ComponentsManager.ComponentState.CLOSED,
+                componentsManager.getState(ComponentsManager.Component.BUTTON_LED_RED));
+        assertEquals(ComponentsManager.ComponentState.OPEN,
+                componentsManager.getState(ComponentsManager.Component.BUTTON_A));
+        assertEquals(1, componentsManager.getMetricsSnapshot()
+                [ComponentsManager.Component.BUTTON_LED_RED.ordinal()].getErrorCount());
+    }
+
+    private HatServo getServoOnExecutor() throws InterruptedException {
+        final HatServo[] servo = new HatServo[1];
+        final CountDownLatch latch = new CountDownLatch(1);
+        componentsManager.getExecutor(BusExecutor.Bus.PWM).submit(new BusExecutor.Command() {
+            @Override
+            protected void execute() {
+                servo[0] = componentsManager.getServo();
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        return servo[0];
+    }
+
+    /**
+     * Takes given time to open each output, and fails opening the led on given pin.
+     */
+    private static class SlowOpeningProvider implements DriverProvider {
+        private final DriverProvider provider;
+        private final long openingMs;
+        private final String failingLedPin;
+
+        SlowOpeningProvider(DriverProvider provider, long openingMs, String failingLedPin) {
+            this.provider = provider;
+            this.openingMs = openingMs;
+            this.failingLedPin = failingLedPin;
+        }
+
+        @Override
+        public HatDisplay openDisplay(String i2cBus) throws IOException {
+            sleep();
+            return provider.openDisplay(i2cBus);
+        }
+
+        @Override
+        public HatLedStrip openLedStrip(String spiBus, int spiFrequencyHz, int length) throws IOException {
+            sleep();
+            return provider.openLedStrip(spiBus, spiFrequencyHz, length);
+        }
+
+        @Override
+        public HatSensor openSensor(String i2cBus) throws IOException {
+            sleep();
+            return provider.openSensor(i2cBus);
+        }
+
+        @Override
+        public HatLed openLed(String pin) throws IOException {
+            sleep();
+            if (pin.equals(failingLedPin))
+                throw new IOException("Simulated failure opening " + pin);
+            return provider.openLed(pin);
+        }
+
+        @Override
+        public HatButton openButton(String pin) throws IOException {
+            return provider.openButton(pin);
+        }
+
+        @Override
+        public HatSpeaker openSpeaker(String pwm) throws IOException {
+            sleep();
+            return provider.openSpeaker(pwm);
+        }
+
+        @Override
+        public HatServo openServo(String pwm) throws IOException {
+            sleep();
+            return provider.openServo(pwm);
+        }
+
+        private void sleep() {
+            try {
+                Thread.sleep(openingMs);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.vojtkovszky.rainbowhathub.hat;
+
+import com.vojtkovszky.rainbowhathub.handlers.DisplayRenderer;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedBoardDefaults;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedDisplay;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedDriverProvider;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedLed;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Recovery of components against simulated bus failures.
+ */
+public class HealthSupervisorTest {
+
+    private BoardDefaults board;
+    private SimulatedDriverProvider provider;
+    private ComponentsManager componentsManager;
+    private HealthSupervisor supervisor;
+
+    @Before
+    public void setUp() throws Exception {
+        board = new SimulatedBoardDefaults();
+        provider = SimulatedDriverProvider.withoutLatency();
+        DriverFactory.setDriverProvider(provider, board);
+
+        componentsManager = new ComponentsManager();
+        supervisor = componentsManager.getHealthSupervisor();
+        supervisor.setFailureThreshold(1);
+        supervisor.setBackoff(10, 40);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        componentsManager.closeAll();
+    }
+
+    @Test
+    public void failingDisplay_reopenedWithTextRestored() throws Exception {
+        componentsManager.initComponents(ComponentsManager.Component.DISPLAY);
+        DisplayRenderer displayRenderer = new DisplayRenderer(componentsManager);
+        SimulatedDisplay failing = provider.getDisplay(board.getI2cBus());
+
+        provider.getBus(BusExecutor.Bus.I2C).failNextOperations(1);
+        displayRenderer.show("23.46");
+        awaitRecoveries(ComponentsManager.Component.DISPLAY, 1);
+
+        SimulatedDisplay reopened = provider.getDisplay(board.getI2cBus());
+        assertNotSame(failing, reopened);
+        assertTrue(failing.isClosed());
+        assertEquals("23.46", reopened.getText());
+        assertTrue(reopened.isEnabled());
+        assertTrue(supervisor.getLastRecoveryTimeMs(ComponentsManager.Component.DISPLAY) < 1000);
+    }
+
+    @Test
+    public void failingReopen_retriedUntilBusRecovers() throws Exception {
+        componentsManager.initComponents(ComponentsManager.Component.BUTTON_LED_RED);
+
+        // the write and a few reopening attempts after it fail
+        provider.getBus(BusExecutor.Bus.GPIO).failNextOperations(4);
+        componentsManager.setLedValue(ComponentsManager.Component.BUTTON_LED_RED, true);
+        awaitRecoveries(ComponentsManager.Component.BUTTON_LED_RED, 1);
+
+        SimulatedLed led = provider.getLed(board.getLedR());
+        assertFalse(led.isClosed());
+        assertTrue(led.getValue());
+        assertEquals(ComponentsManager.ComponentState.OPEN,
+                componentsManager.getState(ComponentsManager.Component.BUTTON_LED_RED));
+        assertEquals(0, supervisor.getConsecutiveFailures(ComponentsManager.Component.BUTTON_LED_RED));
+    }
+
+    private void awaitRecoveries(ComponentsManager.Component component, int count) throws InterruptedException {
+        long deadlineMs = System.currentTimeMillis() + 5000;
+        while (supervisor.getRecoveryCount(component) < count && System.currentTimeMillis() < deadlineMs)
+            Thread.sleep(10);
+        assertEquals(count, supervisor.getRecoveryCount(component));
+    }
+}
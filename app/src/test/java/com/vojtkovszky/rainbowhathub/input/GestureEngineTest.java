@@ -0,0 +1,113 @@
+package com.vojtkovszky.rainbowhathub.input;
+
+import com.vojtkovszky.rainbowhathub.hat.ComponentsManager;
+import com.vojtkovszky.rainbowhathub.timing.TimerWheel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Gesture recognition with short timeouts, waiting them out in real time.
+ */
+public class GestureEngineTest {
+
+    private static final int A = ComponentsManager.BUTTON_ID_A;
+    private static final int B = ComponentsManager.BUTTON_ID_B;
+
+    private TimerWheel timerWheel;
+    private GestureEngine gestureEngine;
+    private final List<String> gestures = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        timerWheel = new TimerWheel("test-timer", 1, 64);
+        gestureEngine = new GestureEngine(timerWheel);
+        gestureEngine.setDebounceDelay(30);
+        gestureEngine.setDoubleTapTimeout(80);
+        gestureEngine.setLongPressDuration(150);
+        gestureEngine.setListener(new GestureEngine.Listener() {
+            @Override
+            public void onGesture(GestureEngine.Gesture gesture, int buttonId) {
+                synchronized (gestures) {
+                    gestures.add(gesture + " " + buttonId);
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        timerWheel.shutdown();
+    }
+
+    @Test
+    public void bouncingEdges_settleToSinglePress() throws Exception {
+        gestureEngine.setDebounceDelay(100);
+        gestureEngine.setLongPressDuration(1000);
+        gestureEngine.onButtonEvent(A, true);
+        gestureEngine.onButtonEvent(A, false);
+        gestureEngine.onButtonEvent(A, true);
+        Thread.sleep(150);
+
+        assertGestures("PRESS 0");
+    }
+
+    @Test
+    public void shortPress_isTapOnceDoubleTapTimesOut() throws Exception {
+        tap(A);
+        assertGestures("PRESS 0", "RELEASE 0");
+
+        Thread.sleep(150);
+        assertGestures("PRESS 0", "RELEASE 0", "TAP 0");
+    }
+
+    @Test
+    public void twoShortPresses_areDoubleTap() throws Exception {
+        tap(A);
+        tap(A);
+        Thread.sleep(150);
+
+        assertGestures("PRESS 0", "RELEASE 0", "PRESS 0", "RELEASE 0", "DOUBLE_TAP 0");
+    }
+
+    @Test
+    public void heldButton_isLongPress() throws Exception {
+        gestureEngine.onButtonEvent(A, true);
+        Thread.sleep(250);
+        gestureEngine.onButtonEvent(A, false);
+        Thread.sleep(150);
+
+        assertGestures("PRESS 0", "LONG_PRESS 0", "RELEASE 0");
+    }
+
+    @Test
+    public void buttonsPressedTogether_areChord() throws Exception {
+        gestureEngine.onButtonEvent(A, true);
+        gestureEngine.onButtonEvent(B, true);
+        Thread.sleep(40);
+        gestureEngine.onButtonEvent(A, false);
+        gestureEngine.onButtonEvent(B, false);
+        Thread.sleep(250);
+
+        assertGestures("PRESS 0", "PRESS 1", "CHORD 0", "RELEASE 0", "RELEASE 1");
+    }
+
+    private void tap(int buttonId) throws InterruptedException {
+        gestureEngine.onButtonEvent(buttonId, true);
+        Thread.sleep(40);
+        gestureEngine.onButtonEvent(buttonId, false);
+        Thread.sleep(40);
+    }
+
+    private void assertGestures(String... expected) {
+        synchronized (gestures) {
+            assertEquals(java.util.Arrays.asList(expected), gestures);
+        }
+    }
+}
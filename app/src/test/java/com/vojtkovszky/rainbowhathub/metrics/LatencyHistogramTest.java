@@ -0,0 +1,43 @@
+package com.vojtkovszky.rainbowhathub.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_coverValuesContinuously() throws Exception {
+        long[] values = {0, 1, 15, 16, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = LatencyHistogram.bucketIndex(value);
+            long lowest = LatencyHistogram.bucketLowestValue(index);
+            assertTrue(value >= lowest);
+            assertTrue(value - lowest < LatencyHistogram.bucketWidth(index));
+        }
+    }
+
+    @Test
+    public void percentiles_withinBucketPrecision() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++)
+            histogram.record(i * 1000L);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000, snapshot.getMinNs());
+        assertEquals(1000000, snapshot.getMaxNs());
+        assertEquals(500500, snapshot.getMeanNs());
+        assertEquals(500000, snapshot.getValueAtPercentile(50), 500000 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(990000, snapshot.getValueAtPercentile(99), 990000 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(1000000, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void emptySnapshot_isZero() throws Exception {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMinNs());
+        assertEquals(0, snapshot.getValueAtPercentile(99));
+    }
+}
@@ -0,0 +1,58 @@
+package com.vojtkovszky.rainbowhathub.sensors;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Windowed statistics of the sample history.
+ */
+public class SampleRingBufferTest {
+
+    @Test
+    public void latestSamplesReplaceOldestOnceFull() throws Exception {
+        SampleRingBuffer buffer = new SampleRingBuffer(3);
+        for (int i = 1; i <= 5; i++)
+            buffer.add(i * 10, i);
+
+        assertEquals(3, buffer.size());
+        assertEquals(5, buffer.getTotalCount());
+        assertEquals(5f, buffer.getLatest(), 0);
+        assertEquals(3f, buffer.getValue(2), 0);
+        assertEquals(30, buffer.getTimestampNs(2));
+    }
+
+    @Test
+    public void minMaxAndMeanFollowWindow() throws Exception {
+        SampleRingBuffer buffer = new SampleRingBuffer(8);
+        float[] window = new float[8];
+        Random random = new Random(42);
+
+        for (int i = 0; i < 1000; i++) {
+            float value = random.nextFloat() * 100 - 50;
+            buffer.add(i, value);
+            window[i % window.length] = value;
+
+            int count = Math.min(i + 1, window.length);
+            float min = Float.MAX_VALUE;
+            float max = -Float.MAX_VALUE;
+            double sum = 0;
+            for (int j = 0; j < count; j++) {
+                min = Math.min(min, window[j]);
+                max = Math.max(max, window[j]);
+                sum += window[j];
+            }
+
+            assertEquals(min, buffer.getMin(), 0);
+            assertEquals(max, buffer.getMax(), 0);
+            assertEquals(sum / count, buffer.getMean(), 1e-3);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void statisticsOfEmptyBufferFail() throws Exception {
+        new SampleRingBuffer(4).getMean();
+    }
+}
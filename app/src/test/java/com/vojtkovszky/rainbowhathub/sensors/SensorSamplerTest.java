@@ -0,0 +1,102 @@
+package com.vojtkovszky.rainbowhathub.sensors;
+
+import com.vojtkovszky.rainbowhathub.hat.BoardDefaults;
+import com.vojtkovszky.rainbowhathub.hat.BusExecutor;
+import com.vojtkovszky.rainbowhathub.hat.ComponentsManager;
+import com.vojtkovszky.rainbowhathub.hat.DriverFactory;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSensor;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedBoardDefaults;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedDriverProvider;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedSensor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sampling against the simulated HAT.
+ */
+public class SensorSamplerTest {
+
+    private final BoardDefaults board = new SimulatedBoardDefaults();
+    private ComponentsManager componentsManager;
+    private SimulatedSensor sensor;
+    private SensorSampler sampler;
+
+    @Before
+    public void setUp() throws Exception {
+        SimulatedDriverProvider provider = SimulatedDriverProvider.withoutLatency();
+        DriverFactory.setDriverProvider(provider, board);
+        componentsManager = new ComponentsManager();
+        componentsManager.initAll();
+        sensor = provider.getSensor(board.getI2cBus());
+        sampler = componentsManager.getSensorSampler();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        componentsManager.closeAll();
+    }
+
+    @Test
+    public void sensor_sleepsUnlessSampling() throws Exception {
+        assertEquals(HatSensor.MODE_SLEEP, sensor.getMode());
+
+        sampler.setSamplingRate(50);
+        awaitBatches(1);
+        assertEquals(HatSensor.MODE_NORMAL, sensor.getMode());
+
+        sampler.setEnabledChannels(false, false);
+        awaitIdle();
+        assertEquals(HatSensor.MODE_SLEEP, sensor.getMode());
+    }
+
+    @Test
+    public void disabledChannel_isNotSampled() throws Exception {
+        sampler.setSamplingRate(50);
+        sampler.setEnabledChannels(true, false);
+        awaitBatches(2);
+
+        assertTrue(sampler.getHistory(SensorSampler.Channel.TEMPERATURE).size() > 0);
+        assertEquals(0, sampler.getHistory(SensorSampler.Channel.PRESSURE).size());
+    }
+
+    @Test
+    public void samplingRate_speedsUpWhileValuesChange() throws Exception {
+        sampler.setSamplingRate(25, 100);
+        sampler.setBatchSize(2);
+        sampler.setChangeThreshold(SensorSampler.Channel.TEMPERATURE, 1);
+        // way more than a degree between every two samples
+        sensor.setNoise(20);
+        awaitBatches(4);
+
+        assertEquals(100, sampler.getSamplingRate(), 0);
+    }
+
+    private void awaitBatches(int batches) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(batches);
+        componentsManager.registerSensors(new SensorSampler.Listener() {
+            @Override
+            public void onSamples(SensorSampler sampler, int count) {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    private void awaitIdle() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        componentsManager.getExecutor(BusExecutor.Bus.I2C).submit(new BusExecutor.Command() {
+            @Override
+            protected void execute() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+}
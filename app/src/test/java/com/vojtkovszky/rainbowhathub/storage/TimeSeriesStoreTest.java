@@ -0,0 +1,203 @@
+package com.vojtkovszky.rainbowhathub.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TimeSeriesStoreTest {
+
+    private static final long START_MS = 1500000000000L;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("timeseries", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void query_returnsAppendedSamplesInRange() throws Exception {
+        TimeSeriesStore store = new TimeSeriesStore(directory, "test");
+        // steady rate with some jitter and a gap, values changing in small steps
+        long timestampMs = START_MS;
+        for (int i = 0; i < 1000; i++) {
+            timestampMs += i == 500 ? 60000 : 100 + (i % 3);
+            store.append(timestampMs, 20 + i * 0.01f);
+        }
+
+        Collector all = new Collector();
+        store.query(0, Long.MAX_VALUE, all);
+        assertEquals(1000, all.timestamps.size());
+        timestampMs = START_MS;
+        for (int i = 0; i < 1000; i++) {
+            timestampMs += i == 500 ? 60000 : 100 + (i % 3);
+            assertEquals(timestampMs, (long) all.timestamps.get(i));
+            assertEquals(20 + i * 0.01f, all.values.get(i), 0);
+        }
+
+        Collector range = new Collector();
+        store.query(all.timestamps.get(10), all.timestamps.get(19), range);
+        assertEquals(10, range.timestamps.size());
+        assertEquals(all.timestamps.get(10), range.timestamps.get(0));
+        store.close();
+    }
+
+    @Test
+    public void segments_rollAndOldestAreDropped() throws Exception {
+        TimeSeriesStore store = new TimeSeriesStore(directory, "test", 256, 3);
+        for (int i = 0; i < 2000; i++)
+            store.append(START_MS + i * 1000, (float) Math.sin(i));
+
+        assertEquals(3, directory.listFiles().length);
+        Collector kept = new Collector();
+        store.query(0, Long.MAX_VALUE, kept);
+        assertTrue(kept.timestamps.size() < 2000);
+        assertEquals(store.getFirstTimestampMs(), (long) kept.timestamps.get(0));
+        // what is kept is contiguous up to the latest sample
+        assertEquals(START_MS + 1999 * 1000, (long) kept.timestamps.get(kept.timestamps.size() - 1));
+        assertEquals(2000 - kept.timestamps.size(), (kept.timestamps.get(0) - START_MS) / 1000);
+        store.close();
+    }
+
+    @Test
+    public void reopenedStore_continuesWhereLeft() throws Exception {
+        TimeSeriesStore store = new TimeSeriesStore(directory, "test", 512, 10);
+        for (int i = 0; i < 100; i++)
+            store.append(START_MS + i * 1000, i / 4);
+        store.close();
+
+        store = new TimeSeriesStore(directory, "test", 512, 10);
+        for (int i = 100; i < 200; i++)
+            store.append(START_MS + i * 1000, i / 4);
+
+        Collector all = new Collector();
+        store.query(0, Long.MAX_VALUE, all);
+        assertEquals(200, all.timestamps.size());
+        for (int i = 0; i < 200; i++) {
+            assertEquals(START_MS + i * 1000, (long) all.timestamps.get(i));
+            assertEquals(i / 4, all.values.get(i), 0);
+        }
+        store.close();
+    }
+
+    @Test
+    public void reopenedStore_appendsOverTornSample() throws Exception {
+        TimeSeriesStore store = new TimeSeriesStore(directory, "test", 512, 10);
+        for (int i = 0; i < 20; i++)
+            store.append(START_MS + i * 1000, i * 1.5f);
+        store.close();
+
+        // bits of a sample written before the crash, with the header not updated for it
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+        RandomAccessFile file = new RandomAccessFile(files[files.length - 1], "rw");
+        file.seek(24); // bit length in the header
+        long bitLength = file.readLong();
+        long offset = Segment.HEADER_SIZE + bitLength / 8;
+        file.seek(offset);
+        int partial = file.read();
+        file.seek(offset);
+        file.write(partial | (0xFF >>> (bitLength % 8)));
+        while (file.getFilePointer() < file.length())
+            file.write(0xFF);
+        file.close();
+
+        store = new TimeSeriesStore(directory, "test", 512, 10);
+        for (int i = 20; i < 40; i++)
+            store.append(START_MS + i * 1000, i * 1.5f);
+
+        Collector all = new Collector();
+        store.query(0, Long.MAX_VALUE, all);
+        assertEquals(40, all.timestamps.size());
+        for (int i = 0; i < 40; i++) {
+            assertEquals(START_MS + i * 1000, (long) all.timestamps.get(i));
+            assertEquals(i * 1.5f, all.values.get(i), 0);
+        }
+        store.close();
+    }
+
+    @Test
+    public void olderSample_droppedWhileActiveSegmentIsEmpty() throws Exception {
+        TimeSeriesStore store = new TimeSeriesStore(directory, "test", 256, 10);
+        long timestampMs = START_MS;
+        while (directory.listFiles().length < 3) {
+            timestampMs += 1000;
+            store.append(timestampMs, (float) Math.sin(timestampMs));
+        }
+        store.close();
+
+        // damaged active segment is replaced by an empty one on reopening
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+        File active = files[files.length - 1];
+        RandomAccessFile file = new RandomAccessFile(active, "rw");
+        file.writeInt(0);
+        file.close();
+        store = new TimeSeriesStore(directory, "test", 256, 10);
+
+        long lastKeptMs = store.getLastTimestampMs();
+        assertTrue(lastKeptMs > START_MS);
+        store.append(lastKeptMs - 500, 0);
+        store.append(lastKeptMs + 500, 0);
+
+        Collector all = new Collector();
+        store.query(0, Long.MAX_VALUE, all);
+        for (int i = 1; i < all.timestamps.size(); i++)
+            assertTrue(all.timestamps.get(i) > all.timestamps.get(i - 1));
+        assertEquals(lastKeptMs + 500, (long) all.timestamps.get(all.timestamps.size() - 1));
+        store.close();
+    }
+
+    @Test
+    public void rollup_aggregatesBuckets() throws Exception {
+        TimeSeriesStore store = new TimeSeriesStore(directory, "test");
+        // bucket aligned start, 10 samples a second for 3 seconds
+        for (int i = 0; i < 30; i++)
+            store.append(START_MS + i * 100, i);
+
+        final List<float[]> buckets = new ArrayList<>();
+        store.rollup(0, Long.MAX_VALUE, 1000, new TimeSeriesStore.RollupVisitor() {
+            @Override
+            public void visit(long bucketStartMs, int count, float min, float max, float mean) {
+                assertEquals(START_MS + buckets.size() * 1000, bucketStartMs);
+                buckets.add(new float[] {count, min, max, mean});
+            }
+        });
+
+        assertEquals(3, buckets.size());
+        assertArrayEquals(new float[] {10, 0, 9, 4.5f}, buckets.get(0), 0);
+        assertArrayEquals(new float[] {10, 20, 29, 24.5f}, buckets.get(2), 0);
+        store.close();
+    }
+
+    private static class Collector implements TimeSeriesStore.SampleVisitor {
+        final List<Long> timestamps = new ArrayList<>();
+        final List<Float> values = new ArrayList<>();
+
+        @Override
+        public void visit(long timestampMs, float value) {
+            timestamps.add(timestampMs);
+            values.add(value);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.vojtkovszky.rainbowhathub.telemetry;
+
+import com.vojtkovszky.rainbowhathub.events.EventBus;
+import com.vojtkovszky.rainbowhathub.hat.ComponentsManager;
+import com.vojtkovszky.rainbowhathub.hat.DriverFactory;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedBoardDefaults;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedDriverProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import static org.junit.Assert.*;
+
+/**
+ * Protocol over loopback connections.
+ */
+public class TelemetryServerTest {
+
+    private ComponentsManager componentsManager;
+    private TelemetryServer server;
+    private volatile String lastCommand;
+
+    @Before
+    public void setUp() throws Exception {
+        DriverFactory.setDriverProvider(SimulatedDriverProvider.withoutLatency(), new SimulatedBoardDefaults());
+        componentsManager = new ComponentsManager();
+        server = new TelemetryServer(componentsManager, new TelemetryServer.CommandHandler() {
+            @Override
+            public boolean onCommand(String name, String argument) {
+                lastCommand = name + "=" + argument;
+                return name.equals("mode");
+            }
+        });
+        server.start(0, 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+        componentsManager.closeAll();
+    }
+
+    @Test
+    public void events_streamedToAllClients() throws Exception {
+        Socket first = connect();
+        Socket second = connect();
+
+        server.onEvent(EventBus.TYPE_SENSOR_SAMPLE, 1, 0, 1013.257f, 0);
+        server.onEvent(EventBus.TYPE_SENSOR_SAMPLE, 0, 0, -0.5f, 0);
+        server.onEvent(EventBus.TYPE_GESTURE, 2, 3, 0, 0);
+
+        for (Socket socket : new Socket[] {first, second}) {
+            BufferedReader reader = reader(socket);
+            assertEquals("sample 1 1013.26", reader.readLine());
+            assertEquals("sample 0 -0.50", reader.readLine());
+            assertEquals("gesture 2 3", reader.readLine());
+            socket.close();
+        }
+    }
+
+    @Test
+    public void commands_answeredToSender() throws Exception {
+        Socket socket = connect();
+        BufferedReader reader = reader(socket);
+        OutputStream output = socket.getOutputStream();
+
+        output.write("mode MODE_PRESSURE\nfly away\n".getBytes("US-ASCII"));
+        output.flush();
+
+        assertEquals("ok", reader.readLine());
+        assertEquals("error fly", reader.readLine());
+        assertEquals("fly=away", lastCommand);
+        socket.close();
+    }
+
+    @Test
+    public void slowClient_skipsMissedEvents() throws Exception {
+        Socket socket = connect();
+        socket.setReceiveBufferSize(1024);
+        // way more than the broadcast ring and socket buffers hold
+        for (int i = 0; i < 100000; i++)
+            server.onEvent(EventBus.TYPE_GESTURE, 1, 1, 0, 0);
+        server.onEvent(EventBus.TYPE_MODE_CHANGED, 0, 2, 0, 0);
+
+        BufferedReader reader = reader(socket);
+        boolean dropped = false;
+        String line;
+        while (!"mode 2".equals(line = reader.readLine())) {
+            assertNotNull(line);
+            if (line.startsWith("dropped "))
+                dropped = true;
+        }
+        assertTrue(dropped);
+        socket.close();
+    }
+
+    @Test
+    public void slowClient_getsOnlyWholeLines() throws Exception {
+        Socket socket = connect();
+        socket.setReceiveBufferSize(1024);
+        OutputStream output = socket.getOutputStream();
+        // lines of varying length, so socket writes end mid-line
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 5000; i++)
+                server.onEvent(EventBus.TYPE_SENSOR_SAMPLE, 1, 0, i * 0.37f, 0);
+            output.write("mode MODE_PRESSURE\n".getBytes("US-ASCII"));
+            output.flush();
+            Thread.sleep(5);
+        }
+        server.onEvent(EventBus.TYPE_MODE_CHANGED, 0, 2, 0, 0);
+
+        // replies pending at the end may follow the last line
+        BufferedReader reader = reader(socket);
+        int replies = 0;
+        boolean ended = false;
+        while (!ended || replies < 20) {
+            String line = reader.readLine();
+            assertNotNull(line);
+            assertTrue(line, line.matches("sample 1 \\d+\\.\\d\\d|dropped \\d+|ok|mode 2"));
+            if (line.equals("ok"))
+                replies++;
+            else if (line.equals("mode 2"))
+                ended = true;
+        }
+        assertEquals(20, replies);
+        socket.close();
+    }
+
+    @Test
+    public void stalledClient_doesNotStopServer() throws Exception {
+        Socket stalled = connect();
+        stalled.setReceiveBufferSize(1024);
+        // each round overruns the ring again while the client reads nothing
+        for (int round = 0; round < 200; round++) {
+            for (int i = 0; i < 8000; i++)
+                server.onEvent(EventBus.TYPE_GESTURE, 1, 1, 0, 0);
+            Thread.sleep(10);
+        }
+
+        Socket socket = connect();
+        server.onEvent(EventBus.TYPE_MODE_CHANGED, 0, 2, 0, 0);
+        assertEquals("mode 2", readLine(socket));
+        socket.close();
+
+        // and the stalled one still catches up, told about what it missed
+        BufferedReader reader = reader(stalled);
+        boolean dropped = false;
+        boolean cut = false;
+        String line;
+        while (!"mode 2".equals(line = reader.readLine())) {
+            assertNotNull(line);
+            if (line.startsWith("dropped ")) {
+                assertTrue(line, line.matches("dropped \\d+"));
+                dropped = true;
+                cut = false;
+                continue;
+            }
+            // only a line cut short by missed data may be incomplete, and the notice follows it
+            assertFalse(line, cut);
+            cut = !line.equals("gesture 1 1");
+            assertTrue(line, "gesture 1 1".startsWith(line));
+        }
+        assertTrue(dropped);
+        stalled.close();
+    }
+
+    @Test
+    public void start_listensOnLoopbackByDefault() throws Exception {
+        assertTrue(server.getAddress().isLoopbackAddress());
+    }
+
+    private Socket connect() throws Exception {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        socket.setSoTimeout(5000);
+        // once answered, client is registered and gets everything published from now on
+        socket.getOutputStream().write("hello\n".getBytes("US-ASCII"));
+        assertEquals("error hello", readLine(socket));
+        return socket;
+    }
+
+    // reads byte by byte, so nothing after the line is buffered away from a later reader
+    private static String readLine(Socket socket) throws Exception {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = socket.getInputStream().read()) != '\n' && c >= 0)
+            line.append((char) c);
+        return line.toString();
+    }
+
+    private static BufferedReader reader(Socket socket) throws Exception {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+    }
+}
@@ -0,0 +1,104 @@
+package com.vojtkovszky.rainbowhathub.timing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TimerWheelTest {
+
+    private TimerWheel timerWheel;
+
+    @Before
+    public void setUp() throws Exception {
+        timerWheel = new TimerWheel("test-timer", 1, 8);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        timerWheel.shutdown();
+    }
+
+    @Test
+    public void schedule_firesAfterDelay() throws Exception {
+        LatchTask task = new LatchTask(1);
+        long startNs = System.nanoTime();
+        timerWheel.schedule(task, 30);
+
+        assertTrue(task.latch.await(1, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - startNs >= TimeUnit.MILLISECONDS.toNanos(30));
+        assertFalse(task.isScheduled());
+    }
+
+    @Test
+    public void schedule_beyondOneRotation() throws Exception {
+        // 8 slots of 1ms
+        LatchTask task = new LatchTask(1);
+        long startNs = System.nanoTime();
+        timerWheel.schedule(task, 50);
+
+        assertTrue(task.latch.await(1, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - startNs >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void cancel_preventsFiring() throws Exception {
+        LatchTask task = new LatchTask(1);
+        timerWheel.schedule(task, 20);
+        assertTrue(timerWheel.cancel(task));
+
+        assertFalse(task.latch.await(100, TimeUnit.MILLISECONDS));
+        assertFalse(timerWheel.cancel(task));
+    }
+
+    @Test
+    public void schedule_reschedulesInsteadOfDuplicating() throws Exception {
+        LatchTask task = new LatchTask(2);
+        timerWheel.schedule(task, 10);
+        timerWheel.schedule(task, 20);
+
+        assertFalse(task.latch.await(150, TimeUnit.MILLISECONDS));
+        assertEquals(1, task.latch.getCount());
+    }
+
+    @Test
+    public void distantTask_sleptUntilInsteadOfTicking() throws Exception {
+        LatchTask task = new LatchTask(1);
+        timerWheel.schedule(task, 300);
+
+        assertTrue(task.latch.await(1, TimeUnit.SECONDS));
+        // 300 ticks of 1ms otherwise
+        assertTrue(timerWheel.getWakeupCount() < 10);
+    }
+
+    @Test
+    public void earlierTask_scheduledWhileSleeping_firesFirst() throws Exception {
+        LatchTask distantTask = new LatchTask(1);
+        LatchTask task = new LatchTask(1);
+        timerWheel.schedule(distantTask, 500);
+        Thread.sleep(20);
+        long startNs = System.nanoTime();
+        timerWheel.schedule(task, 20);
+
+        assertTrue(task.latch.await(1, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - startNs < TimeUnit.MILLISECONDS.toNanos(400));
+        assertEquals(1, distantTask.latch.getCount());
+    }
+
+    private static class LatchTask extends TimerWheel.Task {
+        final CountDownLatch latch;
+
+        LatchTask(int count) {
+            latch = new CountDownLatch(count);
+        }
+
+        @Override
+        protected void run() {
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.vojtkovszky.rainbowhathub.trace;
+
+import com.vojtkovszky.rainbowhathub.timing.TimerWheel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TraceTest {
+
+    private File directory;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("trace", "");
+        directory.delete();
+        directory.mkdirs();
+        file = new File(directory, "input.trace");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void replay_returnsRecordsInOrder() throws Exception {
+        // small buffer, flushed several times over
+        TraceRecorder recorder = new TraceRecorder(file, 4, TraceRecorder.DEFAULT_MAX_FILE_SIZE);
+        for (int i = 0; i < 10; i++)
+            recorder.record(TraceRecorder.TYPE_SENSOR_SAMPLE, i % 2, i == 9 ? 1 : 0, 20 + i * 0.5f);
+        recorder.record(TraceRecorder.TYPE_GESTURE, 2, 3, 0);
+        recorder.close();
+
+        List<String> records = replay(new TraceReplayer(file, 3), 0);
+        assertEquals(11, records.size());
+        assertEquals("2 0 0 20.0", records.get(0));
+        assertEquals("2 1 1 24.5", records.get(9));
+        assertEquals("1 2 3 0.0", records.get(10));
+    }
+
+    @Test
+    public void realTimeReplay_keepsRecordedPace() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(file);
+        recorder.record(TraceRecorder.TYPE_BUTTON_EDGE, 0, 1, 0);
+        Thread.sleep(300);
+        recorder.record(TraceRecorder.TYPE_BUTTON_EDGE, 0, 0, 0);
+        recorder.close();
+
+        long startMs = System.currentTimeMillis();
+        replay(new TraceReplayer(file), 1);
+        long realTimeMs = System.currentTimeMillis() - startMs;
+        assertTrue("Took " + realTimeMs + " ms", realTimeMs >= 290);
+
+        startMs = System.currentTimeMillis();
+        replay(new TraceReplayer(file), 0);
+        assertTrue(System.currentTimeMillis() - startMs < 200);
+    }
+
+    @Test
+    public void givenTimestamps_recorded() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(file);
+        long timestampNs = System.nanoTime();
+        recorder.record(timestampNs, TraceRecorder.TYPE_SENSOR_SAMPLE, 0, 0, 20);
+        recorder.record(timestampNs + 300000000, TraceRecorder.TYPE_SENSOR_SAMPLE, 0, 1, 21);
+        recorder.close();
+
+        final List<Long> timestamps = new ArrayList<>();
+        new TraceReplayer(file).replay(new TraceReplayer.Listener() {
+            @Override
+            public void onRecord(int type, int source, int code, float value, long timestampNs) {
+                timestamps.add(timestampNs);
+            }
+        }, 0);
+        assertEquals(300000000, timestamps.get(1) - timestamps.get(0));
+    }
+
+    @Test
+    public void flushInterval_writesPartlyFilledBuffer() throws Exception {
+        TimerWheel timerWheel = new TimerWheel("test-timer", 1, 64);
+        TraceRecorder recorder = new TraceRecorder(file);
+        try {
+            recorder.setFlushInterval(timerWheel, 20);
+            recorder.record(TraceRecorder.TYPE_GESTURE, 0, 1, 0);
+
+            long deadlineMs = System.currentTimeMillis() + 5000;
+            while (file.length() == TraceRecorder.HEADER_SIZE && System.currentTimeMillis() < deadlineMs)
+                Thread.sleep(10);
+            assertEquals(TraceRecorder.HEADER_SIZE + TraceRecorder.RECORD_SIZE, file.length());
+        }
+        finally {
+            recorder.close();
+            timerWheel.shutdown();
+        }
+    }
+
+    @Test
+    public void fullBuffers_writtenInOrderWhileRecording() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(file, 2, TraceRecorder.DEFAULT_MAX_FILE_SIZE);
+        for (int i = 0; i < 1000; i++)
+            recorder.record(TraceRecorder.TYPE_MODE_SET, 0, i, 0);
+        recorder.close();
+
+        List<String> records = replay(new TraceReplayer(file), 0);
+        assertEquals(1000, records.size());
+        for (int i = 0; i < records.size(); i++)
+            assertEquals("3 0 " + i + " 0.0", records.get(i));
+    }
+
+    @Test
+    public void fullTrace_movedAside() throws Exception {
+        long maxFileSize = TraceRecorder.HEADER_SIZE + 8 * TraceRecorder.RECORD_SIZE;
+        TraceRecorder recorder = new TraceRecorder(file, 4, maxFileSize);
+        for (int i = 0; i < 12; i++)
+            recorder.record(TraceRecorder.TYPE_MODE_SET, 0, i, 0);
+        recorder.close();
+
+        // first two buffers moved aside once the third didn't fit anymore
+        assertEquals(8, replay(new TraceReplayer(recorder.getOldFile()), 0).size());
+        assertEquals("3 0 8 0.0", replay(new TraceReplayer(file), 0).get(0));
+
+        // and again when recording starts over, keeping the previous run
+        new TraceRecorder(file).close();
+        assertEquals(4, replay(new TraceReplayer(recorder.getOldFile()), 0).size());
+    }
+
+    @Test
+    public void truncatedRecord_ignored() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(file);
+        recorder.record(TraceRecorder.TYPE_GESTURE, 0, 1, 0);
+        recorder.record(TraceRecorder.TYPE_GESTURE, 0, 2, 0);
+        recorder.close();
+
+        RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+        truncated.setLength(truncated.length() - 5);
+        truncated.close();
+        assertEquals(1, replay(new TraceReplayer(file), 0).size());
+    }
+
+    private static List<String> replay(TraceReplayer replayer, float speed) throws Exception {
+        final List<String> records = new ArrayList<>();
+        replayer.replay(new TraceReplayer.Listener() {
+            @Override
+            public void onRecord(int type, int source, int code, float value, long timestampNs) {
+                records.add(type + " " + source + " " + code + " " + value);
+            }
+        }, speed);
+        return records;
+    }
+}
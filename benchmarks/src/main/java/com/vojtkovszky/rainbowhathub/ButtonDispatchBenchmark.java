@@ -0,0 +1,79 @@
+package com.vojtkovszky.rainbowhathub;
+
+import com.vojtkovszky.rainbowhathub.hat.BoardDefaults;
+import com.vojtkovszky.rainbowhathub.hat.DriverFactory;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedBoardDefaults;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedButton;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedDriverProvider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raw button edges going through the gesture engine to {@link HubRuntime}, with the whole hub
+ * running on the simulated HAT. Measures the time spent on the input thread only, resulting
+ * peripheral I/O happens on the bus executors. Edges come much faster than the debounce delay,
+ * so most of them measure the bounce filtering.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ButtonDispatchBenchmark {
+
+    private File directory;
+    private HubRuntime hubRuntime;
+    private SimulatedButton buttonA;
+    private SimulatedButton buttonC;
+
+    @Setup
+    public void setUp() {
+        BoardDefaults board = new SimulatedBoardDefaults();
+        SimulatedDriverProvider provider = SimulatedDriverProvider.withoutLatency();
+        DriverFactory.setDriverProvider(provider, board);
+
+        directory = new File(System.getProperty("java.io.tmpdir"), "button-dispatch");
+        hubRuntime = new HubRuntime(directory, 0);
+        hubRuntime.startInputs();
+
+        buttonA = provider.getButton(board.getButtonA());
+        buttonC = provider.getButton(board.getButtonC());
+    }
+
+    @TearDown
+    public void tearDown() {
+        hubRuntime.close();
+    }
+
+    /**
+     * Button C only lights its led and plays feedback tones.
+     */
+    @Benchmark
+    public void pressAndReleaseButtonC() {
+        buttonC.press();
+        buttonC.release();
+    }
+
+    /**
+     * Button A also schedules tap and long press timeouts.
+     */
+    @Benchmark
+    public void pressAndReleaseButtonA() {
+        buttonA.press();
+        buttonA.release();
+    }
+}
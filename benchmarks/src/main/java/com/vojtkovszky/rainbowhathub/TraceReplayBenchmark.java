@@ -0,0 +1,93 @@
+package com.vojtkovszky.rainbowhathub;
+
+import com.vojtkovszky.rainbowhathub.hat.ComponentsManager;
+import com.vojtkovszky.rainbowhathub.hat.DriverFactory;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedBoardDefaults;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedDriverProvider;
+import com.vojtkovszky.rainbowhathub.input.GestureEngine;
+import com.vojtkovszky.rainbowhathub.trace.TraceRecorder;
+import com.vojtkovszky.rainbowhathub.trace.TraceReplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Input trace replayed as fast as possible through the whole hub running on the simulated HAT.
+ * Replays a trace pulled off a device when given one with -p tracePath=..., otherwise a made up
+ * trace of sensor samples with the odd gesture in between. Measures the time spent on the
+ * replaying thread, resulting peripheral I/O happens on the bus executors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraceReplayBenchmark {
+
+    private static final int GENERATED_SAMPLES = 10000;
+    private static final int SAMPLES_PER_BATCH = 5;
+    private static final int SAMPLES_PER_GESTURE = 500;
+
+    @Param({""})
+    public String tracePath;
+
+    private File directory;
+    private HubRuntime hubRuntime;
+    private TraceReplayer replayer;
+
+    @Setup
+    public void setUp() throws IOException {
+        DriverFactory.setDriverProvider(SimulatedDriverProvider.withoutLatency(), new SimulatedBoardDefaults());
+        directory = new File(System.getProperty("java.io.tmpdir"), "trace-replay");
+        hubRuntime = new HubRuntime(directory, 0);
+
+        File trace = tracePath.isEmpty() ? generateTrace(new File(directory, "generated.trace")) : new File(tracePath);
+        replayer = new TraceReplayer(trace);
+    }
+
+    @TearDown
+    public void tearDown() {
+        hubRuntime.close();
+    }
+
+    @Benchmark
+    public long replay() throws IOException, InterruptedException {
+        return hubRuntime.replay(replayer, 0);
+    }
+
+    private static File generateTrace(File file) throws IOException {
+        TraceRecorder recorder = new TraceRecorder(file);
+        for (int i = 0; i < GENERATED_SAMPLES; i++) {
+            int channel = i % 2;
+            float value = channel == 0 ? 20 + (i % 100) * 0.05f : 1000 + (i % 50) * 0.2f;
+            boolean endOfBatch = i / 2 % SAMPLES_PER_BATCH == SAMPLES_PER_BATCH - 1;
+            recorder.record(TraceRecorder.TYPE_SENSOR_SAMPLE, channel, endOfBatch ? 1 : 0, value);
+
+            if (i % SAMPLES_PER_GESTURE == 0) {
+                recorder.record(TraceRecorder.TYPE_GESTURE, ComponentsManager.BUTTON_ID_A,
+                        GestureEngine.Gesture.PRESS.ordinal(), 0);
+                recorder.record(TraceRecorder.TYPE_GESTURE, ComponentsManager.BUTTON_ID_A,
+                        GestureEngine.Gesture.RELEASE.ordinal(), 0);
+                recorder.record(TraceRecorder.TYPE_GESTURE, ComponentsManager.BUTTON_ID_A,
+                        GestureEngine.Gesture.TAP.ordinal(), 0);
+            }
+        }
+        recorder.close();
+        return file;
+    }
+}
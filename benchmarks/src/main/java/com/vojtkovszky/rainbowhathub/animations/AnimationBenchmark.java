@@ -0,0 +1,60 @@
+package com.vojtkovszky.rainbowhathub.animations;
+
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedBoardDefaults;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame generation of each animation, to be compared against its frame budget.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnimationBenchmark {
+
+    private static final long FRAME_INTERVAL_MS = 16;
+
+    @Param({"rainbow", "breathing", "chase", "gradient"})
+    public String animationName;
+
+    private Animation animation;
+    private final int[] frame = new int[SimulatedBoardDefaults.LEDSTRIP_LENGTH];
+    private long frameTimeMs;
+
+    @Setup
+    public void setUp() {
+        switch (animationName) {
+            case "rainbow": animation = new RainbowAnimation(3000); break;
+            case "breathing": animation = new BreathingAnimation(170, 4000); break;
+            case "chase": animation = new ChaseAnimation(85, 120); break;
+            default:
+                GradientAnimation gradient = new GradientAnimation(15, 30);
+                gradient.setValue(22.5f);
+                animation = gradient;
+                break;
+        }
+        frameTimeMs = 0;
+    }
+
+    @Benchmark
+    public int[] produceFrame() {
+        frameTimeMs += FRAME_INTERVAL_MS;
+        animation.produceFrame(frame, frameTimeMs);
+        return frame;
+    }
+}
@@ -0,0 +1,48 @@
+package com.vojtkovszky.rainbowhathub.handlers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting of sensor values for the display, against the String.valueOf() it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DisplayFormatBenchmark {
+
+    // typical temperature and pressure readings
+    private static final float[] VALUES = {21.37f, 22.5f, -3.2f, 1013.25f, 998.7f, 0.5f, 9.999f, 35.01f};
+
+    private final char[] chars = new char[DisplayHandler.DISPLAY_LENGTH];
+    private final boolean[] dots = new boolean[DisplayHandler.DISPLAY_LENGTH];
+    private int index = 0;
+
+    @Benchmark
+    public char[] formatValue() {
+        DisplayHandler.formatValue(nextValue(), chars, dots);
+        return chars;
+    }
+
+    @Benchmark
+    public String stringValueOf() {
+        return String.valueOf(nextValue());
+    }
+
+    private float nextValue() {
+        index = (index + 1) % VALUES.length;
+        return VALUES[index];
+    }
+}
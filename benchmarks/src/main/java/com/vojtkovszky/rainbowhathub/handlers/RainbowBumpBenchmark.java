@@ -0,0 +1,68 @@
+package com.vojtkovszky.rainbowhathub.handlers;
+
+import com.vojtkovszky.rainbowhathub.hat.ComponentsManager;
+import com.vojtkovszky.rainbowhathub.hat.DriverFactory;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedBoardDefaults;
+import com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedDriverProvider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame generation of the rainbow bump animation, at the renderer's frame rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RainbowBumpBenchmark {
+
+    private static final long FRAME_INTERVAL_MS = 1000 / LedStripRenderer.DEFAULT_FRAMES_PER_SECOND;
+
+    private ComponentsManager componentsManager;
+    private LedStripRenderer renderer;
+    private RainbowBumpHandler rainbowBumpHandler;
+
+    private final int[] frame = new int[SimulatedBoardDefaults.LEDSTRIP_LENGTH];
+    private long frameTimeMs;
+
+    @Setup
+    public void setUp() {
+        DriverFactory.setDriverProvider(SimulatedDriverProvider.withoutLatency(), new SimulatedBoardDefaults());
+        componentsManager = new ComponentsManager();
+        renderer = new LedStripRenderer(componentsManager);
+        rainbowBumpHandler = new RainbowBumpHandler(renderer);
+        frameTimeMs = 1;
+    }
+
+    @TearDown
+    public void tearDown() {
+        renderer.release();
+        componentsManager.closeAll();
+    }
+
+    @Benchmark
+    public int[] produceFrame() {
+        frameTimeMs += FRAME_INTERVAL_MS;
+        if (!rainbowBumpHandler.produceFrame(frame, frameTimeMs)) {
+            // start over once all leds are lit
+            rainbowBumpHandler.resetBump();
+            Arrays.fill(frame, 0);
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,39 @@
+package com.vojtkovszky.rainbowhathub.handlers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cycling through working modes, as done on every button A release.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorkingModeBenchmark {
+
+    private WorkingModeHandler workingModeHandler;
+
+    @Setup
+    public void setUp() {
+        workingModeHandler = new WorkingModeHandler(WorkingModeHandler.WorkingMode.MODE_OFF);
+    }
+
+    @Benchmark
+    public WorkingModeHandler.WorkingMode toggleMode() {
+        workingModeHandler.toggleMode();
+        return workingModeHandler.getCurrentMode();
+    }
+}
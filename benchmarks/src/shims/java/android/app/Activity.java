@@ -0,0 +1,14 @@
+package android.app;
+
+import android.content.Context;
+import android.os.Bundle;
+
+/**
+ * JVM stand-in, only the lifecycle callbacks used by the hub.
+ */
+public class Activity extends Context {
+    protected void onCreate(Bundle savedInstanceState) {}
+    protected void onStart() {}
+    protected void onStop() {}
+    protected void onDestroy() {}
+}
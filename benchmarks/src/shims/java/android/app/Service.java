@@ -0,0 +1,22 @@
+package android.app;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+
+/**
+ * JVM stand-in, only the lifecycle callbacks used by the hub.
+ */
+public abstract class Service extends Context {
+    public static final int START_STICKY = 1;
+
+    public void onCreate() {}
+
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_STICKY;
+    }
+
+    public abstract IBinder onBind(Intent intent);
+
+    public void onDestroy() {}
+}
@@ -0,0 +1,6 @@
+package android.content;
+
+/**
+ * JVM stand-in, never created.
+ */
+public class ComponentName {}
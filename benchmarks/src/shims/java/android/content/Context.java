@@ -0,0 +1,25 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * JVM stand-in, only the files directory and the service calls used by the hub.
+ * Services are never actually started or bound.
+ */
+public class Context {
+    public static final int BIND_AUTO_CREATE = 1;
+
+    public File getFilesDir() {
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    public ComponentName startService(Intent service) {
+        return null;
+    }
+
+    public boolean bindService(Intent service, ServiceConnection connection, int flags) {
+        return false;
+    }
+
+    public void unbindService(ServiceConnection connection) {}
+}
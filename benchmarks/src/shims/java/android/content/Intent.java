@@ -0,0 +1,8 @@
+package android.content;
+
+/**
+ * JVM stand-in, only the explicit component constructor used by the hub.
+ */
+public class Intent {
+    public Intent(Context packageContext, Class<?> cls) {}
+}
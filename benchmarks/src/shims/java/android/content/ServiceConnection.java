@@ -0,0 +1,12 @@
+package android.content;
+
+import android.os.IBinder;
+
+/**
+ * JVM stand-in.
+ */
+public interface ServiceConnection {
+    void onServiceConnected(ComponentName name, IBinder service);
+
+    void onServiceDisconnected(ComponentName name);
+}
@@ -0,0 +1,6 @@
+package android.os;
+
+/**
+ * JVM stand-in, local binders only.
+ */
+public class Binder implements IBinder {}
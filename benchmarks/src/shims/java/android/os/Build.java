@@ -0,0 +1,8 @@
+package android.os;
+
+/**
+ * JVM stand-in.
+ */
+public class Build {
+    public static final String DEVICE = "jvm";
+}
@@ -0,0 +1,7 @@
+package android.os;
+
+/**
+ * JVM stand-in.
+ */
+public class Bundle {
+}
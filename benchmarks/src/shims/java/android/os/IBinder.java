@@ -0,0 +1,6 @@
+package android.os;
+
+/**
+ * JVM stand-in.
+ */
+public interface IBinder {}
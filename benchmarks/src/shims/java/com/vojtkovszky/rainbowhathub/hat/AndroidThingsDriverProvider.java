@@ -0,0 +1,55 @@
+package com.vojtkovszky.rainbowhathub.hat;
+
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatButton;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatDisplay;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatLed;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatLedStrip;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSensor;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatServo;
+import com.vojtkovszky.rainbowhathub.hat.peripherals.HatSpeaker;
+
+/**
+ * JVM stand-in, Android Things drivers are not available off device.
+ * Benchmarks install a {@link com.vojtkovszky.rainbowhathub.hat.simulated.SimulatedDriverProvider}.
+ */
+public class AndroidThingsDriverProvider implements DriverProvider {
+
+    @Override
+    public HatDisplay openDisplay(String i2cBus) {
+        throw unavailable();
+    }
+
+    @Override
+    public HatLedStrip openLedStrip(String spiBus, int spiFrequencyHz, int length) {
+        throw unavailable();
+    }
+
+    @Override
+    public HatSensor openSensor(String i2cBus) {
+        throw unavailable();
+    }
+
+    @Override
+    public HatLed openLed(String pin) {
+        throw unavailable();
+    }
+
+    @Override
+    public HatButton openButton(String pin) {
+        throw unavailable();
+    }
+
+    @Override
+    public HatSpeaker openSpeaker(String pwm) {
+        throw unavailable();
+    }
+
+    @Override
+    public HatServo openServo(String pwm) {
+        throw unavailable();
+    }
+
+    private static UnsupportedOperationException unavailable() {
+        return new UnsupportedOperationException("Android Things drivers are not available on the JVM");
+    }
+}